@@ -0,0 +1,90 @@
+package benchmarks.interpreter;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import jmaker.interpreter.ArrayValue;
+import jmaker.interpreter.DictionaryValue;
+import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.IntegerValue;
+import jmaker.interpreter.Interpreter;
+import jmaker.interpreter.StringValue;
+import jmaker.parser.BinaryOperator;
+import jmaker.parser.Block;
+import jmaker.parser.Statement;
+
+// "+" on arrays and dictionaries, which scripts use to build up lists of files and
+// option maps.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryOpBenchmark {
+	@Param({
+		"10", "1000", "100000"
+	})
+	public int size;
+
+	private Interpreter interpreter;
+	private ArrayValue array;
+	private ArrayValue smallArray;
+	private DictionaryValue dict;
+	private DictionaryValue smallDict;
+	private ExpressionValue element;
+
+	@Setup
+	public void createValues() {
+		interpreter = new Interpreter(new Block(new Statement[]{}));
+
+		var elements = new ExpressionValue[size];
+		var dictBuilder = DictionaryValue.EMPTY;
+		for (int i = 0; i < size; i++) {
+			elements[i] = new StringValue("file" + i + ".java");
+			dictBuilder = dictBuilder.with(new StringValue("key" + i), IntegerValue.of(i));
+		}
+		array = new ArrayValue(elements);
+		dict = dictBuilder;
+
+		smallArray = new ArrayValue(new ExpressionValue[]{
+			new StringValue("extra1.java"), new StringValue("extra2.java")
+		});
+		smallDict = DictionaryValue.EMPTY.with(new StringValue("key0"), IntegerValue.of(-1)).with(new StringValue("new"), IntegerValue.of(1));
+		element = new StringValue("extra.java");
+	}
+
+	@Benchmark
+	public ExpressionValue appendElement() {
+		return interpreter.runBinaryOp(array, element, BinaryOperator.ADD);
+	}
+
+	@Benchmark
+	public ExpressionValue concatSmallArray() {
+		return interpreter.runBinaryOp(array, smallArray, BinaryOperator.ADD);
+	}
+
+	@Benchmark
+	public ExpressionValue concatSameSize() {
+		return interpreter.runBinaryOp(array, array, BinaryOperator.ADD);
+	}
+
+	@Benchmark
+	public ExpressionValue mergeSmallDict() {
+		return interpreter.runBinaryOp(dict, smallDict, BinaryOperator.ADD);
+	}
+
+	@Benchmark
+	public ExpressionValue mergeSameSize() {
+		return interpreter.runBinaryOp(dict, dict, BinaryOperator.ADD);
+	}
+}
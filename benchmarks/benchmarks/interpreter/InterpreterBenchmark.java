@@ -0,0 +1,97 @@
+package benchmarks.interpreter;
+
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import codegen.JMakerLexer;
+import codegen.JMakerParser;
+import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.Interpreter;
+import jmaker.parser.Block;
+import jmaker.parser.Expression;
+import jmaker.parser.Statement;
+import jmaker.parser.VisitorManager;
+
+// Running whole scripts in both interpreter modes, and evaluating a single expression
+// with Interpreter.runExpression.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+	private static final String ARITHMETIC_LOOP = String.join("\n",
+		"total = 0;",
+		"i = 0;",
+		"while i < 10000 {",
+		"	total = total + i * 3 - i / 2;",
+		"	i = i + 1;",
+		"}");
+
+	private static final String STRING_LOOP = String.join("\n",
+		"text = \"\";",
+		"i = 0;",
+		"while i < 2000 {",
+		"	text = text + toString(i) + \",\";",
+		"	if length(text) > 100 { text = range(text, 50); }",
+		"	i = i + 1;",
+		"}");
+
+	@Param({
+		"TREE_WALKER", "BYTECODE"
+	})
+	public Interpreter.Mode mode;
+
+	private Block arithmeticLoop;
+	private Block stringLoop;
+	private Interpreter expressionInterpreter;
+	private Expression expression;
+
+	@Setup
+	public void parseScripts() {
+		arithmeticLoop = parse(ARITHMETIC_LOOP);
+		stringLoop = parse(STRING_LOOP);
+
+		expressionInterpreter = new Interpreter(parse("a = 12; b = 30;"));
+		expressionInterpreter.run();
+		var statement = (Statement.ExpressionStatement) parse("(a + b) * (a - b) / 3 + a == 2 || b > a;").statements[0];
+		expression = statement.expression;
+	}
+
+	private static Block parse(String code) {
+		var lexer = new JMakerLexer(CharStreams.fromString(code));
+		var parser = new JMakerParser(new CommonTokenStream(lexer));
+		return new VisitorManager().visitAll(parser);
+	}
+
+	@Benchmark
+	public Interpreter arithmeticLoop() {
+		var interpreter = new Interpreter(arithmeticLoop, mode);
+		interpreter.run();
+		return interpreter;
+	}
+
+	@Benchmark
+	public Interpreter stringLoop() {
+		var interpreter = new Interpreter(stringLoop, mode);
+		interpreter.run();
+		return interpreter;
+	}
+
+	@Benchmark
+	public ExpressionValue runExpression() {
+		return expressionInterpreter.runExpression(expression);
+	}
+}
@@ -0,0 +1,66 @@
+package benchmarks.parser;
+
+import java.util.concurrent.TimeUnit;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import codegen.JMakerLexer;
+import codegen.JMakerParser;
+import jmaker.parser.Block;
+import jmaker.parser.VisitorManager;
+
+// Lexing, parsing and building the syntax tree for a large generated script.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+	// Number of rule groups in the script; each one is about ten lines.
+	@Param({
+		"100", "1000"
+	})
+	public int size;
+
+	private String script;
+
+	@Setup
+	public void generateScript() {
+		var builder = new StringBuilder();
+		builder.append("flags = \"-g -Xlint\";\n");
+		builder.append("sources = [];\n");
+		for (int i = 0; i < size; i++) {
+			builder.append("name" + i + " = \"src/module" + i + "/Main\";\n");
+			builder.append("sources = sources + [name" + i + " + \".java\"];\n");
+			builder.append("if length(sources) > " + i + " && " + i + " < 500 {\n");
+			builder.append("\toptions = {\"debug\": true, \"level\": " + i + ", \"tags\": [\"a\", \"b\"]};\n");
+			builder.append("} else {\n");
+			builder.append("\toptions = {};\n");
+			builder.append("}\n");
+			builder.append("name" + i + " + \".class\": name" + i + " + \".java\" {\n");
+			builder.append("\t> \"javac \" + flags + \" \" + dep;\n");
+			builder.append("}\n");
+		}
+		script = builder.toString();
+	}
+
+	@Benchmark
+	public Block parse() {
+		var chars = CharStreams.fromString(script);
+		var lexer = new JMakerLexer(chars);
+		var tokens = new CommonTokenStream(lexer);
+		var parser = new JMakerParser(tokens);
+		return new VisitorManager().visitAll(parser);
+	}
+}
@@ -0,0 +1,112 @@
+package benchmarks.runtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import jmaker.interpreter.ArrayValue;
+import jmaker.interpreter.DictionaryValue;
+import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.IntegerValue;
+import jmaker.interpreter.Interpreter;
+import jmaker.interpreter.StringValue;
+import jmaker.parser.Block;
+import jmaker.parser.Statement;
+import jmaker.runtime.FileSystemFunctions;
+import jmaker.runtime.NativeFunction;
+
+// Calling builtins: picking the right overload for the argument types, and joinPath's
+// string handling.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NativeFunctionBenchmark {
+	private NativeFunction length;
+	private NativeFunction find;
+	private NativeFunction toString;
+	private ExpressionValue[] stringArgs;
+	private ExpressionValue[] arrayArgs;
+	private ExpressionValue[] dictArgs;
+	private ExpressionValue[] findArgs;
+	private ExpressionValue[] toStringArgs;
+	private ExpressionValue[] joinPathArgs;
+	private ExpressionValue[] joinPathArrayArgs;
+
+	@Setup
+	public void lookUpFunctions() {
+		var memory = new Interpreter(new Block(new Statement[]{})).memory;
+		length = (NativeFunction) memory.get("length");
+		find = (NativeFunction) memory.get("find");
+		toString = (NativeFunction) memory.get("toString");
+
+		var array = new ArrayValue(new ExpressionValue[]{
+			IntegerValue.of(1), IntegerValue.of(2), IntegerValue.of(3)
+		});
+		stringArgs = new ExpressionValue[]{
+			new StringValue("src/main/java/Main.java")
+		};
+		arrayArgs = new ExpressionValue[]{
+			array
+		};
+		dictArgs = new ExpressionValue[]{
+			DictionaryValue.EMPTY.with(new StringValue("a"), IntegerValue.of(1))
+		};
+		findArgs = new ExpressionValue[]{
+			new StringValue("src/main/java/Main.java"), new StringValue("Main")
+		};
+		toStringArgs = new ExpressionValue[]{
+			IntegerValue.of(12345)
+		};
+		joinPathArgs = new ExpressionValue[]{
+			new StringValue("/home/user/project/"), new StringValue("/src/main/"), new StringValue("java"), new StringValue("Main.java")
+		};
+		joinPathArrayArgs = new ExpressionValue[]{
+			new ArrayValue(joinPathArgs)
+		};
+	}
+
+	@Benchmark
+	public ExpressionValue lengthOfString() {
+		return length.call(stringArgs);
+	}
+
+	@Benchmark
+	public ExpressionValue lengthOfArray() {
+		return length.call(arrayArgs);
+	}
+
+	@Benchmark
+	public ExpressionValue lengthOfDict() {
+		return length.call(dictArgs);
+	}
+
+	@Benchmark
+	public ExpressionValue findInString() {
+		return find.call(findArgs);
+	}
+
+	@Benchmark
+	public ExpressionValue integerToString() {
+		return toString.call(toStringArgs);
+	}
+
+	@Benchmark
+	public ExpressionValue joinPath() {
+		return FileSystemFunctions.joinPath(joinPathArgs);
+	}
+
+	@Benchmark
+	public ExpressionValue joinPathArray() {
+		return FileSystemFunctions.joinPath(joinPathArrayArgs);
+	}
+}
@@ -1,17 +1,119 @@
 package jmaker.interpreter;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
-public class ArrayValue implements ExpressionValue {
-	public final ExpressionValue[] elements;
+// Arrays are values: every change returns a new ArrayValue. They're backed by a
+// PersistentVector so that building a list one item at a time isn't quadratic, and
+// slices are views into the same vector.
+public class ArrayValue implements ExpressionValue, Iterable<ExpressionValue> {
+	private final PersistentVector<ExpressionValue> vector;
+	// The range of the vector that's part of this array.
+	private final int start;
+	private final int end;
 
 	public ArrayValue(ArrayList<ExpressionValue> elements) {
 		this(elements.toArray(size->new ExpressionValue[size]));
 	}
 
 	public ArrayValue(ExpressionValue[] elements) {
-		this.elements = elements;
+		this(PersistentVector.of(elements), 0, elements.length);
+	}
+
+	private ArrayValue(PersistentVector<ExpressionValue> vector, int start, int end) {
+		this.vector = vector;
+		this.start = start;
+		this.end = end;
+	}
+
+	public int size() {
+		return end - start;
+	}
+
+	public ExpressionValue get(int index) {
+		return vector.get(start + index);
+	}
+
+	public ArrayValue append(ExpressionValue value) {
+		if (end == vector.size()) {
+			return new ArrayValue(vector.append(value), start, end + 1);
+		}
+		// This is a slice; reuse the space after it.
+		return new ArrayValue(vector.set(end, value), start, end + 1);
+	}
+
+	public ArrayValue set(int index, ExpressionValue value) {
+		if (index == size()) {
+			return append(value);
+		}
+		return new ArrayValue(vector.set(start + index, value), start, end);
+	}
+
+	// Elements from startIndex (inclusive) to endIndex (exclusive).
+	public ArrayValue slice(int startIndex, int endIndex) {
+		assert (startIndex >= 0 && startIndex <= endIndex && endIndex <= size());
+		return new ArrayValue(vector, start + startIndex, start + endIndex);
+	}
+
+	public ArrayValue concat(ArrayValue other) {
+		if (other.size() == 0) {
+			return this;
+		}
+		if (size() == 0) {
+			return other;
+		}
+		var ret = this;
+		for (var item : other) {
+			ret = ret.append(item);
+		}
+		return ret;
+	}
+
+	public ArrayValue remove(int index) {
+		if (index == 0) {
+			return slice(1, size());
+		}
+		if (index == size() - 1) {
+			return slice(0, index);
+		}
+		return slice(0, index).concat(slice(index + 1, size()));
+	}
+
+	public ExpressionValue[] toArray() {
+		var ret = new ExpressionValue[size()];
+		int i = 0;
+		for (var item : this) {
+			ret[i] = item;
+			i++;
+		}
+		return ret;
+	}
+
+	@Override
+	public Iterator<ExpressionValue> iterator() {
+		return new Iterator<>() {
+			private int index = start;
+			private Object[] leaf = null;
+
+			@Override
+			public boolean hasNext() {
+				return index < end;
+			}
+
+			@Override
+			public ExpressionValue next() {
+				if (index >= end) {
+					throw new NoSuchElementException();
+				}
+				if (leaf == null || (index & 31) == 0) {
+					leaf = vector.leafFor(index);
+				}
+				var ret = (ExpressionValue) leaf[index & 31];
+				index++;
+				return ret;
+			}
+		};
 	}
 
 	@Override
@@ -23,10 +125,10 @@ public class ArrayValue implements ExpressionValue {
 		if (i < 0) {
 			throw new RuntimeException("Negative index: " + i);
 		}
-		if (i >= elements.length) {
-			throw new RuntimeException("Index out of bounds: " + i + " (array size: " + elements.length + ")");
+		if (i >= size()) {
+			throw new RuntimeException("Index out of bounds: " + i + " (array size: " + size() + ")");
 		}
-		return elements[i];
+		return get(i);
 	}
 
 	@Override
@@ -39,25 +141,18 @@ public class ArrayValue implements ExpressionValue {
 		var builder = new StringBuilder();
 		builder.append('[');
 
-		if (elements.length > 0) {
-			if (elements[0].getType() == DataType.String) {
-				builder.append('"');
-				builder.append(elements[0].toString());
-				builder.append('"');
-			} else {
-				builder.append(elements[0].toString());
+		boolean first = true;
+		for (var element : this) {
+			if (!first) {
+				builder.append(", ");
 			}
-		}
-
-		for (int i = 1; i < elements.length; i++) {
-			builder.append(", ");
-			var cast = elements[i].toString();
-			if (elements[i].getType() == DataType.String) {
+			first = false;
+			if (element.getType() == DataType.String) {
 				builder.append('"');
-				builder.append(cast);
+				builder.append(element.toString());
 				builder.append('"');
 			} else {
-				builder.append(cast);
+				builder.append(element.toString());
 			}
 		}
 
@@ -67,10 +162,13 @@ public class ArrayValue implements ExpressionValue {
 
 	@Override
 	public int hashCode() {
+		// Same as Arrays.hashCode(toArray()), plus the usual prime.
 		final int prime = 31;
-		int result = 1;
-		result = prime * result + Arrays.hashCode(elements);
-		return result;
+		int elementsHash = 1;
+		for (var element : this) {
+			elementsHash = prime * elementsHash + (element == null ? 0 : element.hashCode());
+		}
+		return prime + elementsHash;
 	}
 
 	@Override
@@ -82,6 +180,15 @@ public class ArrayValue implements ExpressionValue {
 			return false;
 		}
 		ArrayValue other = (ArrayValue) obj;
-		return Arrays.equals(elements, other.elements);
+		if (size() != other.size()) {
+			return false;
+		}
+		var otherIterator = other.iterator();
+		for (var element : this) {
+			if (!element.equals(otherIterator.next())) {
+				return false;
+			}
+		}
+		return true;
 	}
 }
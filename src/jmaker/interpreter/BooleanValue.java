@@ -1,15 +1,24 @@
 package jmaker.interpreter;
 
-import java.util.Objects;
 import jmaker.parser.Expression;
 
 public class BooleanValue implements ExpressionValue, Expression {
+	private static final long serialVersionUID = 1L;
+
+	public static final BooleanValue TRUE = new BooleanValue(true);
+	public static final BooleanValue FALSE = new BooleanValue(false);
+
 	public final boolean value;
 
+	// Prefer of(), which doesn't allocate.
 	public BooleanValue(boolean value) {
 		this.value = value;
 	}
 
+	public static BooleanValue of(boolean value) {
+		return value ? TRUE : FALSE;
+	}
+
 	@Override
 	public DataType getType() {
 		return DataType.Boolean;
@@ -31,7 +40,7 @@ public class BooleanValue implements ExpressionValue, Expression {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(value);
+		return 31 + Boolean.hashCode(value);
 	}
 
 	@Override
@@ -46,4 +55,9 @@ public class BooleanValue implements ExpressionValue, Expression {
 		return value == other.value;
 	}
 
+	// Keep deserialized scripts using the canonical instances.
+	private Object readResolve() {
+		return of(value);
+	}
+
 }
@@ -0,0 +1,53 @@
+package jmaker.interpreter;
+
+// A compiled block. See Opcode for the instruction format.
+public class Bytecode {
+	final int[] code;
+	final Object[] constants;
+	final int maxStackSize;
+
+	Bytecode(int[] code, Object[] constants, int maxStackSize) {
+		this.code = code;
+		this.constants = constants;
+		this.maxStackSize = maxStackSize;
+	}
+
+	// A human-readable listing, for debugging the compiler.
+	public String disassemble() {
+		var builder = new StringBuilder();
+		int pc = 0;
+		while (pc < code.length) {
+			var opcode = code[pc];
+			builder.append(pc);
+			builder.append(": ");
+			builder.append(Opcode.getName(opcode));
+			for (int i = 0; i < Opcode.getOperandCount(opcode); i++) {
+				builder.append(' ');
+				builder.append(code[pc + 1 + i]);
+			}
+			if (opcode == Opcode.CONSTANT || opcode == Opcode.LOAD || opcode == Opcode.STORE || opcode == Opcode.FAIL
+				|| opcode == Opcode.LOAD_LOCAL || opcode == Opcode.STORE_LOCAL) {
+				builder.append(" (");
+				builder.append(constants[code[pc + 1]]);
+				builder.append(')');
+			}
+			builder.append('\n');
+			pc += 1 + Opcode.getOperandCount(opcode);
+		}
+		return builder.toString();
+	}
+
+	static class CompiledRule {
+		final int targetCount;
+		final int dependencyCount;
+		final int frameSize;
+		final Bytecode body;
+
+		CompiledRule(int targetCount, int dependencyCount, int frameSize, Bytecode body) {
+			this.targetCount = targetCount;
+			this.dependencyCount = dependencyCount;
+			this.frameSize = frameSize;
+			this.body = body;
+		}
+	}
+}
@@ -0,0 +1,290 @@
+package jmaker.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import jmaker.parser.Block;
+import jmaker.parser.Expression;
+import jmaker.parser.Expression.Binary;
+import jmaker.parser.Expression.FunctionCall;
+import jmaker.parser.Expression.Index;
+import jmaker.parser.Expression.LocalSymbol;
+import jmaker.parser.Expression.Symbol;
+import jmaker.parser.Expression.Unary;
+import jmaker.parser.ExpressionStatementKind;
+import jmaker.parser.Statement;
+import jmaker.parser.Statement.Assignment;
+import jmaker.parser.Statement.BlockStatement;
+import jmaker.parser.Statement.Empty;
+import jmaker.parser.Statement.ExpressionStatement;
+import jmaker.parser.Statement.If;
+import jmaker.parser.Statement.Rule;
+import jmaker.parser.Statement.WhileLoop;
+import jmaker.parser.UnaryOperator;
+
+// Lowers a syntax tree into Bytecode for a stack machine.
+//
+// The generated code behaves exactly like the tree-walking interpreter, including the
+// order of evaluation and error messages. Constructs that the tree walker rejects at
+// runtime compile into a FAIL instruction, so they only fail if they're reached.
+public class Compiler {
+	private int[] code;
+	private int codeLength;
+	private final ArrayList<Object> constants;
+	private final HashMap<Object, Integer> constantIndices;
+	private int stackSize;
+	private int maxStackSize;
+
+	private Compiler() {
+		code = new int[64];
+		codeLength = 0;
+		constants = new ArrayList<>();
+		constantIndices = new HashMap<>();
+		stackSize = 0;
+		maxStackSize = 0;
+	}
+
+	public static Bytecode compile(Block block, boolean newScope) {
+		var compiler = new Compiler();
+		compiler.compileBlock(block, newScope);
+		return compiler.finish();
+	}
+
+	private Bytecode finish() {
+		assert (stackSize == 0);
+		return new Bytecode(Arrays.copyOf(code, codeLength), constants.toArray(), maxStackSize);
+	}
+
+	private void compileBlock(Block block, boolean newScope) {
+		if (newScope) {
+			emit(Opcode.PUSH_SCOPE, block.frameSize, 0);
+		}
+		for (var statement : block.statements) {
+			compileStatement(statement);
+		}
+		if (newScope) {
+			emit(Opcode.POP_SCOPE, 0);
+		}
+	}
+
+	private void compileStatement(Statement statement) {
+		if (statement instanceof Assignment) {
+			var assignment = (Assignment) statement;
+			compileExpression(assignment.rightSide);
+			if (assignment.leftSide instanceof LocalSymbol) {
+				emitLocal(Opcode.STORE_LOCAL, (LocalSymbol) assignment.leftSide, -1);
+			} else {
+				emit(Opcode.STORE, addConstant(assignment.leftSide.name), -1);
+			}
+		} else if (statement instanceof ExpressionStatement) {
+			var expression = (ExpressionStatement) statement;
+			if (expression.expression == null) {
+				// Only return statements can leave out the expression.
+				emit(Opcode.FAIL, addConstant("Return statements are only allowed inside functions."), 0);
+				return;
+			}
+			compileExpression(expression.expression);
+			if (expression.kind == ExpressionStatementKind.COMMAND) {
+				emit(Opcode.COMMAND, -1);
+			} else {
+				emit(Opcode.POP, -1);
+			}
+		} else if (statement instanceof BlockStatement) {
+			compileBlock(((BlockStatement) statement).block, true);
+		} else if (statement instanceof If) {
+			compileIf((If) statement);
+		} else if (statement instanceof WhileLoop) {
+			compileWhile((WhileLoop) statement);
+		} else if (statement instanceof Rule) {
+			compileRule((Rule) statement);
+		} else if (statement instanceof Empty) {
+			// Do nothing.
+		} else {
+			emit(Opcode.FAIL, addConstant("Unrecognized statement type: " + statement), 0);
+		}
+	}
+
+	private void compileIf(If statement) {
+		var endJumps = new ArrayList<Integer>();
+		for (int i = 0; i < statement.conditionals.length; i++) {
+			compileExpression(statement.conditionals[i]);
+			var nextCondition = emitJump(Opcode.JUMP_IF_FALSE, -1);
+			compileBlock(statement.blocks[i], true);
+			endJumps.add(emitJump(Opcode.JUMP, 0));
+			patchJump(nextCondition);
+		}
+		if (statement.elseBlock != null) {
+			compileBlock(statement.elseBlock, true);
+		}
+		for (var jump : endJumps) {
+			patchJump(jump);
+		}
+	}
+
+	private void compileWhile(WhileLoop statement) {
+		var loopStart = codeLength;
+		compileExpression(statement.condition);
+		var exitJump = emitJump(Opcode.JUMP_IF_FALSE, -1);
+		compileBlock(statement.block, true);
+		emit(Opcode.JUMP, loopStart, 0);
+		patchJump(exitJump);
+	}
+
+	private void compileRule(Rule statement) {
+		for (var target : statement.targets) {
+			compileExpression(target);
+			emit(Opcode.CHECK_RULE_TARGET, 0);
+		}
+		for (var dependency : statement.dependencies) {
+			compileExpression(dependency);
+			emit(Opcode.CHECK_RULE_DEPENDENCY, 0);
+		}
+
+		// The interpreter creates the body's scope, to fill in the rule variables.
+		var body = compile(statement.block, false);
+		var rule = new Bytecode.CompiledRule(statement.targets.length, statement.dependencies.length, statement.block.frameSize, body);
+		var popCount = statement.targets.length + statement.dependencies.length;
+		emit(Opcode.RULE, addUniqueConstant(rule), -popCount);
+	}
+
+	private void compileExpression(Expression expression) {
+		// Literal values.
+		if (expression instanceof ExpressionValue) {
+			emit(Opcode.CONSTANT, addConstant(expression), 1);
+			return;
+		}
+
+		// Variables and arrays.
+		if (expression instanceof LocalSymbol) {
+			emitLocal(Opcode.LOAD_LOCAL, (LocalSymbol) expression, 1);
+			return;
+		}
+		if (expression instanceof Symbol) {
+			emit(Opcode.LOAD, addConstant(((Symbol) expression).name), 1);
+			return;
+		}
+		if (expression instanceof Index) {
+			var castExpression = (Index) expression;
+			compileExpression(castExpression.variable);
+			compileExpression(castExpression.indexExpression);
+			emit(Opcode.INDEX, -1);
+			return;
+		}
+
+		// Unary and binary expressions.
+		if (expression instanceof Unary) {
+			var castExpression = (Unary) expression;
+			compileExpression(castExpression.inner);
+			if (castExpression.operator == UnaryOperator.NEGATE) {
+				emit(Opcode.NEGATE, 0);
+			} else {
+				emit(Opcode.NOT, 0);
+			}
+			return;
+		}
+		if (expression instanceof Binary) {
+			var castExpression = (Binary) expression;
+			compileExpression(castExpression.left);
+			compileExpression(castExpression.right);
+			emit(Opcode.BINARY, castExpression.operator.ordinal(), -1);
+			return;
+		}
+		if (expression instanceof FunctionCall) {
+			var functionCall = (FunctionCall) expression;
+			compileExpression(functionCall.functionName);
+			emit(Opcode.CHECK_FUNCTION, 0);
+			for (var arg : functionCall.args) {
+				compileExpression(arg);
+			}
+			emit(Opcode.CALL, functionCall.args.length, -functionCall.args.length);
+			return;
+		}
+		if (expression instanceof Expression.Array) {
+			var castArray = (Expression.Array) expression;
+			for (var element : castArray.elements) {
+				compileExpression(element);
+			}
+			emit(Opcode.MAKE_ARRAY, castArray.elements.length, 1 - castArray.elements.length);
+			return;
+		}
+		if (expression instanceof Expression.Dictionary) {
+			var castDict = (Expression.Dictionary) expression;
+			assert (castDict.keys.length == castDict.values.length);
+			for (int i = 0; i < castDict.keys.length; i++) {
+				compileExpression(castDict.keys[i]);
+				compileExpression(castDict.values[i]);
+			}
+			emit(Opcode.MAKE_DICT, castDict.keys.length, 1 - 2 * castDict.keys.length);
+			return;
+		}
+
+		// Keep the stack balanced so the code after this is still well-formed.
+		emit(Opcode.FAIL, addConstant("Unrecognized expression type: " + expression.getClass().getName()), 1);
+	}
+
+	private int addConstant(Object value) {
+		var index = constantIndices.get(value);
+		if (index != null) {
+			return index;
+		}
+		index = addUniqueConstant(value);
+		constantIndices.put(value, index);
+		return index;
+	}
+
+	private int addUniqueConstant(Object value) {
+		constants.add(value);
+		return constants.size() - 1;
+	}
+
+	private void emit(int opcode, int stackChange) {
+		ensureCapacity(1);
+		code[codeLength] = opcode;
+		codeLength += 1;
+		adjustStack(stackChange);
+	}
+
+	private void emit(int opcode, int operand, int stackChange) {
+		ensureCapacity(2);
+		code[codeLength] = opcode;
+		code[codeLength + 1] = operand;
+		codeLength += 2;
+		adjustStack(stackChange);
+	}
+
+	// The name is only kept for error messages.
+	private void emitLocal(int opcode, LocalSymbol symbol, int stackChange) {
+		ensureCapacity(4);
+		code[codeLength] = opcode;
+		code[codeLength + 1] = addConstant(symbol.name);
+		code[codeLength + 2] = symbol.depth;
+		code[codeLength + 3] = symbol.slot;
+		codeLength += 4;
+		adjustStack(stackChange);
+	}
+
+	// Returns the location of the operand, for patchJump().
+	private int emitJump(int opcode, int stackChange) {
+		emit(opcode, -1, stackChange);
+		return codeLength - 1;
+	}
+
+	// Points a jump at the next instruction to be emitted.
+	private void patchJump(int operandLocation) {
+		code[operandLocation] = codeLength;
+	}
+
+	private void adjustStack(int change) {
+		stackSize += change;
+		assert (stackSize >= 0);
+		if (stackSize > maxStackSize) {
+			maxStackSize = stackSize;
+		}
+	}
+
+	private void ensureCapacity(int extra) {
+		if (codeLength + extra > code.length) {
+			code = Arrays.copyOf(code, Math.max(code.length * 2, codeLength + extra));
+		}
+	}
+}
@@ -3,23 +3,78 @@ package jmaker.interpreter;
 import java.util.Map;
 import java.util.Objects;
 
+// Dictionaries are values: every change returns a new DictionaryValue. They're backed
+// by a PersistentHashMap, so a changed copy shares almost all of its structure with the
+// original, and only the new keys need to be checked.
 public class DictionaryValue implements ExpressionValue {
+	public static final DictionaryValue EMPTY = new DictionaryValue(PersistentHashMap.empty());
 
+	// Read-only.
 	public final Map<ExpressionValue, ExpressionValue> elements;
 
 	public DictionaryValue(Map<ExpressionValue, ExpressionValue> elements) {
-		this.elements = elements;
 		for (var key : elements.keySet()) {
-			if (key.getType() == DataType.Array) {
-				throw new RuntimeException("Can't use an array as a key.");
-			}
-			if (key.getType() == DataType.Dictionary) {
-				throw new RuntimeException("Can't use a dictionary as a key.");
+			checkKey(key);
+		}
+		this.elements = PersistentHashMap.of(elements);
+	}
+
+	private DictionaryValue(PersistentHashMap<ExpressionValue, ExpressionValue> elements) {
+		this.elements = elements;
+	}
+
+	private PersistentHashMap<ExpressionValue, ExpressionValue> getMap() {
+		return (PersistentHashMap<ExpressionValue, ExpressionValue>) elements;
+	}
+
+	public DictionaryValue with(ExpressionValue key, ExpressionValue value) {
+		checkKey(key);
+		var newMap = getMap().with(key, value);
+		if (newMap == elements) {
+			return this;
+		}
+		return new DictionaryValue(newMap);
+	}
+
+	public DictionaryValue without(ExpressionValue key) {
+		var newMap = getMap().without(key);
+		if (newMap == elements) {
+			return this;
+		}
+		return new DictionaryValue(newMap);
+	}
+
+	// The entries of both dictionaries. Where they share a key, the other dictionary's
+	// value is used.
+	public DictionaryValue merge(DictionaryValue other) {
+		if (other.elements.size() <= elements.size()) {
+			var ret = getMap();
+			for (var entry : other.elements.entrySet()) {
+				ret = ret.with(entry.getKey(), entry.getValue());
 			}
-			if (key.getType() == DataType.Function) {
-				throw new RuntimeException("Can't use a function as a key.");
+			return new DictionaryValue(ret);
+		}
+
+		// Cheaper to add our entries to the other dictionary.
+		var ret = other.getMap();
+		for (var entry : elements.entrySet()) {
+			if (!ret.containsKey(entry.getKey())) {
+				ret = ret.with(entry.getKey(), entry.getValue());
 			}
 		}
+		return new DictionaryValue(ret);
+	}
+
+	private static void checkKey(ExpressionValue key) {
+		if (key.getType() == DataType.Array) {
+			throw new RuntimeException("Can't use an array as a key.");
+		}
+		if (key.getType() == DataType.Dictionary) {
+			throw new RuntimeException("Can't use a dictionary as a key.");
+		}
+		if (key.getType() == DataType.Function) {
+			throw new RuntimeException("Can't use a function as a key.");
+		}
 	}
 
 	@Override
@@ -64,7 +119,7 @@ public class DictionaryValue implements ExpressionValue {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(elements);
+		return 31 + elements.hashCode();
 	}
 
 	@Override
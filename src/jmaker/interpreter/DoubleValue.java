@@ -1,9 +1,10 @@
 package jmaker.interpreter;
 
-import java.util.Objects;
 import jmaker.parser.Expression;
 
 public class DoubleValue implements Expression, ExpressionValue {
+	private static final long serialVersionUID = 1L;
+
 	public final double value;
 
 	public DoubleValue(double value) {
@@ -27,7 +28,7 @@ public class DoubleValue implements Expression, ExpressionValue {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(value);
+		return 31 + Double.hashCode(value);
 	}
 
 	@Override
@@ -1,15 +1,37 @@
 package jmaker.interpreter;
 
-import java.util.Objects;
 import jmaker.parser.Expression;
 
 public class IntegerValue implements ExpressionValue, Expression {
+	private static final long serialVersionUID = 1L;
+
+	// Like Integer.valueOf(), small values are shared. Loop counters and indexes into
+	// file lists rarely leave this range.
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final IntegerValue[] cache;
+
+	static {
+		cache = new IntegerValue[CACHE_HIGH - CACHE_LOW + 1];
+		for (int i = 0; i < cache.length; i++) {
+			cache[i] = new IntegerValue(i + CACHE_LOW);
+		}
+	}
+
 	public final int value;
 
+	// Prefer of(), which doesn't allocate for small values.
 	public IntegerValue(int value) {
 		this.value = value;
 	}
 
+	public static IntegerValue of(int value) {
+		if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+			return cache[value - CACHE_LOW];
+		}
+		return new IntegerValue(value);
+	}
+
 	@Override
 	public DataType getType() {
 		return DataType.Number_Int;
@@ -32,7 +54,8 @@ public class IntegerValue implements ExpressionValue, Expression {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(value);
+		// Same as Objects.hash(value), without boxing.
+		return 31 + Integer.hashCode(value);
 	}
 
 	@Override
@@ -46,4 +69,8 @@ public class IntegerValue implements ExpressionValue, Expression {
 		IntegerValue other = (IntegerValue) obj;
 		return value == other.value;
 	}
+
+	private Object readResolve() {
+		return of(value);
+	}
 }
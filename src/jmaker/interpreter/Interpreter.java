@@ -1,13 +1,14 @@
 package jmaker.interpreter;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import jmaker.parser.BinaryOperator;
 import jmaker.parser.Block;
 import jmaker.parser.Expression;
 import jmaker.parser.Expression.Binary;
 import jmaker.parser.Expression.FunctionCall;
 import jmaker.parser.Expression.Index;
+import jmaker.parser.Expression.LocalSymbol;
 import jmaker.parser.Expression.Symbol;
 import jmaker.parser.Expression.Unary;
 import jmaker.parser.ExpressionStatementKind;
@@ -22,34 +23,66 @@ import jmaker.runtime.DictionaryFunctions;
 import jmaker.runtime.FileSystemFunctions;
 import jmaker.runtime.MathFunctions;
 import jmaker.runtime.MultiTypeFunctions;
+import jmaker.runtime.ShellFunctions;
 import jmaker.runtime.StringFunctions;
 import jmaker.runtime.TypeFunctions;
 
 public class Interpreter {
 	Block script;
+	Mode mode;
 	public Memory memory;
 	ArrayList<String> commandQueue;
 	ArrayList<RuleValue> allRules;
 
+	// How the script is executed. Both modes produce the same results; walking the tree
+	// is simpler and is kept as the reference implementation for testing the compiler.
+	public static enum Mode {
+		TREE_WALKER, BYTECODE
+	}
+
 	public Interpreter(Block script) {
+		this(script, Mode.BYTECODE);
+	}
+
+	public Interpreter(Block script, Mode mode) {
 		this.script = script;
-		memory = new Memory();
+		this.mode = mode;
+		memory = BUILTINS.copy();
+		allRules = new ArrayList<>();
+	}
+
+	// Every interpreter starts from a copy of this, instead of registering each builtin
+	// again.
+	private static final Memory BUILTINS = createBuiltins();
+
+	private static Memory createBuiltins() {
+		var memory = new Memory();
 		DictionaryFunctions.registerAll(memory);
 		FileSystemFunctions.registerAll(memory);
 		MathFunctions.register(memory);
 		MultiTypeFunctions.registerAll(memory);
-		//ShellFunctions.registerAll(memory);
+		ShellFunctions.registerAll(memory);
 		StringFunctions.registerAll(memory);
 		TypeFunctions.registerAll(memory);
+		return memory;
 	}
 
 	public void run() {
-		runBlock(script, false);
+		script = Resolver.resolve(script, memory.getGlobalNames());
+		if (mode == Mode.BYTECODE) {
+			runBytecode(Compiler.compile(script, false));
+		} else {
+			runBlock(script, false);
+		}
+	}
+
+	public ArrayList<RuleValue> getRules() {
+		return allRules;
 	}
 
 	public void runBlock(Block block, boolean newScope) {
 		if (newScope) {
-			memory.pushScope();
+			memory.pushScope(block.frameSize);
 		}
 		for (var statement : block.statements) {
 			if (statement instanceof Assignment) {
@@ -90,32 +123,83 @@ public class Interpreter {
 
 		for (int i = 0; i < statement.targets.length; i++) {
 			var targetExpression = statement.targets[i];
-			var targetValue = runExpression(targetExpression);
-			if (targetValue.getType() != DataType.String) {
-				throw new RuntimeException("Rule targets must be strings.");
-			}
-			resolvedTargets[i] = targetValue.toString();
+			resolvedTargets[i] = checkRuleTarget(runExpression(targetExpression));
 		}
 
 		for (int i = 0; i < statement.dependencies.length; i++) {
 			var depExpression = statement.dependencies[i];
-			var depValue = runExpression(depExpression);
-			if (depValue.getType() != DataType.String) {
-				throw new RuntimeException("Rule dependencies must be strings.");
-			}
-			resolvedDependencies[i] = depValue.toString();
+			resolvedDependencies[i] = checkRuleDependency(runExpression(depExpression));
 		}
 
+		var body = statement.block;
+		createRule(resolvedTargets, resolvedDependencies, body.frameSize, ()->runBlock(body, false));
+	}
+
+	// The body runs in a new scope of the given size, which the caller doesn't create.
+	//
+	// The body doesn't run now, but when the rule's commands are needed (for pattern
+	// rules, once per stem). It sees the variables as they were when the rule was
+	// defined, and anything it assigns is thrown away afterwards.
+	private void createRule(String[] targets, String[] dependencies, int frameSize, Runnable body) {
 		if (commandQueue != null) {
 			throw new RuntimeException("Cannot nest Rules.");
 		}
+
+		var snapshot = memory.copy();
+		allRules.add(new RuleValue(targets, dependencies, (concreteTargets, concreteDependencies)->{
+			return runRuleBody(snapshot.copy(), concreteTargets, concreteDependencies, frameSize, body);
+		}));
+	}
+
+	// Bodies can be expanded from several build threads, but an interpreter only runs
+	// one thing at a time.
+	private synchronized String[] runRuleBody(Memory bodyMemory, String[] targets, String[] dependencies, int frameSize, Runnable body) {
+		if (commandQueue != null) {
+			throw new RuntimeException("Cannot nest Rules.");
+		}
+		var savedMemory = memory;
+		memory = bodyMemory;
 		commandQueue = new ArrayList<>();
+		try {
+			// See Resolver.RULE_VARIABLES.
+			memory.pushScope(frameSize);
+			memory.setLocal(0, 0, new StringValue(targets[0]));
+			memory.setLocal(0, 1, toStringArray(targets));
+			if (dependencies.length != 0) {
+				memory.setLocal(0, 2, new StringValue(dependencies[0]));
+			}
+			memory.setLocal(0, 3, toStringArray(dependencies));
 
-		runBlock(statement.block, true);
+			body.run();
 
-		var commandsAsRawArray = commandQueue.toArray(size->new String[size]);
-		allRules.add(new RuleValue(resolvedTargets, resolvedDependencies, commandsAsRawArray));
-		commandQueue = null;
+			memory.popScope();
+			return commandQueue.toArray(size->new String[size]);
+		} finally {
+			memory = savedMemory;
+			commandQueue = null;
+		}
+	}
+
+	private static ArrayValue toStringArray(String[] strings) {
+		var elements = new ExpressionValue[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			elements[i] = new StringValue(strings[i]);
+		}
+		return new ArrayValue(elements);
+	}
+
+	private static String checkRuleTarget(ExpressionValue targetValue) {
+		if (targetValue.getType() != DataType.String) {
+			throw new RuntimeException("Rule targets must be strings.");
+		}
+		return targetValue.toString();
+	}
+
+	private static String checkRuleDependency(ExpressionValue depValue) {
+		if (depValue.getType() != DataType.String) {
+			throw new RuntimeException("Rule dependencies must be strings.");
+		}
+		return depValue.toString();
 	}
 
 	private void pushCommand(String command) {
@@ -144,7 +228,12 @@ public class Interpreter {
 
 	private void runAssignment(Assignment statement) {
 		var value = runExpression(statement.rightSide);
-		memory.set(statement.leftSide.name, value);
+		if (statement.leftSide instanceof LocalSymbol) {
+			var local = (LocalSymbol) statement.leftSide;
+			memory.setLocal(local.depth, local.slot, value);
+		} else {
+			memory.set(statement.leftSide.name, value);
+		}
 	}
 
 	private void runWhile(WhileLoop statement) {
@@ -167,13 +256,12 @@ public class Interpreter {
 		}
 
 		// Variables and arrays.
+		if (expression instanceof LocalSymbol) {
+			var local = (LocalSymbol) expression;
+			return loadLocal(local.name, local.depth, local.slot);
+		}
 		if (expression instanceof Symbol) {
-			var symbol = (Symbol) expression;
-			var ret = memory.get(symbol.name);
-			if (ret == null) {
-				throw new RuntimeException("No function or variable named " + symbol.name + " was found in the current scope.");
-			}
-			return ret;
+			return loadVariable(((Symbol) expression).name);
 		}
 		if (expression instanceof Index) {
 			var castExpression = (Index) expression;
@@ -188,19 +276,10 @@ public class Interpreter {
 			var innerValue = runExpression(castExpression.inner);
 			switch (castExpression.operator) {
 				case NEGATE:
-					if (innerValue.getType() == DataType.Number_Double) {
-						return new DoubleValue(-1 * innerValue.asDouble());
-					} else if (innerValue.getType() == DataType.Number_Int) {
-						return new IntegerValue(-1 * innerValue.asInteger());
-					} else {
-						throw new RuntimeException(innerValue.getType() + " can't be negated");
-					}
+					return negate(innerValue);
 				case NOT:
-					if (innerValue.getType() != DataType.Boolean) {
-						throw new RuntimeException("Logical not can only be applied to booleans");
-					}
 				default:
-					return new BooleanValue(!innerValue.asBoolean());
+					return not(innerValue);
 			}
 		}
 		if (expression instanceof Binary) {
@@ -211,16 +290,13 @@ public class Interpreter {
 		}
 		if (expression instanceof FunctionCall) {
 			var functionCall = (FunctionCall) expression;
-			var function = runExpression(functionCall.functionName);
-			if (function.getType() != DataType.Function) {
-				throw new RuntimeException("Expected function, found " + function.getType());
-			}
+			var function = checkFunction(runExpression(functionCall.functionName));
 			var args = new ExpressionValue[functionCall.args.length];
 			for (int i = 0; i < args.length; i++) {
 				var arg = functionCall.args[i];
 				args[i] = runExpression(arg);
 			}
-			return ((FunctionValue) function).call(args);
+			return function.call(args);
 		}
 		if (expression instanceof Expression.Array) {
 			var castArray = (Expression.Array) expression;
@@ -233,59 +309,256 @@ public class Interpreter {
 		}
 		if (expression instanceof Expression.Dictionary) {
 			var castDict = (Expression.Dictionary) expression;
-			var map = new HashMap<ExpressionValue, ExpressionValue>();
+			var dict = DictionaryValue.EMPTY;
 			assert (castDict.keys.length == castDict.values.length);
 			for (int i = 0; i < castDict.keys.length; i++) {
 				var keyExpr = castDict.keys[i];
 				var valueExpr = castDict.values[i];
 				var key = runExpression(keyExpr);
 				var value = runExpression(valueExpr);
-				map.put(key, value);
+				dict = dict.with(key, value);
 			}
-			return new DictionaryValue(map);
+			return dict;
 		}
 		throw new RuntimeException("Unrecognized expression type: " + expression.getClass().getName());
 	}
 
+	private ExpressionValue loadVariable(String name) {
+		var ret = memory.get(name);
+		if (ret == null) {
+			throw new RuntimeException("No function or variable named " + name + " was found in the current scope.");
+		}
+		return ret;
+	}
+
+	private ExpressionValue loadLocal(String name, int depth, int slot) {
+		var ret = memory.getLocal(depth, slot);
+		if (ret == null) {
+			throw new RuntimeException("No function or variable named " + name + " was found in the current scope.");
+		}
+		return ret;
+	}
+
+	private static ExpressionValue negate(ExpressionValue innerValue) {
+		if (innerValue.getType() == DataType.Number_Double) {
+			return new DoubleValue(-1 * innerValue.asDouble());
+		} else if (innerValue.getType() == DataType.Number_Int) {
+			return IntegerValue.of(-1 * innerValue.asInteger());
+		} else {
+			throw new RuntimeException(innerValue.getType() + " can't be negated");
+		}
+	}
+
+	private static ExpressionValue not(ExpressionValue innerValue) {
+		if (innerValue.getType() != DataType.Boolean) {
+			throw new RuntimeException("Logical not can only be applied to booleans");
+		}
+		return BooleanValue.of(!innerValue.asBoolean());
+	}
+
+	private static FunctionValue checkFunction(ExpressionValue function) {
+		if (function.getType() != DataType.Function) {
+			throw new RuntimeException("Expected function, found " + function.getType());
+		}
+		return (FunctionValue) function;
+	}
+
+	private void runBytecode(Bytecode bytecode) {
+		final var code = bytecode.code;
+		final var constants = bytecode.constants;
+		final var stack = new ExpressionValue[bytecode.maxStackSize];
+		int stackSize = 0;
+		int pc = 0;
+
+		while (pc < code.length) {
+			var opcode = code[pc];
+			switch (opcode) {
+				case Opcode.CONSTANT:
+					stack[stackSize] = (ExpressionValue) constants[code[pc + 1]];
+					stackSize += 1;
+					pc += 2;
+					break;
+				case Opcode.LOAD:
+					stack[stackSize] = loadVariable((String) constants[code[pc + 1]]);
+					stackSize += 1;
+					pc += 2;
+					break;
+				case Opcode.STORE:
+					stackSize -= 1;
+					memory.set((String) constants[code[pc + 1]], stack[stackSize]);
+					stack[stackSize] = null;
+					pc += 2;
+					break;
+				case Opcode.LOAD_LOCAL:
+					stack[stackSize] = loadLocal((String) constants[code[pc + 1]], code[pc + 2], code[pc + 3]);
+					stackSize += 1;
+					pc += 4;
+					break;
+				case Opcode.STORE_LOCAL:
+					stackSize -= 1;
+					memory.setLocal(code[pc + 2], code[pc + 3], stack[stackSize]);
+					stack[stackSize] = null;
+					pc += 4;
+					break;
+				case Opcode.POP:
+					stackSize -= 1;
+					stack[stackSize] = null;
+					pc += 1;
+					break;
+				case Opcode.INDEX: {
+					stackSize -= 1;
+					var index = stack[stackSize];
+					stack[stackSize] = null;
+					stack[stackSize - 1] = stack[stackSize - 1].indexBy(index);
+					pc += 1;
+					break;
+				}
+				case Opcode.NEGATE:
+					stack[stackSize - 1] = negate(stack[stackSize - 1]);
+					pc += 1;
+					break;
+				case Opcode.NOT:
+					stack[stackSize - 1] = not(stack[stackSize - 1]);
+					pc += 1;
+					break;
+				case Opcode.BINARY: {
+					stackSize -= 1;
+					var right = stack[stackSize];
+					stack[stackSize] = null;
+					var op = BINARY_OPERATORS[code[pc + 1]];
+					stack[stackSize - 1] = runBinaryOp(stack[stackSize - 1], right, op);
+					pc += 2;
+					break;
+				}
+				case Opcode.CHECK_FUNCTION:
+					checkFunction(stack[stackSize - 1]);
+					pc += 1;
+					break;
+				case Opcode.CALL: {
+					var argCount = code[pc + 1];
+					var args = new ExpressionValue[argCount];
+					stackSize -= argCount;
+					System.arraycopy(stack, stackSize, args, 0, argCount);
+					Arrays.fill(stack, stackSize, stackSize + argCount, null);
+					var function = (FunctionValue) stack[stackSize - 1];
+					stack[stackSize - 1] = function.call(args);
+					pc += 2;
+					break;
+				}
+				case Opcode.MAKE_ARRAY: {
+					var elementCount = code[pc + 1];
+					var elements = new ExpressionValue[elementCount];
+					stackSize -= elementCount;
+					System.arraycopy(stack, stackSize, elements, 0, elementCount);
+					Arrays.fill(stack, stackSize, stackSize + elementCount, null);
+					stack[stackSize] = new ArrayValue(elements);
+					stackSize += 1;
+					pc += 2;
+					break;
+				}
+				case Opcode.MAKE_DICT: {
+					var pairCount = code[pc + 1];
+					var dict = DictionaryValue.EMPTY;
+					stackSize -= 2 * pairCount;
+					for (int i = 0; i < pairCount; i++) {
+						dict = dict.with(stack[stackSize + 2 * i], stack[stackSize + 2 * i + 1]);
+					}
+					Arrays.fill(stack, stackSize, stackSize + 2 * pairCount, null);
+					stack[stackSize] = dict;
+					stackSize += 1;
+					pc += 2;
+					break;
+				}
+				case Opcode.JUMP:
+					pc = code[pc + 1];
+					break;
+				case Opcode.JUMP_IF_FALSE: {
+					stackSize -= 1;
+					var condition = stack[stackSize];
+					stack[stackSize] = null;
+					if (condition.getType() != DataType.Boolean) {
+						throw new RuntimeException("Conditionals must return a boolean.");
+					}
+					if (condition.asBoolean()) {
+						pc += 2;
+					} else {
+						pc = code[pc + 1];
+					}
+					break;
+				}
+				case Opcode.PUSH_SCOPE:
+					memory.pushScope(code[pc + 1]);
+					pc += 2;
+					break;
+				case Opcode.POP_SCOPE:
+					memory.popScope();
+					pc += 1;
+					break;
+				case Opcode.COMMAND: {
+					stackSize -= 1;
+					var command = stack[stackSize];
+					stack[stackSize] = null;
+					if (command.getType() != DataType.String) {
+						throw new RuntimeException("Command expressions must return a string.");
+					}
+					pushCommand(command.toString());
+					pc += 1;
+					break;
+				}
+				case Opcode.CHECK_RULE_TARGET:
+					checkRuleTarget(stack[stackSize - 1]);
+					pc += 1;
+					break;
+				case Opcode.CHECK_RULE_DEPENDENCY:
+					checkRuleDependency(stack[stackSize - 1]);
+					pc += 1;
+					break;
+				case Opcode.RULE: {
+					var rule = (Bytecode.CompiledRule) constants[code[pc + 1]];
+					var targets = new String[rule.targetCount];
+					var dependencies = new String[rule.dependencyCount];
+					stackSize -= rule.targetCount + rule.dependencyCount;
+					for (int i = 0; i < targets.length; i++) {
+						targets[i] = stack[stackSize + i].toString();
+					}
+					for (int i = 0; i < dependencies.length; i++) {
+						dependencies[i] = stack[stackSize + targets.length + i].toString();
+					}
+					Arrays.fill(stack, stackSize, stackSize + targets.length + dependencies.length, null);
+					createRule(targets, dependencies, rule.frameSize, ()->runBytecode(rule.body));
+					pc += 2;
+					break;
+				}
+				case Opcode.FAIL:
+					throw new RuntimeException((String) constants[code[pc + 1]]);
+				default:
+					throw new RuntimeException("Unrecognized opcode: " + opcode);
+			}
+		}
+		assert (stackSize == 0);
+	}
+
+	private static final BinaryOperator[] BINARY_OPERATORS = BinaryOperator.values();
+
 	public ExpressionValue runBinaryOp(ExpressionValue left, ExpressionValue right, BinaryOperator op) {
 		// Adding arrays to arrays merges them.
 		if (left.getType() == DataType.Array && right.getType() == DataType.Array && op == BinaryOperator.ADD) {
 			ArrayValue leftAsArray = (ArrayValue) left;
 			ArrayValue rightAsArray = (ArrayValue) right;
-
-			int total = leftAsArray.elements.length + rightAsArray.elements.length;
-			ArrayList<ExpressionValue> combinedArrays = new ArrayList<>(total);
-			for (var item : leftAsArray.elements) {
-				combinedArrays.add(item);
-			}
-			for (var item : rightAsArray.elements) {
-				combinedArrays.add(item);
-			}
-			return new ArrayValue(combinedArrays);
+			return leftAsArray.concat(rightAsArray);
 		}
 
 		// Adding items to arrays.
 		if (left.getType() == DataType.Array && op == BinaryOperator.ADD) {
 			ArrayValue leftAsArray = (ArrayValue) left;
-
-			int total = leftAsArray.elements.length + 1;
-			ExpressionValue[] newArray = new ExpressionValue[total];
-			for (int i = 0; i < leftAsArray.elements.length; i++) {
-				newArray[i] = leftAsArray.elements[i];
-			}
-			newArray[total - 1] = right;
-			return new ArrayValue(newArray);
+			return leftAsArray.append(right);
 		}
 
 		// Adding two dictionaries.
 		if (left.getType() == DataType.Dictionary && right.getType() == DataType.Dictionary && op == BinaryOperator.ADD) {
 			DictionaryValue leftAsDict = (DictionaryValue) left;
 			DictionaryValue rightAsDict = (DictionaryValue) right;
-
-			HashMap<ExpressionValue, ExpressionValue> newDict = new HashMap<>();
-			newDict.putAll(leftAsDict.elements);
-			newDict.putAll(rightAsDict.elements);
-			return new DictionaryValue(newDict);
+			return leftAsDict.merge(rightAsDict);
 		}
 
 		// Adding strings converts the other value to a string.
@@ -302,42 +575,42 @@ public class Interpreter {
 					if (useDoubleValue) {
 						return new DoubleValue(left.asDouble() + right.asDouble());
 					}
-					return new IntegerValue(left.asInteger() + right.asInteger());
+					return IntegerValue.of(left.asInteger() + right.asInteger());
 				case SUB:
 					if (useDoubleValue) {
 						return new DoubleValue(left.asDouble() - right.asDouble());
 					}
-					return new IntegerValue(left.asInteger() - right.asInteger());
+					return IntegerValue.of(left.asInteger() - right.asInteger());
 				case MULT:
 					if (useDoubleValue) {
 						return new DoubleValue(left.asDouble() * right.asDouble());
 					}
-					return new IntegerValue(left.asInteger() * right.asInteger());
+					return IntegerValue.of(left.asInteger() * right.asInteger());
 				case DIV:
 					double result = left.asDouble() / right.asDouble();
 					if (useDoubleValue) {
 						return new DoubleValue(result);
 					}
-					return new IntegerValue((int) Math.floor(result));
+					return IntegerValue.of((int) Math.floor(result));
 				case LESS:
-					return new BooleanValue(left.asDouble() < right.asDouble());
+					return BooleanValue.of(left.asDouble() < right.asDouble());
 				case LESS_EQUAL:
-					return new BooleanValue(left.asDouble() <= right.asDouble());
+					return BooleanValue.of(left.asDouble() <= right.asDouble());
 				case GREATER:
-					return new BooleanValue(left.asDouble() > right.asDouble());
+					return BooleanValue.of(left.asDouble() > right.asDouble());
 				case GREATER_EQUAL:
-					return new BooleanValue(left.asDouble() >= right.asDouble());
+					return BooleanValue.of(left.asDouble() >= right.asDouble());
 				// Handle equal and not equal here, to be able to say "2.0 == 2".
 				case EQUAL:
 					if (useDoubleValue) {
-						return new BooleanValue(left.asDouble() == right.asDouble());
+						return BooleanValue.of(left.asDouble() == right.asDouble());
 					}
-					return new BooleanValue(left.asInteger() == right.asInteger());
+					return BooleanValue.of(left.asInteger() == right.asInteger());
 				case NOT_EQUAL:
 					if (useDoubleValue) {
-						return new BooleanValue(left.asDouble() != right.asDouble());
+						return BooleanValue.of(left.asDouble() != right.asDouble());
 					}
-					return new BooleanValue(left.asInteger() != right.asInteger());
+					return BooleanValue.of(left.asInteger() != right.asInteger());
 				default:
 					// fallthrough
 			}
@@ -346,31 +619,31 @@ public class Interpreter {
 		// Boolean logic
 		if (left.getType() == DataType.Boolean && right.getType() == DataType.Boolean) {
 			if (op == BinaryOperator.AND) {
-				return new BooleanValue(left.asBoolean() && right.asBoolean());
+				return BooleanValue.of(left.asBoolean() && right.asBoolean());
 			}
 			if (op == BinaryOperator.OR) {
-				return new BooleanValue(left.asBoolean() || right.asBoolean());
+				return BooleanValue.of(left.asBoolean() || right.asBoolean());
 			}
 		}
 
 		// Equality
 		if (op == BinaryOperator.EQUAL) {
 			if (left.getType() != right.getType()) {
-				return new BooleanValue(false);
+				return BooleanValue.FALSE;
 			}
 			if (left.hashCode() != right.hashCode()) {
-				return new BooleanValue(false);
+				return BooleanValue.FALSE;
 			}
-			return new BooleanValue(left.equals(right));
+			return BooleanValue.of(left.equals(right));
 		}
 		if (op == BinaryOperator.NOT_EQUAL) {
 			if (left.getType() != right.getType()) {
-				return new BooleanValue(true);
+				return BooleanValue.TRUE;
 			}
 			if (left.hashCode() != right.hashCode()) {
-				return new BooleanValue(true);
+				return BooleanValue.TRUE;
 			}
-			return new BooleanValue(!left.equals(right));
+			return BooleanValue.of(!left.equals(right));
 		}
 
 		throw new RuntimeException("Cannot apply " + op + " to types " + left.getType() + " and " + right.getType());
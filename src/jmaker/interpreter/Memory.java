@@ -1,49 +1,70 @@
 package jmaker.interpreter;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
+// Globals are stored by name. Variables declared inside blocks live in a stack of
+// frames, one per scope, and are accessed by the (depth, slot) pairs the Resolver
+// assigns to them.
 public class Memory {
-	private ArrayList<HashMap<String, ExpressionValue>> symbols;
+	// Persistent, so copies can share it.
+	private PersistentHashMap<String, ExpressionValue> globals;
+	private ExpressionValue[][] frames;
+	private int frameCount;
 
 	public Memory() {
-		symbols = new ArrayList<>();
-		pushScope();
+		globals = PersistentHashMap.empty();
+		frames = new ExpressionValue[8][];
+		frameCount = 0;
 	}
 
-	public void pushScope() {
-		symbols.add(new HashMap<>());
+	private Memory(Memory other) {
+		globals = other.globals;
+		frames = new ExpressionValue[other.frames.length][];
+		frameCount = other.frameCount;
+		for (int i = 0; i < frameCount; i++) {
+			frames[i] = other.frames[i].clone();
+		}
 	}
 
-	public void popScope() {
-		symbols.remove(symbols.size() - 1);
+	// A copy that can be changed without affecting this one. Values are immutable, so
+	// they're shared. Only the frames are copied, so this is cheap enough to do for
+	// every rule.
+	public Memory copy() {
+		return new Memory(this);
 	}
 
-	public void set(String symbolName, ExpressionValue value) {
-		// Look for a symbol to overwrite first, from most recent scope to least.
-		for (int i = symbols.size() - 1; i >= 0; i--) {
-			var current = symbols.get(i);
-			if (current.containsKey(symbolName)) {
-				current.put(symbolName, value);
-				return;
-			}
+	public void pushScope(int frameSize) {
+		if (frameCount == frames.length) {
+			frames = Arrays.copyOf(frames, frames.length * 2);
 		}
+		frames[frameCount] = new ExpressionValue[frameSize];
+		frameCount += 1;
+	}
 
-		getCurrentScope().put(symbolName, value);
+	public void popScope() {
+		frameCount -= 1;
+		frames[frameCount] = null;
 	}
 
-	private HashMap<String, ExpressionValue> getCurrentScope() {
-		return symbols.get(symbols.size() - 1);
+	public void set(String symbolName, ExpressionValue value) {
+		globals = globals.with(symbolName, value);
 	}
 
 	public ExpressionValue get(String symbolName) {
-		for (int i = symbols.size() - 1; i >= 0; i--) {
-			var current = symbols.get(i);
-			var value = current.get(symbolName);
-			if (value != null) {
-				return value;
-			}
-		}
-		return null;
+		return globals.get(symbolName);
+	}
+
+	public void setLocal(int depth, int slot, ExpressionValue value) {
+		frames[frameCount - 1 - depth][slot] = value;
+	}
+
+	public ExpressionValue getLocal(int depth, int slot) {
+		return frames[frameCount - 1 - depth][slot];
+	}
+
+	public Set<String> getGlobalNames() {
+		return new HashSet<>(globals.keySet());
 	}
 }
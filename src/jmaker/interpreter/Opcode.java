@@ -0,0 +1,123 @@
+package jmaker.interpreter;
+
+// Instructions for the bytecode interpreter. Each opcode is followed by the number of
+// int operands listed next to it. "k" operands index into the constant pool, and "target"
+// operands are absolute offsets into the code array.
+abstract class Opcode {
+	// Push constants[k], a literal value.
+	static final int CONSTANT = 0; // k
+	// Push the variable named constants[k].
+	static final int LOAD = 1; // k
+	// Pop a value and assign it to the variable named constants[k].
+	static final int STORE = 2; // k
+	static final int POP = 3;
+	// Pop an index, then a value, and push value[index].
+	static final int INDEX = 4;
+	static final int NEGATE = 5;
+	static final int NOT = 6;
+	// Pop the right then the left operand, and push the result of BinaryOperator #op.
+	static final int BINARY = 7; // op
+	// Fail unless the top of the stack is a function. Doesn't pop.
+	static final int CHECK_FUNCTION = 8;
+	// Pop argCount arguments, then the function, and push the return value.
+	static final int CALL = 9; // argCount
+	static final int MAKE_ARRAY = 10; // elementCount
+	// Pop pairCount (key, value) pairs.
+	static final int MAKE_DICT = 11; // pairCount
+	static final int JUMP = 12; // target
+	// Pop a boolean and jump if it's false.
+	static final int JUMP_IF_FALSE = 13; // target
+	// Push a new scope with room for frameSize local variables.
+	static final int PUSH_SCOPE = 14; // frameSize
+	static final int POP_SCOPE = 15;
+	// Pop a string and add it to the current rule's commands.
+	static final int COMMAND = 16;
+	// Fail unless the top of the stack is a string. Doesn't pop.
+	static final int CHECK_RULE_TARGET = 17;
+	static final int CHECK_RULE_DEPENDENCY = 18;
+	// Pop the dependencies, then the targets, and create a rule from constants[k], which
+	// is a CompiledRule.
+	static final int RULE = 19; // k
+	// Throw a RuntimeException with the message constants[k].
+	static final int FAIL = 20; // k
+	// Push local variable #slot of the frame depth scopes out. constants[k] is its name.
+	static final int LOAD_LOCAL = 21; // k, depth, slot
+	// Pop a value and assign it to a local variable.
+	static final int STORE_LOCAL = 22; // k, depth, slot
+
+	static String getName(int opcode) {
+		switch (opcode) {
+			case CONSTANT:
+				return "CONSTANT";
+			case LOAD:
+				return "LOAD";
+			case STORE:
+				return "STORE";
+			case POP:
+				return "POP";
+			case INDEX:
+				return "INDEX";
+			case NEGATE:
+				return "NEGATE";
+			case NOT:
+				return "NOT";
+			case BINARY:
+				return "BINARY";
+			case CHECK_FUNCTION:
+				return "CHECK_FUNCTION";
+			case CALL:
+				return "CALL";
+			case MAKE_ARRAY:
+				return "MAKE_ARRAY";
+			case MAKE_DICT:
+				return "MAKE_DICT";
+			case JUMP:
+				return "JUMP";
+			case JUMP_IF_FALSE:
+				return "JUMP_IF_FALSE";
+			case PUSH_SCOPE:
+				return "PUSH_SCOPE";
+			case POP_SCOPE:
+				return "POP_SCOPE";
+			case COMMAND:
+				return "COMMAND";
+			case CHECK_RULE_TARGET:
+				return "CHECK_RULE_TARGET";
+			case CHECK_RULE_DEPENDENCY:
+				return "CHECK_RULE_DEPENDENCY";
+			case RULE:
+				return "RULE";
+			case FAIL:
+				return "FAIL";
+			case LOAD_LOCAL:
+				return "LOAD_LOCAL";
+			case STORE_LOCAL:
+				return "STORE_LOCAL";
+			default:
+				throw new RuntimeException("Unrecognized opcode: " + opcode);
+		}
+	}
+
+	static int getOperandCount(int opcode) {
+		switch (opcode) {
+			case CONSTANT:
+			case LOAD:
+			case STORE:
+			case BINARY:
+			case CALL:
+			case MAKE_ARRAY:
+			case MAKE_DICT:
+			case JUMP:
+			case JUMP_IF_FALSE:
+			case PUSH_SCOPE:
+			case RULE:
+			case FAIL:
+				return 1;
+			case LOAD_LOCAL:
+			case STORE_LOCAL:
+				return 3;
+			default:
+				return 0;
+		}
+	}
+}
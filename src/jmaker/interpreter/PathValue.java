@@ -4,6 +4,8 @@ import java.util.Objects;
 import jmaker.parser.Expression;
 
 public class PathValue implements ExpressionValue, Expression {
+	private static final long serialVersionUID = 1L;
+
 	public final String path;
 
 	public PathValue(String path) {
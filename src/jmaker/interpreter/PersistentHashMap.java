@@ -0,0 +1,383 @@
+package jmaker.interpreter;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// An immutable map that shares structure between versions, so adding or removing one
+// key doesn't copy the whole map. The Map methods are read-only; use with() and
+// without() to make changed copies.
+//
+// This is a hash array mapped trie: each level of the trie uses 5 bits of the key's
+// hash to pick one of up to 32 children, and only the children that exist are stored,
+// using a bitmap to find their positions. Keys whose hashes are identical share a
+// collision node. Keys can't be null.
+class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(0, BitmapNode.EMPTY);
+
+	private final int count;
+	private final Node root;
+	private Set<Entry<K, V>> entrySet;
+
+	private PersistentHashMap(int count, Node root) {
+		this.count = count;
+		this.root = root;
+		entrySet = null;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentHashMap<K, V> empty() {
+		return (PersistentHashMap<K, V>) EMPTY;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentHashMap<K, V> of(Map<? extends K, ? extends V> map) {
+		if (map instanceof PersistentHashMap) {
+			return (PersistentHashMap<K, V>) map;
+		}
+		PersistentHashMap<K, V> ret = empty();
+		for (var entry : map.entrySet()) {
+			ret = ret.with(entry.getKey(), entry.getValue());
+		}
+		return ret;
+	}
+
+	PersistentHashMap<K, V> with(K key, V value) {
+		var addedLeaf = new boolean[1];
+		var newRoot = root.with(0, hash(key), key, value, addedLeaf);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentHashMap<>(addedLeaf[0] ? count + 1 : count, newRoot);
+	}
+
+	PersistentHashMap<K, V> without(Object key) {
+		var newRoot = root.without(0, hash(key), key);
+		if (newRoot == root) {
+			return this;
+		}
+		if (newRoot == null) {
+			return empty();
+		}
+		return new PersistentHashMap<>(count - 1, newRoot);
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		if (key == null) {
+			return null;
+		}
+		var ret = root.find(0, hash(key), key);
+		if (ret == NOT_FOUND) {
+			return null;
+		}
+		return (V) ret;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key != null && root.find(0, hash(key), key) != NOT_FOUND;
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<>() {
+				@Override
+				public Iterator<Entry<K, V>> iterator() {
+					return new EntryIterator<>(root);
+				}
+
+				@Override
+				public int size() {
+					return count;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	private static int hash(Object key) {
+		// Mix in the high bits, since the lowest levels of the trie only use the low ones.
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static final Object NOT_FOUND = new Object();
+
+	// Both node types store their contents in pairs. In a bitmap node, a pair with a
+	// null key holds a child node in the value's position.
+	private abstract static class Node {
+		final Object[] array;
+
+		Node(Object[] array) {
+			this.array = array;
+		}
+
+		abstract Object find(int shift, int hash, Object key);
+
+		// Returns this node if nothing changed.
+		abstract Node with(int shift, int hash, Object key, Object value, boolean[] addedLeaf);
+
+		// Returns this node if nothing changed, or null if the node is now empty.
+		abstract Node without(int shift, int hash, Object key);
+	}
+
+	private static class BitmapNode extends Node {
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+
+		BitmapNode(int bitmap, Object[] array) {
+			super(array);
+			this.bitmap = bitmap;
+		}
+
+		private static int bitFor(int shift, int hash) {
+			return 1 << ((hash >>> shift) & MASK);
+		}
+
+		private int indexOf(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key) {
+			int bit = bitFor(shift, hash);
+			if ((bitmap & bit) == 0) {
+				return NOT_FOUND;
+			}
+			int index = indexOf(bit);
+			var pairKey = array[2 * index];
+			var pairValue = array[2 * index + 1];
+			if (pairKey == null) {
+				return ((Node) pairValue).find(shift + BITS, hash, key);
+			}
+			if (key.equals(pairKey)) {
+				return pairValue;
+			}
+			return NOT_FOUND;
+		}
+
+		@Override
+		Node with(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+			int bit = bitFor(shift, hash);
+			int index = indexOf(bit);
+			if ((bitmap & bit) == 0) {
+				int pairCount = Integer.bitCount(bitmap);
+				var newArray = new Object[2 * (pairCount + 1)];
+				System.arraycopy(array, 0, newArray, 0, 2 * index);
+				newArray[2 * index] = key;
+				newArray[2 * index + 1] = value;
+				System.arraycopy(array, 2 * index, newArray, 2 * (index + 1), 2 * (pairCount - index));
+				addedLeaf[0] = true;
+				return new BitmapNode(bitmap | bit, newArray);
+			}
+
+			var pairKey = array[2 * index];
+			var pairValue = array[2 * index + 1];
+			if (pairKey == null) {
+				var child = (Node) pairValue;
+				var newChild = child.with(shift + BITS, hash, key, value, addedLeaf);
+				if (newChild == child) {
+					return this;
+				}
+				return new BitmapNode(bitmap, cloneAndSet(array, 2 * index + 1, newChild));
+			}
+			if (key.equals(pairKey)) {
+				if (value == pairValue) {
+					return this;
+				}
+				return new BitmapNode(bitmap, cloneAndSet(array, 2 * index + 1, value));
+			}
+
+			// Two keys in the same slot; push both down a level.
+			addedLeaf[0] = true;
+			var newArray = cloneAndSet(array, 2 * index, null);
+			newArray[2 * index + 1] = createNode(shift + BITS, pairKey, pairValue, hash, key, value);
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		@Override
+		Node without(int shift, int hash, Object key) {
+			int bit = bitFor(shift, hash);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int index = indexOf(bit);
+			var pairKey = array[2 * index];
+			var pairValue = array[2 * index + 1];
+			if (pairKey == null) {
+				var child = (Node) pairValue;
+				var newChild = child.without(shift + BITS, hash, key);
+				if (newChild == child) {
+					return this;
+				}
+				if (newChild != null) {
+					return new BitmapNode(bitmap, cloneAndSet(array, 2 * index + 1, newChild));
+				}
+			} else if (!key.equals(pairKey)) {
+				return this;
+			}
+
+			if (bitmap == bit) {
+				return null;
+			}
+			return new BitmapNode(bitmap ^ bit, removePair(array, index));
+		}
+
+		private static Node createNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+			int hash1 = hash(key1);
+			if (hash1 == hash2) {
+				return new CollisionNode(hash1, new Object[]{
+					key1, value1, key2, value2
+				});
+			}
+			var addedLeaf = new boolean[1];
+			return EMPTY.with(shift, hash1, key1, value1, addedLeaf).with(shift, hash2, key2, value2, addedLeaf);
+		}
+	}
+
+	private static class CollisionNode extends Node {
+		final int hash;
+
+		CollisionNode(int hash, Object[] array) {
+			super(array);
+			this.hash = hash;
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					return i / 2;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object find(int shift, int hash, Object key) {
+			int index = indexOf(key);
+			if (index < 0) {
+				return NOT_FOUND;
+			}
+			return array[2 * index + 1];
+		}
+
+		@Override
+		Node with(int shift, int hash, Object key, Object value, boolean[] addedLeaf) {
+			if (hash != this.hash) {
+				// Nest this node inside a bitmap node, then add the key to that.
+				var bit = 1 << ((this.hash >>> shift) & MASK);
+				return new BitmapNode(bit, new Object[]{
+					null, this
+				}).with(shift, hash, key, value, addedLeaf);
+			}
+			int index = indexOf(key);
+			if (index >= 0) {
+				if (array[2 * index + 1] == value) {
+					return this;
+				}
+				return new CollisionNode(hash, cloneAndSet(array, 2 * index + 1, value));
+			}
+			var newArray = new Object[array.length + 2];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			newArray[array.length] = key;
+			newArray[array.length + 1] = value;
+			addedLeaf[0] = true;
+			return new CollisionNode(hash, newArray);
+		}
+
+		@Override
+		Node without(int shift, int hash, Object key) {
+			int index = indexOf(key);
+			if (index < 0) {
+				return this;
+			}
+			if (array.length == 2) {
+				return null;
+			}
+			return new CollisionNode(hash, removePair(array, index));
+		}
+	}
+
+	private static Object[] cloneAndSet(Object[] array, int index, Object value) {
+		var ret = array.clone();
+		ret[index] = value;
+		return ret;
+	}
+
+	private static Object[] removePair(Object[] array, int pairIndex) {
+		var ret = new Object[array.length - 2];
+		System.arraycopy(array, 0, ret, 0, 2 * pairIndex);
+		System.arraycopy(array, 2 * (pairIndex + 1), ret, 2 * pairIndex, ret.length - 2 * pairIndex);
+		return ret;
+	}
+
+	// Depth-first walk over the trie, keeping a stack of the nodes being visited.
+	private static class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+		private final ArrayList<Object[]> arrays;
+		private final ArrayList<Integer> positions;
+		private Entry<K, V> nextEntry;
+
+		EntryIterator(Node root) {
+			arrays = new ArrayList<>();
+			positions = new ArrayList<>();
+			arrays.add(root.array);
+			positions.add(0);
+			nextEntry = advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private Entry<K, V> advance() {
+			while (!arrays.isEmpty()) {
+				int top = arrays.size() - 1;
+				var array = arrays.get(top);
+				int position = positions.get(top);
+				if (position >= array.length) {
+					arrays.remove(top);
+					positions.remove(top);
+					continue;
+				}
+				positions.set(top, position + 2);
+				var key = array[position];
+				var value = array[position + 1];
+				if (key == null) {
+					arrays.add(((Node) value).array);
+					positions.add(0);
+				} else {
+					return new SimpleImmutableEntry<>((K) key, (V) value);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return nextEntry != null;
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			if (nextEntry == null) {
+				throw new NoSuchElementException();
+			}
+			var ret = nextEntry;
+			nextEntry = advance();
+			return ret;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package jmaker.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// An immutable list that shares structure between versions, so appending to or
+// changing one element doesn't copy the whole list.
+//
+// Elements are stored in a trie with 32 children per node, plus a "tail" array holding
+// the last 1 to 32 elements. Appends only touch the tail until it fills up, and other
+// updates copy one node per level of the trie, which is at most 7 levels deep.
+class PersistentVector<E> {
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	private static final PersistentVector<?> EMPTY = new PersistentVector<>(0, BITS, new Object[WIDTH], new Object[0]);
+
+	private final int count;
+	// The number of bits of the index used below the root.
+	private final int shift;
+	private final Object[] root;
+	private final Object[] tail;
+
+	private PersistentVector(int count, int shift, Object[] root, Object[] tail) {
+		this.count = count;
+		this.shift = shift;
+		this.root = root;
+		this.tail = tail;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <E> PersistentVector<E> empty() {
+		return (PersistentVector<E>) EMPTY;
+	}
+
+	// Builds the trie bottom-up, which is much faster than appending one at a time.
+	static <E> PersistentVector<E> of(E[] elements) {
+		int count = elements.length;
+		if (count == 0) {
+			return empty();
+		}
+		int tailOffset = tailOffset(count);
+		var tail = Arrays.copyOfRange(elements, tailOffset, count, Object[].class);
+
+		var nodes = new ArrayList<Object[]>();
+		for (int i = 0; i < tailOffset; i += WIDTH) {
+			nodes.add(Arrays.copyOfRange(elements, i, i + WIDTH, Object[].class));
+		}
+		int shift = BITS;
+		while (nodes.size() > WIDTH) {
+			var parents = new ArrayList<Object[]>();
+			for (int i = 0; i < nodes.size(); i += WIDTH) {
+				var parent = new Object[WIDTH];
+				for (int j = 0; j < WIDTH && i + j < nodes.size(); j++) {
+					parent[j] = nodes.get(i + j);
+				}
+				parents.add(parent);
+			}
+			nodes = parents;
+			shift += BITS;
+		}
+		var root = new Object[WIDTH];
+		for (int i = 0; i < nodes.size(); i++) {
+			root[i] = nodes.get(i);
+		}
+		return new PersistentVector<>(count, shift, root, tail);
+	}
+
+	int size() {
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	E get(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		return (E) leafFor(index)[index & MASK];
+	}
+
+	PersistentVector<E> append(E value) {
+		// Room in the tail?
+		if (count - tailOffset(count) < WIDTH) {
+			var newTail = Arrays.copyOf(tail, tail.length + 1);
+			newTail[tail.length] = value;
+			return new PersistentVector<>(count + 1, shift, root, newTail);
+		}
+
+		// Move the full tail into the trie, adding a level if the root is full.
+		Object[] newRoot;
+		int newShift = shift;
+		if ((count >>> BITS) > (1 << shift)) {
+			newRoot = new Object[WIDTH];
+			newRoot[0] = root;
+			newRoot[1] = newPath(shift, tail);
+			newShift += BITS;
+		} else {
+			newRoot = pushTail(shift, root, tail);
+		}
+		return new PersistentVector<>(count + 1, newShift, newRoot, new Object[]{
+			value
+		});
+	}
+
+	PersistentVector<E> set(int index, E value) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException(index);
+		}
+		if (index >= tailOffset(count)) {
+			var newTail = tail.clone();
+			newTail[index & MASK] = value;
+			return new PersistentVector<>(count, shift, root, newTail);
+		}
+		return new PersistentVector<>(count, shift, setInNode(shift, root, index, value), tail);
+	}
+
+	// The array holding the leaf that contains index. Valid for up to 32 consecutive
+	// indexes, which makes iterating much cheaper than calling get() for each.
+	Object[] leafFor(int index) {
+		if (index >= tailOffset(count)) {
+			return tail;
+		}
+		var node = root;
+		for (int level = shift; level > 0; level -= BITS) {
+			node = (Object[]) node[(index >>> level) & MASK];
+		}
+		return node;
+	}
+
+	// The index of the first element in the tail.
+	private static int tailOffset(int count) {
+		if (count < WIDTH) {
+			return 0;
+		}
+		return ((count - 1) >>> BITS) << BITS;
+	}
+
+	private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+		int childIndex = ((count - 1) >>> level) & MASK;
+		var ret = parent.clone();
+		Object[] nodeToInsert;
+		if (level == BITS) {
+			nodeToInsert = tailNode;
+		} else {
+			var child = (Object[]) parent[childIndex];
+			if (child != null) {
+				nodeToInsert = pushTail(level - BITS, child, tailNode);
+			} else {
+				nodeToInsert = newPath(level - BITS, tailNode);
+			}
+		}
+		ret[childIndex] = nodeToInsert;
+		return ret;
+	}
+
+	private static Object[] newPath(int level, Object[] node) {
+		if (level == 0) {
+			return node;
+		}
+		var ret = new Object[WIDTH];
+		ret[0] = newPath(level - BITS, node);
+		return ret;
+	}
+
+	private static Object[] setInNode(int level, Object[] node, int index, Object value) {
+		var ret = node.clone();
+		if (level == 0) {
+			ret[index & MASK] = value;
+		} else {
+			int childIndex = (index >>> level) & MASK;
+			ret[childIndex] = setInNode(level - BITS, (Object[]) node[childIndex], index, value);
+		}
+		return ret;
+	}
+}
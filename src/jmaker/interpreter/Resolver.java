@@ -0,0 +1,204 @@
+package jmaker.interpreter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import jmaker.parser.Block;
+import jmaker.parser.Expression;
+import jmaker.parser.Expression.Binary;
+import jmaker.parser.Expression.FunctionCall;
+import jmaker.parser.Expression.Index;
+import jmaker.parser.Expression.LocalSymbol;
+import jmaker.parser.Expression.Symbol;
+import jmaker.parser.Expression.Unary;
+import jmaker.parser.Statement;
+import jmaker.parser.Statement.Assignment;
+import jmaker.parser.Statement.BlockStatement;
+import jmaker.parser.Statement.ExpressionStatement;
+import jmaker.parser.Statement.If;
+import jmaker.parser.Statement.Rule;
+import jmaker.parser.Statement.WhileLoop;
+
+// Binds variables declared inside blocks to slots in that block's frame, so they can be
+// accessed without searching every scope by name.
+//
+// An assignment declares a new variable in the current scope unless the name is already
+// visible. Statements in a block always run in order, so a name is visible exactly when
+// an earlier assignment in an enclosing block declared it. Top level variables and
+// builtins are left as plain Symbols and looked up by name.
+public class Resolver {
+	// Declared at the start of every rule body, in this order, so the interpreter can
+	// fill in slots 0 to 3.
+	static final String[] RULE_VARIABLES = new String[]{
+		"target", "targets", "dep", "deps"
+	};
+
+	private final HashSet<String> globals;
+	private final ArrayList<HashMap<String, Integer>> scopes;
+
+	private Resolver(Set<String> globals) {
+		this.globals = new HashSet<>(globals);
+		scopes = new ArrayList<>();
+	}
+
+	// Returns a copy of the script with its local variables resolved. Globals is the set
+	// of names defined before the script runs.
+	public static Block resolve(Block script, Set<String> globals) {
+		return new Resolver(globals).resolveBlock(script, false);
+	}
+
+	private Block resolveBlock(Block block, boolean newScope) {
+		return resolveBlock(block, newScope, new String[0]);
+	}
+
+	// Predeclared names get the first slots in the new scope.
+	private Block resolveBlock(Block block, boolean newScope, String[] predeclared) {
+		if (newScope) {
+			var scope = new HashMap<String, Integer>();
+			for (var name : predeclared) {
+				scope.put(name, scope.size());
+			}
+			scopes.add(scope);
+		}
+		var statements = new Statement[block.statements.length];
+		for (int i = 0; i < statements.length; i++) {
+			statements[i] = resolveStatement(block.statements[i]);
+		}
+		int frameSize = 0;
+		if (newScope) {
+			frameSize = scopes.remove(scopes.size() - 1).size();
+		}
+		return new Block(statements, frameSize);
+	}
+
+	private Statement resolveStatement(Statement statement) {
+		if (statement instanceof Assignment) {
+			var assignment = (Assignment) statement;
+			// The right side can't see the variable if this assignment declares it.
+			var rightSide = resolveExpression(assignment.rightSide);
+			return new Assignment(declare(assignment.leftSide.name), rightSide);
+		}
+		if (statement instanceof ExpressionStatement) {
+			var expression = (ExpressionStatement) statement;
+			if (expression.expression == null) {
+				return statement;
+			}
+			return new ExpressionStatement(resolveExpression(expression.expression), expression.kind);
+		}
+		if (statement instanceof BlockStatement) {
+			return new BlockStatement(resolveBlock(((BlockStatement) statement).block, true));
+		}
+		if (statement instanceof If) {
+			var castStatement = (If) statement;
+			var conditionals = new Expression[castStatement.conditionals.length];
+			var blocks = new Block[castStatement.blocks.length];
+			for (int i = 0; i < conditionals.length; i++) {
+				conditionals[i] = resolveExpression(castStatement.conditionals[i]);
+				blocks[i] = resolveBlock(castStatement.blocks[i], true);
+			}
+			Block elseBlock = null;
+			if (castStatement.elseBlock != null) {
+				elseBlock = resolveBlock(castStatement.elseBlock, true);
+			}
+			return new If(conditionals, blocks, elseBlock);
+		}
+		if (statement instanceof WhileLoop) {
+			var castStatement = (WhileLoop) statement;
+			var condition = resolveExpression(castStatement.condition);
+			return new WhileLoop(condition, resolveBlock(castStatement.block, true));
+		}
+		if (statement instanceof Rule) {
+			var castStatement = (Rule) statement;
+			var targets = resolveAll(castStatement.targets);
+			var dependencies = resolveAll(castStatement.dependencies);
+			return new Rule(targets, dependencies, resolveBlock(castStatement.block, true, RULE_VARIABLES));
+		}
+
+		// Everything else either has no variables, or is rejected by the interpreter.
+		return statement;
+	}
+
+	private Expression resolveExpression(Expression expression) {
+		if (expression instanceof ExpressionValue) {
+			return expression;
+		}
+		if (expression instanceof Symbol) {
+			var symbol = (Symbol) expression;
+			var local = lookup(symbol.name);
+			if (local != null) {
+				return local;
+			}
+			// Either a global, or not defined yet. Both are looked up by name.
+			return symbol;
+		}
+		if (expression instanceof Index) {
+			var castExpression = (Index) expression;
+			var variable = resolveExpression(castExpression.variable);
+			return new Index(variable, resolveExpression(castExpression.indexExpression));
+		}
+		if (expression instanceof Unary) {
+			var castExpression = (Unary) expression;
+			return new Unary(resolveExpression(castExpression.inner), castExpression.operator);
+		}
+		if (expression instanceof Binary) {
+			var castExpression = (Binary) expression;
+			var left = resolveExpression(castExpression.left);
+			var right = resolveExpression(castExpression.right);
+			return new Binary(left, castExpression.operator, right);
+		}
+		if (expression instanceof FunctionCall) {
+			var functionCall = (FunctionCall) expression;
+			var function = resolveExpression(functionCall.functionName);
+			return new FunctionCall(function, resolveAll(functionCall.args));
+		}
+		if (expression instanceof Expression.Array) {
+			return new Expression.Array(resolveAll(((Expression.Array) expression).elements));
+		}
+		if (expression instanceof Expression.Dictionary) {
+			var castDict = (Expression.Dictionary) expression;
+			var keys = new Expression[castDict.keys.length];
+			var values = new Expression[castDict.values.length];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = resolveExpression(castDict.keys[i]);
+				values[i] = resolveExpression(castDict.values[i]);
+			}
+			return new Expression.Dictionary(keys, values);
+		}
+		return expression;
+	}
+
+	private Expression[] resolveAll(Expression[] expressions) {
+		var ret = new Expression[expressions.length];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = resolveExpression(expressions[i]);
+		}
+		return ret;
+	}
+
+	// Finds a local variable, from the innermost scope outward. Returns null for globals.
+	private LocalSymbol lookup(String name) {
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			var slot = scopes.get(i).get(name);
+			if (slot != null) {
+				return new LocalSymbol(name, scopes.size() - 1 - i, slot);
+			}
+		}
+		return null;
+	}
+
+	private Symbol declare(String name) {
+		var local = lookup(name);
+		if (local != null) {
+			return local;
+		}
+		if (scopes.isEmpty() || globals.contains(name)) {
+			globals.add(name);
+			return new Symbol(name);
+		}
+		var currentScope = scopes.get(scopes.size() - 1);
+		var slot = currentScope.size();
+		currentScope.put(name, slot);
+		return new LocalSymbol(name, 0, slot);
+	}
+}
@@ -1,13 +1,91 @@
 package jmaker.interpreter;
 
+// A rule's commands are only worked out the first time something asks for them, by
+// running its body. Most builds only need a few of the rules a script defines.
 public class RuleValue {
 	public final String[] targets;
 	public final String[] dependencies;
-	public final String[] commands;
+	// Null until the body has run.
+	private String[] commands;
+	private final RuleBody body;
+	private final boolean pattern;
 
 	public RuleValue(String[] targets, String[] dependencies, String[] commands) {
 		this.targets = targets;
 		this.dependencies = dependencies;
 		this.commands = commands;
+		body = null;
+		pattern = false;
+	}
+
+	// If any target contains a '*', this is a pattern rule. Then every target contains
+	// exactly one '*', which matches a non-empty "stem"; any '*' in the dependencies is
+	// replaced by the same stem.
+	public RuleValue(String[] targets, String[] dependencies, RuleBody body) {
+		pattern = hasPattern(targets);
+		if (pattern) {
+			for (var target : targets) {
+				if (countStars(target) != 1) {
+					throw new RuntimeException("Pattern rule targets must contain exactly one '*': '" + target + "'");
+				}
+			}
+		}
+		this.targets = targets;
+		this.dependencies = dependencies;
+		this.commands = null;
+		this.body = body;
+	}
+
+	public boolean isPattern() {
+		return pattern;
+	}
+
+	// Rules can be built in parallel, and the body must only run once.
+	public synchronized String[] getCommands() {
+		if (pattern) {
+			throw new RuntimeException("Pattern rules only have commands once they're instantiated.");
+		}
+		if (commands == null) {
+			commands = body.expand(targets, dependencies);
+		}
+		return commands;
+	}
+
+	// Makes a concrete rule for one stem.
+	public RuleValue instantiate(String stem) {
+		assert (isPattern());
+		var concreteTargets = new String[targets.length];
+		for (int i = 0; i < targets.length; i++) {
+			concreteTargets[i] = targets[i].replace("*", stem);
+		}
+		var concreteDependencies = new String[dependencies.length];
+		for (int i = 0; i < dependencies.length; i++) {
+			concreteDependencies[i] = dependencies[i].replace("*", stem);
+		}
+		return new RuleValue(concreteTargets, concreteDependencies, body);
+	}
+
+	public static boolean hasPattern(String[] targets) {
+		for (var target : targets) {
+			if (target.indexOf('*') != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int countStars(String text) {
+		int count = 0;
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '*') {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public static interface RuleBody {
+		// Runs the body for the given targets and dependencies, returning the commands.
+		String[] expand(String[] targets, String[] dependencies);
 	}
 }
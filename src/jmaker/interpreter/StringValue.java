@@ -4,6 +4,8 @@ import java.util.Objects;
 import jmaker.parser.Expression;
 
 public class StringValue implements ExpressionValue, Expression {
+	private static final long serialVersionUID = 1L;
+
 	public final String value;
 
 	public StringValue(String value) {
@@ -44,7 +46,8 @@ public class StringValue implements ExpressionValue, Expression {
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(value);
+		// Same as Objects.hash(value), without the varargs array.
+		return 31 + Objects.hashCode(value);
 	}
 
 	@Override
@@ -0,0 +1,252 @@
+package jmaker.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Set;
+import jmaker.runtime.CommandRunner;
+
+// A long-lived JMaker process ("--server"), so that builds started through Launcher skip
+// JVM startup, class loading and JIT warm-up. Parsed scripts and file digests are kept
+// in memory between builds.
+//
+// The server listens on a loopback TCP port, and writes the port and a random token to
+// SERVER_FILE. Only clients that can read that file can use the server. Builds run one at
+// a time, in the directory and with the environment variables the server was started
+// with; clients with a different directory or environment build on their own.
+//
+// Protocol: the client sends the token, its working directory, its arguments and its
+// environment variables. The server answers with frames: a channel byte, then for output
+// channels a length and the bytes. The EXIT frame carries the exit code instead, and
+// ends the build. If the client disconnects, the build is cancelled.
+public class BuildServer {
+	static final Path SERVER_FILE = Paths.get(".jmaker", "server");
+
+	static final byte CHANNEL_EXIT = 0;
+	static final byte CHANNEL_STDOUT = 1;
+	static final byte CHANNEL_STDERR = 2;
+	// The server can't run this build; the client should run it itself.
+	static final byte CHANNEL_REFUSED = 3;
+
+	// Builds run one at a time, so a client that connects and never sends its request
+	// would block every other client.
+	private static final int REQUEST_TIMEOUT_MILLIS = 5000;
+	// Kept up to date by the shell itself, so they differ between shells without
+	// changing what commands do.
+	private static final Set<String> IGNORED_VARIABLES = Set.of("_", "OLDPWD", "PWD", "SHLVL");
+
+	private final ScriptCache scriptCache;
+	private final BuildState state;
+	private final String workingDir;
+	private final String token;
+
+	public BuildServer(ScriptCache scriptCache, BuildState state) {
+		this.scriptCache = scriptCache;
+		this.state = state;
+		workingDir = Paths.get("").toAbsolutePath().toString();
+		var tokenBytes = new byte[16];
+		new SecureRandom().nextBytes(tokenBytes);
+		token = Digests.toHex(tokenBytes);
+	}
+
+	public void run() {
+		try (var serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			writeServerFile(serverSocket.getLocalPort());
+			Runtime.getRuntime().addShutdownHook(new Thread(BuildServer::deleteServerFile));
+			System.err.println("Build server listening on port " + serverSocket.getLocalPort());
+			while (true) {
+				try (var socket = serverSocket.accept()) {
+					handle(socket);
+				} catch (IOException e) {
+					System.err.println("Lost connection to a client: " + e.getMessage());
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not start the build server: " + e.getMessage(), e);
+		} finally {
+			deleteServerFile();
+		}
+	}
+
+	private void writeServerFile(int port) throws IOException {
+		Files.createDirectories(SERVER_FILE.toAbsolutePath().getParent());
+		var tempPath = Files.createTempFile(SERVER_FILE.toAbsolutePath().getParent(), "server", ".tmp");
+		Files.writeString(tempPath, port + " " + token + "\n", StandardCharsets.UTF_8);
+		Files.move(tempPath, SERVER_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static void deleteServerFile() {
+		try {
+			Files.deleteIfExists(SERVER_FILE);
+		} catch (IOException e) {
+			// A stale file just makes clients fall back to building on their own.
+		}
+	}
+
+	private void handle(Socket socket) throws IOException {
+		socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+		var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		var output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		if (!token.equals(input.readUTF())) {
+			return;
+		}
+		var clientDir = input.readUTF();
+		var args = new String[input.readInt()];
+		for (int i = 0; i < args.length; i++) {
+			args[i] = input.readUTF();
+		}
+		var environment = new HashMap<String, String>();
+		int environmentSize = input.readInt();
+		for (int i = 0; i < environmentSize; i++) {
+			environment.put(input.readUTF(), input.readUTF());
+		}
+		if (!clientDir.equals(workingDir) || !isSameEnvironment(environment)) {
+			output.writeByte(CHANNEL_REFUSED);
+			output.flush();
+			return;
+		}
+		// The build can take any amount of time.
+		socket.setSoTimeout(0);
+
+		var canceller = new BuildCanceller(Thread.currentThread());
+		var clientOut = new PrintStream(new FrameOutputStream(output, CHANNEL_STDOUT, canceller), true);
+		var clientErr = new PrintStream(new FrameOutputStream(output, CHANNEL_STDERR, canceller), true);
+		var serverOut = System.out;
+		var serverErr = System.err;
+		System.setOut(clientOut);
+		System.setErr(clientErr);
+		CommandRunner.redirectOutput(clientOut, clientErr);
+		startDisconnectWatcher(input, canceller);
+		int exitCode;
+		try {
+			exitCode = JMaker.run(args, scriptCache, state);
+		} catch (Throwable e) {
+			// Even errors like a stack overflow in a script only end this build.
+			clientErr.println("Error: " + (e instanceof RuntimeException ? e.getMessage() : e.toString()));
+			exitCode = 1;
+		} finally {
+			canceller.finished();
+			CommandRunner.redirectOutput(null, null);
+			System.setOut(serverOut);
+			System.setErr(serverErr);
+		}
+
+		clientOut.flush();
+		clientErr.flush();
+		synchronized (output) {
+			output.writeByte(CHANNEL_EXIT);
+			output.writeInt(exitCode);
+			output.flush();
+		}
+	}
+
+	// Only variables that can change what a build does are compared.
+	private static boolean isSameEnvironment(HashMap<String, String> clientEnvironment) {
+		var serverEnvironment = new HashMap<>(System.getenv());
+		serverEnvironment.keySet().removeAll(IGNORED_VARIABLES);
+		clientEnvironment.keySet().removeAll(IGNORED_VARIABLES);
+		return serverEnvironment.equals(clientEnvironment);
+	}
+
+	// The client sends nothing after its request, so a read only returns once it has
+	// disconnected (or the socket is closed after the build).
+	private static void startDisconnectWatcher(DataInputStream input, BuildCanceller canceller) {
+		var watcher = new Thread(()->{
+			try {
+				input.read();
+			} catch (IOException e) {
+				// Same as a disconnect.
+			}
+			canceller.cancel();
+		}, "client watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	// Interrupts the build thread, which makes DependGraph kill the running commands.
+	private static class BuildCanceller {
+		private final Thread buildThread;
+		private boolean building;
+
+		public BuildCanceller(Thread buildThread) {
+			this.buildThread = buildThread;
+			building = true;
+		}
+
+		public synchronized void cancel() {
+			if (building) {
+				building = false;
+				buildThread.interrupt();
+			}
+		}
+
+		// Must be called on the build thread. Clears any interrupt, so the next build
+		// isn't affected.
+		public synchronized void finished() {
+			building = false;
+			Thread.interrupted();
+		}
+	}
+
+	// Sends everything written to it as frames on one channel. Commands running in
+	// parallel share the socket, so each frame is written while holding its lock.
+	private static class FrameOutputStream extends OutputStream {
+		private final DataOutputStream socketOutput;
+		private final byte channel;
+		// PrintStream hides write errors, so a lost client is reported here instead.
+		private final BuildCanceller canceller;
+
+		public FrameOutputStream(DataOutputStream socketOutput, byte channel, BuildCanceller canceller) {
+			this.socketOutput = socketOutput;
+			this.channel = channel;
+			this.canceller = canceller;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{
+				(byte) b
+			}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			try {
+				synchronized (socketOutput) {
+					socketOutput.writeByte(channel);
+					socketOutput.writeInt(length);
+					socketOutput.write(bytes, offset, length);
+				}
+			} catch (IOException e) {
+				canceller.cancel();
+				throw e;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			try {
+				synchronized (socketOutput) {
+					socketOutput.flush();
+				}
+			} catch (IOException e) {
+				canceller.cancel();
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package jmaker.main;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ConcurrentHashMap;
+import jmaker.interpreter.RuleValue;
+import jmaker.runtime.FileStatCache;
+
+// Remembers what every rule looked like the last time it ran successfully, so that rules
+// whose commands and file contents haven't changed can be skipped.
+//
+// The store is a text file that starts with FORMAT, then has one record per line:
+//   F <tab> size <tab> modifiedTime <tab> hashedTime <tab> digest <tab> path
+//   R <tab> digest <tab> firstTarget
+//   D <tab> milliseconds <tab> firstTarget
+// Backslashes, tabs and line breaks in paths and targets are escaped with backslashes.
+//
+// File records cache content digests. A file is only re-hashed when its size or modified
+// time changes, so a null build costs one stat per file. Re-hashing means that touching a
+// file (or switching branches back and forth) doesn't cause a rebuild on its own.
+//
+// Like git's index, a digest isn't trusted if the file was modified around the time it
+// was hashed (hashedTime): another write in the same timestamp tick wouldn't change the
+// modified time, and would go unnoticed if it kept the size the same. Such files are
+// hashed again next time, and after that their record is old enough to trust.
+//
+// Duration records say how long each rule's commands took the last time they ran, which
+// is used to decide which rules to start first.
+public class BuildState {
+	private static final String MISSING_FILE = "-";
+	private static final String FORMAT = "JMaker state 2";
+	// The coarsest modified time precision of common filesystems (FAT's is 2 seconds).
+	private static final long TIMESTAMP_GRANULARITY_MILLIS = 2000;
+
+	private final Path storePath;
+	private final ConcurrentHashMap<String, FileRecord> files;
+	private final ConcurrentHashMap<String, String> rules;
+	private final ConcurrentHashMap<String, Long> durations;
+
+	private BuildState(Path storePath) {
+		this.storePath = storePath;
+		files = new ConcurrentHashMap<>();
+		rules = new ConcurrentHashMap<>();
+		durations = new ConcurrentHashMap<>();
+	}
+
+	public static BuildState load(Path storePath) {
+		var state = new BuildState(storePath);
+		if (!Files.exists(storePath)) {
+			return state;
+		}
+
+		try {
+			var lines = Files.readAllLines(storePath, StandardCharsets.UTF_8);
+			if (lines.isEmpty() || !lines.get(0).equals(FORMAT)) {
+				// Written by an older version, which didn't escape paths.
+				return state;
+			}
+			for (var line : lines.subList(1, lines.size())) {
+				var parts = line.split("\t", -1);
+				if (parts[0].equals("F") && parts.length == 6) {
+					var record = new FileRecord(Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]), parts[4]);
+					state.files.put(unescape(parts[5]), record);
+				} else if (parts[0].equals("R") && parts.length == 3) {
+					state.rules.put(unescape(parts[2]), parts[1]);
+				} else if (parts[0].equals("D") && parts.length == 3) {
+					state.durations.put(unescape(parts[2]), Long.parseLong(parts[1]));
+				}
+				// Anything else is from a different version; drop it.
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			// A corrupt store just means everything gets rebuilt.
+			state.files.clear();
+			state.rules.clear();
+			state.durations.clear();
+		}
+		return state;
+	}
+
+	public void save() {
+		try {
+			var parent = storePath.toAbsolutePath().getParent();
+			Files.createDirectories(parent);
+			var tempPath = Files.createTempFile(parent, "state", ".tmp");
+			try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+				writer.write(FORMAT);
+				writer.newLine();
+				for (var entry : files.entrySet()) {
+					var record = entry.getValue();
+					writer.write("F\t" + record.size + "\t" + record.modifiedTime + "\t" + record.hashedTime + "\t" + record.digest + "\t" + escape(entry.getKey()));
+					writer.newLine();
+				}
+				for (var entry : rules.entrySet()) {
+					writer.write("R\t" + entry.getValue() + "\t" + escape(entry.getKey()));
+					writer.newLine();
+				}
+				for (var entry : durations.entrySet()) {
+					writer.write("D\t" + entry.getValue() + "\t" + escape(entry.getKey()));
+					writer.newLine();
+				}
+			}
+			Files.move(tempPath, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not save build state to " + storePath, e);
+		}
+	}
+
+	// A rule is up to date if all of its targets exist, and its commands, targets and
+	// dependencies are byte-for-byte what they were after it last succeeded.
+	public boolean isUpToDate(RuleValue rule) {
+		var recorded = rules.get(rule.targets[0]);
+		if (recorded == null) {
+			return false;
+		}
+		var current = digestRule(rule);
+		return current != null && current.equals(recorded);
+	}
+
+	public void recordSuccess(RuleValue rule) {
+		var digest = digestRule(rule);
+		if (digest == null) {
+			// Some file is missing (for example, a phony target), so it can never be up to date.
+			rules.remove(rule.targets[0]);
+		} else {
+			rules.put(rule.targets[0], digest);
+		}
+	}
+
+	public void recordFailure(RuleValue rule) {
+		rules.remove(rule.targets[0]);
+	}
+
+	public void recordDuration(RuleValue rule, long milliseconds) {
+		durations.put(rule.targets[0], milliseconds);
+	}
+
+	// Returns -1 if the rule's commands have never run.
+	public long getDuration(RuleValue rule) {
+		var duration = durations.get(rule.targets[0]);
+		if (duration == null) {
+			return -1;
+		}
+		return duration;
+	}
+
+	// A key for what the rule's targets should contain: its commands, target names,
+	// dependency contents and the given environment. Unlike the up-to-date check, the
+	// targets' contents aren't part of it. Returns null if any dependency doesn't exist.
+	public String digestAction(RuleValue rule, String environment) {
+		var digest = Digests.newDigest();
+		digest.update(environment.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 1);
+		for (var command : rule.getCommands()) {
+			digest.update(command.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		digest.update((byte) 1);
+		for (var target : rule.targets) {
+			digest.update(target.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		digest.update((byte) 1);
+		for (var dependency : rule.dependencies) {
+			if (!digestFileInto(digest, dependency)) {
+				return null;
+			}
+		}
+		return Digests.toHex(digest.digest());
+	}
+
+	// Returns null if any target or dependency doesn't exist.
+	private String digestRule(RuleValue rule) {
+		var digest = Digests.newDigest();
+		for (var command : rule.getCommands()) {
+			digest.update(command.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+		}
+		digest.update((byte) 1);
+		for (var target : rule.targets) {
+			if (!digestFileInto(digest, target)) {
+				return null;
+			}
+		}
+		digest.update((byte) 1);
+		for (var dependency : rule.dependencies) {
+			if (!digestFileInto(digest, dependency)) {
+				return null;
+			}
+		}
+		return Digests.toHex(digest.digest());
+	}
+
+	private boolean digestFileInto(MessageDigest digest, String path) {
+		var fileDigest = getFileDigest(path);
+		if (fileDigest.equals(MISSING_FILE)) {
+			return false;
+		}
+		digest.update(path.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(fileDigest.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		return true;
+	}
+
+	private String getFileDigest(String path) {
+		var attributes = FileStatCache.current().getAttributes(Paths.get(path));
+		if (attributes == null) {
+			files.remove(path);
+			return MISSING_FILE;
+		}
+		if (!attributes.isRegularFile()) {
+			// Directories and other special files are treated like missing files.
+			return MISSING_FILE;
+		}
+
+		var size = attributes.size();
+		var modifiedTime = attributes.lastModifiedTime().toMillis();
+		var cached = files.get(path);
+		if (cached != null && cached.size == size && cached.modifiedTime == modifiedTime
+			&& modifiedTime + TIMESTAMP_GRANULARITY_MILLIS < cached.hashedTime) {
+			return cached.digest;
+		}
+
+		// Taken before reading, so a write during the read makes the record untrusted.
+		var hashedTime = System.currentTimeMillis();
+		var digest = Digests.newDigest();
+		var buffer = new byte[64 * 1024];
+		try (InputStream stream = Files.newInputStream(Paths.get(path))) {
+			int count;
+			while ((count = stream.read(buffer)) > 0) {
+				digest.update(buffer, 0, count);
+			}
+		} catch (NoSuchFileException e) {
+			files.remove(path);
+			return MISSING_FILE;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read " + path, e);
+		}
+		var hex = Digests.toHex(digest.digest());
+		files.put(path, new FileRecord(size, modifiedTime, hashedTime, hex));
+		return hex;
+	}
+
+	private static String escape(String text) {
+		var ret = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\') {
+				ret.append("\\\\");
+			} else if (c == '\t') {
+				ret.append("\\t");
+			} else if (c == '\n') {
+				ret.append("\\n");
+			} else if (c == '\r') {
+				ret.append("\\r");
+			} else {
+				ret.append(c);
+			}
+		}
+		return ret.toString();
+	}
+
+	private static String unescape(String text) {
+		var ret = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c != '\\') {
+				ret.append(c);
+				continue;
+			}
+			i += 1;
+			if (i == text.length()) {
+				throw new IllegalArgumentException("Unfinished escape in " + text);
+			}
+			switch (text.charAt(i)) {
+				case '\\':
+					ret.append('\\');
+					break;
+				case 't':
+					ret.append('\t');
+					break;
+				case 'n':
+					ret.append('\n');
+					break;
+				case 'r':
+					ret.append('\r');
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown escape in " + text);
+			}
+		}
+		return ret.toString();
+	}
+
+	private static class FileRecord {
+		public final long size;
+		public final long modifiedTime;
+		// When the file was read to make the digest.
+		public final long hashedTime;
+		public final String digest;
+
+		public FileRecord(long size, long modifiedTime, long hashedTime, String digest) {
+			this.size = size;
+			this.modifiedTime = modifiedTime;
+			this.hashedTime = hashedTime;
+			this.digest = digest;
+		}
+	}
+}
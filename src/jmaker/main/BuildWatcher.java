@@ -0,0 +1,199 @@
+package jmaker.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import jmaker.runtime.FileStatCache;
+import jmaker.runtime.InProcessJavac;
+import jmaker.runtime.Shell;
+import jmaker.runtime.WorkerPool;
+
+// The "--watch" mode. Keeps the rules and the dependency graph in memory, and rebuilds
+// whenever one of the graph's input files changes, re-running only the rules downstream
+// of the changed files, and any rules that failed or never ran in the last build.
+//
+// The script is only run again when the build file changes. New files that the script
+// would pick up (with findFiles(), for example) aren't noticed until then, because
+// builds create files too, and re-running the script for each of those could rebuild
+// forever.
+public class BuildWatcher {
+	// Editors often save a file in several steps; wait this long for things to settle.
+	private static final long SETTLE_MILLIS = 100;
+
+	private final File buildFile;
+	private final List<String> targets;
+	private final BuildState state;
+	private final OutputCache outputCache;
+	private final Shell shell;
+	private final int jobCount;
+
+	private final WatchService watchService;
+	private final HashMap<WatchKey, Path> watchedDirs;
+
+	// The current graph. Paths are absolute and normalized.
+	private DependGraph graph;
+	private HashMap<Path, String> inputs;
+
+	public BuildWatcher(File buildFile, List<String> targets, BuildState state, OutputCache outputCache, Shell shell, int jobCount) {
+		this.buildFile = buildFile;
+		this.targets = targets;
+		this.state = state;
+		this.outputCache = outputCache;
+		this.shell = shell;
+		this.jobCount = jobCount;
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not watch for file changes", e);
+		}
+		watchedDirs = new HashMap<>();
+	}
+
+	// Never returns, unless the thread is interrupted.
+	public void run() {
+		reloadAndBuild();
+		while (!Thread.currentThread().isInterrupted()) {
+			var changedPaths = new HashSet<Path>();
+			boolean needsReload;
+			try {
+				needsReload = waitForChanges(changedPaths);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+
+			if (needsReload || graph == null) {
+				reloadAndBuild();
+				continue;
+			}
+
+			var changedInputs = new ArrayList<String>();
+			for (var path : changedPaths) {
+				var input = inputs.get(path);
+				if (input != null) {
+					changedInputs.add(input);
+				}
+			}
+			if (!changedInputs.isEmpty()) {
+				FileStatCache.reset();
+				for (var input : changedInputs) {
+					InProcessJavac.fileChanged(input);
+				}
+				report(graph.executeAffected(changedInputs, jobCount));
+			}
+		}
+	}
+
+	// Blocks until something changes, then collects every event until things have been
+	// quiet for a bit. Returns true if the script has to be run again.
+	private boolean waitForChanges(HashSet<Path> changedPaths) throws InterruptedException {
+		var buildFilePath = toKey(buildFile.toPath());
+		boolean needsReload = false;
+		var key = watchService.take();
+		while (key != null) {
+			var dir = watchedDirs.get(key);
+			for (var event : key.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+					needsReload = true;
+					continue;
+				}
+				var path = toKey(dir.resolve((Path) ((WatchEvent<?>) event).context()));
+				if (path.equals(buildFilePath)) {
+					needsReload = true;
+				}
+				changedPaths.add(path);
+			}
+			if (!key.reset()) {
+				watchedDirs.remove(key);
+			}
+			key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		return needsReload;
+	}
+
+	private void reloadAndBuild() {
+		FileStatCache.reset();
+		InProcessJavac.reset();
+		WorkerPool.clearRegistrations();
+		try {
+			var rules = new MakeFile(buildFile).getRules();
+			var newGraph = new DependGraph(state, shell, outputCache);
+			for (var target : targets) {
+				rules.buildGraph(target, newGraph);
+			}
+			setGraph(newGraph);
+		} catch (RuntimeException e) {
+			// Keep watching; fixing the script will trigger another reload.
+			System.err.println("Error while loading " + buildFile + ": " + e.getMessage());
+			graph = null;
+			watch(List.of(toKey(buildFile.toPath()).getParent()));
+			System.err.println("Waiting for changes...");
+			return;
+		}
+		report(graph.execute(jobCount));
+	}
+
+	private void setGraph(DependGraph newGraph) {
+		graph = newGraph;
+		inputs = new HashMap<>();
+		for (var input : graph.getInputs()) {
+			inputs.put(toKey(Path.of(input)), input);
+		}
+
+		var dirs = new HashSet<Path>();
+		dirs.add(toKey(buildFile.toPath()).getParent());
+		for (var input : inputs.keySet()) {
+			dirs.add(input.getParent());
+		}
+		watch(dirs);
+	}
+
+	// Watches exactly the given directories, dropping any others.
+	private void watch(Collection<Path> dirs) {
+		for (var entry : new ArrayList<>(watchedDirs.entrySet())) {
+			if (!dirs.contains(entry.getValue())) {
+				entry.getKey().cancel();
+				watchedDirs.remove(entry.getKey());
+			}
+		}
+		var alreadyWatched = new HashSet<>(watchedDirs.values());
+		for (var dir : dirs) {
+			if (alreadyWatched.contains(dir)) {
+				continue;
+			}
+			try {
+				var key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				watchedDirs.put(key, dir);
+			} catch (IOException e) {
+				System.err.println("Could not watch " + dir + ": " + e.getMessage());
+			}
+		}
+	}
+
+	private void report(boolean success) {
+		state.save();
+		graph.trimOutputCache();
+		if (success) {
+			System.err.println("Build finished. Waiting for changes...");
+		} else if (graph.getFailedRule() != null) {
+			System.err.println("Build failed while making '" + graph.getFailedRule().targets[0] + "'. Waiting for changes...");
+		} else {
+			System.err.println("Build failed. Waiting for changes...");
+		}
+	}
+
+	private static Path toKey(Path path) {
+		return path.toAbsolutePath().normalize();
+	}
+}
@@ -1,13 +1,454 @@
 package jmaker.main;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import jmaker.interpreter.RuleValue;
+import jmaker.runtime.CommandRunner;
+import jmaker.runtime.FileStatCache;
+import jmaker.runtime.InProcessJavac;
+import jmaker.runtime.Shell;
+import jmaker.runtime.Tracer;
+
 public class DependGraph {
+	private final HashMap<RuleValue, Node> nodes;
+	// Plain files (not made by any rule) that rules depend on, and the rules that use them.
+	private final HashMap<String, HashSet<Node>> inputs;
+	// Can be null, in which case every rule is always run.
+	private final BuildState state;
+	private final Shell shell;
+	// Can be null. Only used if there's a state.
+	private final OutputCache outputCache;
+	// Rules that haven't succeeded since they were added, because they failed, or because
+	// a build stopped before getting to them. Guarded by "this".
+	private final HashSet<Node> unfinishedNodes;
+
+	// Scheduling state. Guarded by "this".
+	private Set<Node> selectedNodes;
+	private PriorityQueue<Node> readyNodes;
+	private int jobLimit;
+	private int runningJobs;
+	private int finishedJobs;
+	private RuleValue failedRule;
+	// Commands that are running now, so they can be killed if the build is interrupted.
+	private HashSet<CommandRunner> runningCommands;
+	private volatile boolean storedOutputs;
 
 	public DependGraph() {
-		throw new UnsupportedOperationException("Constructor for DependGraph not yet implemented.");
+		this(null, Shell.getDefault());
+	}
+
+	public DependGraph(BuildState state, Shell shell) {
+		this(state, shell, null);
+	}
+
+	public DependGraph(BuildState state, Shell shell, OutputCache outputCache) {
+		nodes = new HashMap<>();
+		inputs = new HashMap<>();
+		unfinishedNodes = new HashSet<>();
+		this.state = state;
+		this.shell = shell;
+		this.outputCache = outputCache;
+	}
+
+	public boolean contains(RuleValue rule) {
+		return nodes.containsKey(rule);
+	}
+
+	public void addRule(RuleValue rule) {
+		if (!nodes.containsKey(rule)) {
+			var node = new Node(rule);
+			nodes.put(rule, node);
+			synchronized (this) {
+				unfinishedNodes.add(node);
+			}
+		}
+	}
+
+	// The dependency has to finish before the rule can start.
+	public void addDependency(RuleValue rule, RuleValue dependency) {
+		var node = getNode(rule);
+		var dependencyNode = getNode(dependency);
+		node.dependencies.add(dependencyNode);
+		dependencyNode.dependents.add(node);
+	}
+
+	// The rule depends on a file that no rule makes.
+	public void addInput(RuleValue rule, String path) {
+		inputs.computeIfAbsent(path, p->new HashSet<>()).add(getNode(rule));
+	}
+
+	public Set<String> getInputs() {
+		return Collections.unmodifiableSet(inputs.keySet());
+	}
+
+	private Node getNode(RuleValue rule) {
+		var node = nodes.get(rule);
+		if (node == null) {
+			throw new RuntimeException("Rule for '" + rule.targets[0] + "' isn't in the graph.");
+		}
+		return node;
+	}
+
+	public RuleValue getFailedRule() {
+		return failedRule;
+	}
+
+	// Runs every rule in the graph, at most jobCount at a time. A rule is ready as soon
+	// as the last of its dependencies finishes. After the first failure no new rules are
+	// started, but the ones already running are allowed to finish.
+	//
+	// When there are more ready rules than free jobs, the ones at the start of the longest
+	// chains go first, judging by how long each rule took the last time it ran. Otherwise
+	// a long chain like codegen -> javac -> jar could be started last and finish long
+	// after everything else.
+	//
+	// Threads are only busy while checking rules and recording the results. While the
+	// commands run, nothing waits on them; the rule finishes from the process's exit
+	// callback, which then starts the next ready rules.
+	//
+	// Returns true if every rule succeeded.
+	public boolean execute(int jobCount) {
+		prefetchFileStats();
+		return execute(jobCount, new HashSet<>(nodes.values()));
+	}
+
+	// Evicts old build cache entries, if anything was added.
+	public void trimOutputCache() {
+		if (outputCache != null && storedOutputs) {
+			outputCache.trim();
+			storedOutputs = false;
+		}
+	}
+
+	// Like execute(), but only runs the rules that use one of the changed input files,
+	// and everything that depends on those rules. The other rules are assumed to be
+	// up to date already, unless they haven't succeeded yet; those are run again too.
+	public boolean executeAffected(Collection<String> changedInputs, int jobCount) {
+		var affected = new HashSet<Node>();
+		var toVisit = new ArrayList<Node>();
+		synchronized (this) {
+			toVisit.addAll(unfinishedNodes);
+		}
+		for (var path : changedInputs) {
+			var users = inputs.get(path);
+			if (users != null) {
+				toVisit.addAll(users);
+			}
+		}
+		while (!toVisit.isEmpty()) {
+			var node = toVisit.remove(toVisit.size() - 1);
+			if (affected.add(node)) {
+				toVisit.addAll(node.dependents);
+			}
+		}
+		prefetchFileStats();
+		return execute(jobCount, affected);
 	}
 
-	public void execute() {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("execute of DependGraph not yet implemented.");
+	// Up-to-date checks look at every target and input, so stat them all at once.
+	private void prefetchFileStats() {
+		if (state == null) {
+			return;
+		}
+		var paths = new ArrayList<String>(inputs.keySet());
+		for (var rule : nodes.keySet()) {
+			Collections.addAll(paths, rule.targets);
+		}
+		FileStatCache.current().prefetch(paths);
+	}
+
+	private boolean execute(int jobCount, Set<Node> selected) {
+		if (jobCount < 1) {
+			throw new RuntimeException("Job count must be at least 1 (" + jobCount + ")");
+		}
+
+		var executor = Executors.newFixedThreadPool(jobCount);
+		try {
+			synchronized (this) {
+				computePriorities(selected);
+				selectedNodes = selected;
+				readyNodes = new PriorityQueue<>((a, b)->Long.compare(b.priority, a.priority));
+				jobLimit = jobCount;
+				runningJobs = 0;
+				finishedJobs = 0;
+				failedRule = null;
+				runningCommands = new HashSet<>();
+				unfinishedNodes.addAll(selected);
+
+				for (var node : selected) {
+					node.pendingDependencies = 0;
+					for (var dependency : node.dependencies) {
+						if (selected.contains(dependency)) {
+							node.pendingDependencies += 1;
+						}
+					}
+					if (node.pendingDependencies == 0) {
+						readyNodes.add(node);
+					}
+				}
+				dispatch(executor);
+
+				while (runningJobs > 0 || (failedRule == null && finishedJobs < selected.size())) {
+					wait();
+				}
+			}
+		} catch (InterruptedException e) {
+			synchronized (this) {
+				for (var runner : runningCommands) {
+					runner.cancel();
+				}
+			}
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			executor.shutdown();
+		}
+
+		return failedRule == null;
+	}
+
+	// Sets each node's priority to the expected time from when it starts until the end
+	// of the longest chain of rules that depend on it.
+	private void computePriorities(Set<Node> selected) {
+		// Rules that have never run are guessed to take as long as an average rule.
+		long knownTotal = 0;
+		int knownCount = 0;
+		if (state != null) {
+			for (var node : selected) {
+				var duration = state.getDuration(node.rule);
+				if (duration > 0) {
+					knownTotal += duration;
+					knownCount += 1;
+				}
+			}
+		}
+		long defaultDuration = knownCount == 0 ? 1 : Math.max(1, knownTotal / knownCount);
+
+		// Go backwards from the rules nothing depends on, so every node is visited after
+		// all of its dependents.
+		var remainingDependents = new HashMap<Node, Integer>();
+		var toVisit = new ArrayList<Node>();
+		for (var node : selected) {
+			int count = 0;
+			for (var dependent : node.dependents) {
+				if (selected.contains(dependent)) {
+					count += 1;
+				}
+			}
+			remainingDependents.put(node, count);
+			if (count == 0) {
+				toVisit.add(node);
+			}
+		}
+		while (!toVisit.isEmpty()) {
+			var node = toVisit.remove(toVisit.size() - 1);
+			long longestAfter = 0;
+			for (var dependent : node.dependents) {
+				if (selected.contains(dependent)) {
+					longestAfter = Math.max(longestAfter, dependent.priority);
+				}
+			}
+			// Asking for the commands here would run every rule's body, so rules without
+			// commands are only known to take no time once they've been built once.
+			long duration = state == null ? -1 : state.getDuration(node.rule);
+			if (duration < 0) {
+				duration = defaultDuration;
+			}
+			node.priority = duration + longestAfter;
+
+			for (var dependency : node.dependencies) {
+				if (!selected.contains(dependency)) {
+					continue;
+				}
+				int count = remainingDependents.get(dependency) - 1;
+				remainingDependents.put(dependency, count);
+				if (count == 0) {
+					toVisit.add(dependency);
+				}
+			}
+		}
+	}
+
+	// Starts ready rules until every job is busy. Must hold the lock on "this".
+	private void dispatch(ExecutorService executor) {
+		if (executor.isShutdown()) {
+			return;
+		}
+		while (failedRule == null && runningJobs < jobLimit && !readyNodes.isEmpty()) {
+			var node = readyNodes.poll();
+			runningJobs += 1;
+			executor.execute(()->runNode(node, executor));
+		}
+	}
+
+	private void runNode(Node node, ExecutorService executor) {
+		CompletableFuture<Boolean> result;
+		try {
+			result = node.run(this, executor);
+		} catch (RuntimeException e) {
+			result = CompletableFuture.failedFuture(e);
+		}
+		result.whenComplete((success, e)->{
+			if (e != null) {
+				var cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+				System.err.println("Error while making '" + node.rule.targets[0] + "': " + cause.getMessage());
+			}
+			finishNode(node, e == null && success, executor);
+		});
+	}
+
+	private void finishNode(Node node, boolean success, ExecutorService executor) {
+		synchronized (this) {
+			runningJobs -= 1;
+			finishedJobs += 1;
+			if (!success) {
+				if (failedRule == null) {
+					failedRule = node.rule;
+				}
+			} else {
+				unfinishedNodes.remove(node);
+				if (failedRule == null) {
+					for (var dependent : node.dependents) {
+						if (!selectedNodes.contains(dependent)) {
+							continue;
+						}
+						dependent.pendingDependencies -= 1;
+						if (dependent.pendingDependencies == 0) {
+							readyNodes.add(dependent);
+						}
+					}
+					dispatch(executor);
+				}
+			}
+			notifyAll();
+		}
+	}
+
+	private static class Node {
+		public final RuleValue rule;
+		public final HashSet<Node> dependencies;
+		public final HashSet<Node> dependents;
+		// Only touched while holding the lock on the graph.
+		public int pendingDependencies;
+		public long priority;
+
+		public Node(RuleValue rule) {
+			this.rule = rule;
+			dependencies = new HashSet<>();
+			dependents = new HashSet<>();
+			pendingDependencies = 0;
+			priority = 0;
+		}
+
+		// Does the checks on this thread, then starts the commands if they're needed.
+		// Recording the results happens on the executor, not the thread that noticed the
+		// commands finished.
+		public CompletableFuture<Boolean> run(DependGraph graph, ExecutorService executor) {
+			var span = Tracer.beginAsync(rule.targets[0]);
+			CompletableFuture<Boolean> result;
+			try {
+				result = runCommands(graph, executor);
+			} catch (RuntimeException e) {
+				result = CompletableFuture.failedFuture(e);
+			}
+			return result.whenComplete((success, e)->span.close());
+		}
+
+		private CompletableFuture<Boolean> runCommands(DependGraph graph, ExecutorService executor) {
+			var state = graph.state;
+			// Rules without commands just group their dependencies together.
+			if (rule.getCommands().length == 0) {
+				if (state != null) {
+					state.recordDuration(rule, 0);
+				}
+				return CompletableFuture.completedFuture(true);
+			}
+			if (state != null) {
+				var span = Tracer.begin("up-to-date check");
+				try {
+					if (state.isUpToDate(rule)) {
+						return CompletableFuture.completedFuture(true);
+					}
+				} finally {
+					span.close();
+				}
+			}
+
+			String cacheKey = null;
+			if (state != null && graph.outputCache != null) {
+				cacheKey = state.digestAction(rule, OutputCache.describeEnvironment(graph.shell));
+				if (cacheKey != null && restoreFromCache(graph.outputCache, cacheKey, state)) {
+					return CompletableFuture.completedFuture(true);
+				}
+			}
+
+			var startTime = System.nanoTime();
+			var runner = new CommandRunner(rule.getCommands(), graph.shell);
+			synchronized (graph) {
+				graph.runningCommands.add(runner);
+			}
+			var finalCacheKey = cacheKey;
+			return runner.runAsync().whenComplete((success, e)->{
+				synchronized (graph) {
+					graph.runningCommands.remove(runner);
+				}
+			}).thenApplyAsync(success->{
+				var milliseconds = (System.nanoTime() - startTime) / 1000000;
+				recordResult(graph, success, milliseconds, finalCacheKey);
+				return success;
+			}, executor);
+		}
+
+		private void recordResult(DependGraph graph, boolean success, long milliseconds, String cacheKey) {
+			// The commands changed the targets (or were supposed to).
+			targetsChanged();
+			var state = graph.state;
+			if (state == null) {
+				return;
+			}
+			if (success) {
+				state.recordSuccess(rule);
+				state.recordDuration(rule, milliseconds);
+				if (cacheKey != null) {
+					graph.outputCache.store(cacheKey, rule.targets);
+					graph.storedOutputs = true;
+				}
+			} else {
+				state.recordFailure(rule);
+			}
+		}
+
+		private void targetsChanged() {
+			for (var target : rule.targets) {
+				FileStatCache.current().invalidate(target);
+				InProcessJavac.fileChanged(target);
+			}
+		}
+
+		private boolean restoreFromCache(OutputCache cache, String key, BuildState state) {
+			var span = Tracer.begin("restore from cache");
+			try {
+				var restored = cache.restore(key, rule.targets);
+				targetsChanged();
+				if (!restored) {
+					return false;
+				}
+			} finally {
+				span.close();
+			}
+			System.out.println("Restored " + String.join(", ", rule.targets) + " from the build cache");
+			state.recordSuccess(rule);
+			return true;
+		}
 	}
 }
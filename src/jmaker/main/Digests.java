@@ -0,0 +1,31 @@
+package jmaker.main;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public abstract class Digests {
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			// Every JVM is required to support SHA-256.
+			throw new UnreachableCodeBlockException();
+		}
+	}
+
+	public static String digestString(String text) {
+		return toHex(newDigest().digest(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	public static String toHex(byte[] bytes) {
+		var builder = new StringBuilder(bytes.length * 2);
+		for (var b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+			builder.append(Character.forDigit(b & 0xF, 16));
+		}
+		return builder.toString();
+	}
+}
@@ -1,35 +1,192 @@
 package jmaker.main;
 
 import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import jmaker.runtime.CommandRunner;
+import jmaker.runtime.FileStatCache;
+import jmaker.runtime.InProcessJavac;
+import jmaker.runtime.Shell;
+import jmaker.runtime.Tracer;
+import jmaker.runtime.WorkerPool;
 
 public abstract class JMaker {
+	public static final String VERSION = "0.1.0";
+
 	private static final String DEFAULT_FILE_NAME = "build.jmaker";
 	private static final String DEFAULT_TARGET = "all";
+	private static final int DEFAULT_JOB_COUNT = 1;
+	private static final String DEFAULT_TRACE_FILE = "trace.json";
+	static final Path STATE_FILE = Paths.get(".jmaker", "state");
 
 	public static void main(String[] args) {
+		int exitCode = run(args, new ScriptCache(MakeFile.CACHE_DIR), BuildState.load(STATE_FILE));
+		if (exitCode != 0) {
+			System.exit(exitCode);
+		}
+	}
+
+	// Returns the exit code. The build server keeps the caches between calls.
+	static int run(String[] args, ScriptCache scriptCache, BuildState state) {
+		// File metadata is only cached for one build.
+		FileStatCache.reset();
+
+		// Parse commandline args for flags and target name(s).
+		ArrayList<String> targets = new ArrayList<>();
+		int jobCount = DEFAULT_JOB_COUNT;
+		Shell shell = Shell.getDefault();
+		boolean watch = false;
+		boolean server = false;
+		Path tracePath = null;
+		boolean useOutputCache = true;
+		boolean outputSync = false;
+		boolean inProcessJavac = true;
+		for (int i = 0; i < args.length; i++) {
+			var arg = args[i];
+			if (arg.equals("-j")) {
+				// "-j" on its own means one job per core, like "make -j" means unlimited.
+				if (i + 1 < args.length && isInteger(args[i + 1])) {
+					i += 1;
+					jobCount = parseJobCount(args[i]);
+				} else {
+					jobCount = Runtime.getRuntime().availableProcessors();
+				}
+			} else if (arg.startsWith("-j")) {
+				jobCount = parseJobCount(arg.substring(2));
+			} else if (arg.equals("--shell")) {
+				if (i + 1 >= args.length) {
+					throw new RuntimeException("--shell needs a shell name");
+				}
+				i += 1;
+				shell = Shell.byName(args[i]);
+			} else if (arg.startsWith("--shell=")) {
+				shell = Shell.byName(arg.substring("--shell=".length()));
+			} else if (arg.equals("--watch")) {
+				watch = true;
+			} else if (arg.equals("--server")) {
+				server = true;
+			} else if (arg.equals("--no-cache")) {
+				useOutputCache = false;
+			} else if (arg.equals("--output-sync") || arg.equals("-O")) {
+				// Print each rule's output in one piece once its commands finish, instead
+				// of as it happens, so parallel jobs don't mix their output.
+				outputSync = true;
+			} else if (arg.equals("--fork-javac")) {
+				// Always start a javac process, instead of compiling inside JMaker.
+				inProcessJavac = false;
+			} else if (arg.equals("--trace")) {
+				tracePath = Paths.get(DEFAULT_TRACE_FILE);
+			} else if (arg.startsWith("--trace=")) {
+				tracePath = Paths.get(arg.substring("--trace=".length()));
+			} else {
+				targets.add(arg);
+			}
+		}
+		if (targets.isEmpty()) {
+			targets.add(DEFAULT_TARGET);
+		}
+		CommandRunner.setOutputSync(outputSync);
+		InProcessJavac.setEnabled(inProcessJavac);
+		InProcessJavac.reset();
+		// The script registers its workers again.
+		WorkerPool.clearRegistrations();
+
 		// First, open the default jmaker file.
 		File buildFile = new File(DEFAULT_FILE_NAME);
+		var outputCache = useOutputCache ? OutputCache.openDefault() : null;
+
+		if (server) {
+			// Serve builds for Launcher until killed.
+			new BuildServer(scriptCache, state).run();
+			return 0;
+		}
+		if (watch) {
+			// Build, then keep rebuilding whenever an input changes.
+			new BuildWatcher(buildFile, targets, state, outputCache, shell, jobCount).run();
+			return 0;
+		}
 
+		if (tracePath != null) {
+			Tracer.enable();
+		}
+		try {
+			return build(buildFile, targets, scriptCache, state, outputCache, shell, jobCount);
+		} finally {
+			Tracer.finish(tracePath);
+		}
+	}
+
+	private static int build(File buildFile, ArrayList<String> targets, ScriptCache scriptCache, BuildState state, OutputCache outputCache, Shell shell, int jobCount) {
 		// Parse the file into rules.
-		MakeFile parsedFile = new MakeFile(buildFile);
+		MakeFile parsedFile = new MakeFile(buildFile, scriptCache);
 		Ruleset rules = parsedFile.getRules();
 
-		// Parse commandline args for target name(s).
-		ArrayList<String> targets = new ArrayList<>();
-		if (args.length == 1) {
-			targets.add(DEFAULT_TARGET);
-		} else {
-			targets.add(args[1]);
+		// Recursively build dependency graph.
+		DependGraph graph = new DependGraph(state, shell, outputCache);
+		var graphSpan = Tracer.begin("build graph");
+		try {
+			for (String target : targets) {
+				rules.buildGraph(target, graph);
+			}
+		} finally {
+			graphSpan.close();
 		}
 
-		// Recursively build dependency graph.
-		DependGraph graph = new DependGraph();
-		for (String target : targets) {
-			rules.buildGraph(target, graph);
+		// Execute rules whose commands or file contents changed since they last ran.
+		boolean success;
+		var executeSpan = Tracer.begin("execute", "jobs", Integer.toString(jobCount));
+		try {
+			success = graph.execute(jobCount);
+		} finally {
+			executeSpan.close();
+		}
+		// A cancelled build still saves what it finished. Saving uses interruptible file
+		// channels, so the interrupt is put back afterwards.
+		boolean interrupted = Thread.interrupted();
+		var saveSpan = Tracer.begin("save state");
+		try {
+			state.save();
+		} finally {
+			saveSpan.close();
+		}
+		var trimSpan = Tracer.begin("trim build cache");
+		try {
+			graph.trimOutputCache();
+		} finally {
+			trimSpan.close();
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
 		}
+		if (!success) {
+			// No rule failed if the build was interrupted.
+			if (graph.getFailedRule() != null) {
+				System.err.println("Build failed while making '" + graph.getFailedRule().targets[0] + "'");
+			} else {
+				System.err.println("Build failed");
+			}
+			return 1;
+		}
+		return 0;
+	}
 
-		// Execute rules / check dependency timestamps.
-		graph.execute();
+	private static boolean isInteger(String text) {
+		if (text.isEmpty()) {
+			return false;
+		}
+		for (char c : text.toCharArray()) {
+			if (!Character.isDigit(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int parseJobCount(String text) {
+		if (!isInteger(text) || Integer.parseInt(text) < 1) {
+			throw new RuntimeException("Invalid job count: '" + text + "'");
+		}
+		return Integer.parseInt(text);
 	}
 }
@@ -0,0 +1,119 @@
+package jmaker.main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// The thin client for BuildServer. If a server is running in this directory, the build
+// runs there and its output is copied back; otherwise this is the same as JMaker.main.
+//
+// This class must stay small: it's loaded on every build, and the point is to avoid
+// loading the parser and interpreter.
+public abstract class Launcher {
+	private static final int CONNECT_TIMEOUT_MILLIS = 500;
+
+	public static void main(String[] args) {
+		for (var arg : args) {
+			if (arg.equals("--server") || arg.equals("--watch")) {
+				// Long-running modes don't go through the server.
+				JMaker.main(args);
+				return;
+			}
+		}
+
+		var exitCode = runOnServer(args);
+		if (exitCode == null) {
+			JMaker.main(args);
+		} else if (exitCode != 0) {
+			System.exit(exitCode);
+		}
+	}
+
+	// Returns null if there's no server that can run the build.
+	private static Integer runOnServer(String[] args) {
+		String[] serverInfo;
+		try {
+			serverInfo = Files.readString(BuildServer.SERVER_FILE, StandardCharsets.UTF_8).trim().split(" ");
+		} catch (IOException e) {
+			return null;
+		}
+		if (serverInfo.length != 2) {
+			return null;
+		}
+
+		var socket = new Socket();
+		try {
+			var port = Integer.parseInt(serverInfo[0]);
+			socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+		} catch (IOException | NumberFormatException e) {
+			// Probably a stale file from a server that was killed.
+			closeQuietly(socket);
+			return null;
+		}
+
+		boolean gotOutput = false;
+		try (socket) {
+			var output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			output.writeUTF(serverInfo[1]);
+			output.writeUTF(Paths.get("").toAbsolutePath().toString());
+			output.writeInt(args.length);
+			for (var arg : args) {
+				output.writeUTF(arg);
+			}
+			var environment = System.getenv();
+			output.writeInt(environment.size());
+			for (var entry : environment.entrySet()) {
+				output.writeUTF(entry.getKey());
+				output.writeUTF(entry.getValue());
+			}
+			output.flush();
+
+			var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			var buffer = new byte[8192];
+			while (true) {
+				var channel = input.readByte();
+				if (channel == BuildServer.CHANNEL_EXIT) {
+					return input.readInt();
+				} else if (channel == BuildServer.CHANNEL_REFUSED) {
+					return null;
+				}
+
+				gotOutput = true;
+				var stream = channel == BuildServer.CHANNEL_STDERR ? System.err : System.out;
+				int remaining = input.readInt();
+				while (remaining > 0) {
+					int count = input.read(buffer, 0, Math.min(buffer.length, remaining));
+					if (count < 0) {
+						throw new IOException("Connection closed");
+					}
+					stream.write(buffer, 0, count);
+					remaining -= count;
+				}
+				stream.flush();
+			}
+		} catch (IOException e) {
+			if (!gotOutput) {
+				return null;
+			}
+			// The build already started, so running it again here could do things twice.
+			System.err.println("Lost connection to the build server: " + e.getMessage());
+			return 1;
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing to do.
+		}
+	}
+}
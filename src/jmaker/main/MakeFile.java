@@ -1,28 +1,75 @@
 package jmaker.main;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import codegen.JMakerLexer;
 import codegen.JMakerParser;
+import jmaker.interpreter.Interpreter;
+import jmaker.parser.Block;
 import jmaker.parser.VisitorManager;
+import jmaker.runtime.Tracer;
 
 public class MakeFile {
+	static final Path CACHE_DIR = Paths.get(".jmaker", "ast");
+
 	private Ruleset rules;
 
 	public MakeFile(File buildFile) {
-		String allLines = "TEST = 2;\n\n\"foo.class\": \"foo.java\" {\n\t> \"javac \" + deps[0] + \" -o \" + targets[0];\n}";
-		var chars = CharStreams.fromString(allLines);
-		var lexer = new JMakerLexer(chars);
-		var tokens = new CommonTokenStream(lexer);
-		var parser = new JMakerParser(tokens);
+		this(buildFile, new ScriptCache(CACHE_DIR));
+	}
+
+	public MakeFile(File buildFile, ScriptCache cache) {
+		String allLines;
+		var readSpan = Tracer.begin("read script");
+		try {
+			allLines = Files.readString(buildFile.toPath());
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read " + buildFile, e);
+		} finally {
+			readSpan.close();
+		}
 
-		// Get our top-level rule.
-		var rootBlock = new VisitorManager().visitAll(parser);
+		// Get our top-level rule, skipping the parser if the script hasn't changed.
+		Block rootBlock;
+		var loadSpan = Tracer.begin("load cached syntax tree");
+		try {
+			rootBlock = cache.get(buildFile.getName(), allLines);
+		} finally {
+			loadSpan.close();
+		}
+		if (rootBlock == null) {
+			var parseSpan = Tracer.begin("parse");
+			try {
+				var chars = CharStreams.fromString(allLines);
+				var lexer = new JMakerLexer(chars);
+				var tokens = new CommonTokenStream(lexer);
+				var parser = new JMakerParser(tokens);
+				rootBlock = new VisitorManager().visitAll(parser);
+				cache.put(buildFile.getName(), allLines, rootBlock);
+			} finally {
+				parseSpan.close();
+			}
+		}
 
 		// Interpret the file.
-		//var interpreter = new Interpreter(file);
-		//interpreter.run();
+		var interpreter = new Interpreter(rootBlock);
+		var interpretSpan = Tracer.begin("interpret");
+		try {
+			interpreter.run();
+		} finally {
+			interpretSpan.close();
+		}
+		var indexSpan = Tracer.begin("index rules");
+		try {
+			rules = new Ruleset(interpreter.getRules());
+		} finally {
+			indexSpan.close();
+		}
 	}
 
 	public Ruleset getRules() {
@@ -0,0 +1,184 @@
+package jmaker.main;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import jmaker.runtime.Shell;
+
+// Keeps copies of rules' targets, keyed by everything that went into making them: the
+// commands, the dependencies' contents and the environment (see BuildState.digestAction).
+// When a rule would run with a key that's been seen before, for example after switching
+// back to an old branch, its targets are copied out of the cache instead.
+//
+// Each entry is a directory named after its key, holding one file per target. Entries are
+// written to a temporary directory and moved into place, so readers never see a partial
+// entry. Using an entry updates its modified time, and trim() deletes the least recently
+// used entries until the cache fits in its size limit.
+//
+// Targets are copied rather than hard-linked, because a command that changes its output
+// in place would otherwise change the cached copy too.
+public class OutputCache {
+	private static final long DEFAULT_MAX_BYTES = 5L * 1024 * 1024 * 1024;
+
+	private final Path entriesDir;
+	private final Path tempDir;
+	private final long maxBytes;
+
+	public OutputCache(Path root, long maxBytes) {
+		entriesDir = root.resolve("entries");
+		tempDir = root.resolve("tmp");
+		this.maxBytes = maxBytes;
+	}
+
+	// ~/.cache/jmaker, or $XDG_CACHE_HOME/jmaker if that's set.
+	public static OutputCache openDefault() {
+		var cacheHome = System.getenv("XDG_CACHE_HOME");
+		Path root;
+		if (cacheHome != null && !cacheHome.isEmpty()) {
+			root = Paths.get(cacheHome, "jmaker");
+		} else {
+			root = Paths.get(System.getProperty("user.home"), ".cache", "jmaker");
+		}
+		return new OutputCache(root, DEFAULT_MAX_BYTES);
+	}
+
+	// The parts of the environment that can change what a command does, besides its
+	// inputs. Other environment variables vary too much between shells to include. The
+	// JDK matters because javac commands can be run with JMaker's own compiler.
+	public static String describeEnvironment(Shell shell) {
+		var path = System.getenv("PATH");
+		return "shell=" + shell.getPath() + "\0os=" + System.getProperty("os.name") + "\0path=" + (path == null ? "" : path)
+			+ "\0java.home=" + System.getProperty("java.home");
+	}
+
+	// Replaces the targets with the cached copies. Returns false if there's no entry for
+	// the key, or it couldn't be copied.
+	public boolean restore(String key, String[] targets) {
+		var entryDir = getEntryDir(key);
+		if (!Files.isDirectory(entryDir)) {
+			return false;
+		}
+		try {
+			for (int i = 0; i < targets.length; i++) {
+				var target = Paths.get(targets[i]);
+				var parent = target.toAbsolutePath().getParent();
+				if (parent != null) {
+					Files.createDirectories(parent);
+				}
+				Files.copy(entryDir.resolve(Integer.toString(i)), target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Possibly evicted by another build halfway through; just run the commands.
+			return false;
+		}
+		return true;
+	}
+
+	// Only rules whose targets are all regular files are stored.
+	public void store(String key, String[] targets) {
+		var entryDir = getEntryDir(key);
+		if (Files.isDirectory(entryDir)) {
+			return;
+		}
+		for (var target : targets) {
+			if (!Files.isRegularFile(Paths.get(target))) {
+				return;
+			}
+		}
+
+		Path newEntry = null;
+		try {
+			Files.createDirectories(tempDir);
+			newEntry = Files.createTempDirectory(tempDir, key);
+			for (int i = 0; i < targets.length; i++) {
+				Files.copy(Paths.get(targets[i]), newEntry.resolve(Integer.toString(i)));
+			}
+			Files.createDirectories(entryDir.getParent());
+			Files.move(newEntry, entryDir, StandardCopyOption.ATOMIC_MOVE);
+			newEntry = null;
+		} catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+			// Another build stored the same thing first.
+		} catch (IOException e) {
+			System.err.println("Could not store " + targets[0] + " in the build cache: " + e.getMessage());
+		} finally {
+			if (newEntry != null) {
+				deleteEntry(newEntry);
+			}
+		}
+	}
+
+	// Deletes the least recently used entries until the cache is within its size limit.
+	public void trim() {
+		var entries = new ArrayList<EntryInfo>();
+		long totalBytes = 0;
+		try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(entriesDir)) {
+			for (var prefix : prefixes) {
+				try (DirectoryStream<Path> entryDirs = Files.newDirectoryStream(prefix)) {
+					for (var entryDir : entryDirs) {
+						var info = new EntryInfo(entryDir);
+						entries.add(info);
+						totalBytes += info.bytes;
+					}
+				}
+			}
+		} catch (IOException e) {
+			// Nothing stored yet, or unreadable; either way there's nothing to trim.
+			return;
+		}
+		if (totalBytes <= maxBytes) {
+			return;
+		}
+
+		entries.sort(Comparator.comparingLong(info->info.lastUsed));
+		for (var info : entries) {
+			if (totalBytes <= maxBytes) {
+				break;
+			}
+			deleteEntry(info.path);
+			totalBytes -= info.bytes;
+		}
+	}
+
+	private Path getEntryDir(String key) {
+		return entriesDir.resolve(key.substring(0, 2)).resolve(key);
+	}
+
+	private static void deleteEntry(Path entryDir) {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(entryDir)) {
+			for (var file : files) {
+				Files.deleteIfExists(file);
+			}
+			Files.deleteIfExists(entryDir);
+		} catch (IOException e) {
+			// Left for the next trim.
+		}
+	}
+
+	private static class EntryInfo {
+		public final Path path;
+		public final long lastUsed;
+		public final long bytes;
+
+		public EntryInfo(Path path) throws IOException {
+			this.path = path;
+			lastUsed = Files.getLastModifiedTime(path).toMillis();
+			long total = 0;
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(path)) {
+				for (var file : files) {
+					total += Files.readAttributes(file, BasicFileAttributes.class).size();
+				}
+			}
+			bytes = total;
+		}
+	}
+}
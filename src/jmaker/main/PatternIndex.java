@@ -0,0 +1,110 @@
+package jmaker.main;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+// Finds which pattern matches a string, where a pattern is "prefix*suffix" and the '*'
+// matches a non-empty stem. When several patterns match, the one with the shortest stem
+// wins, then the one that was added first.
+//
+// Patterns are stored in a trie keyed on their suffix, read backwards. Each trie node
+// holds the patterns with that exact suffix, in a map from prefix to pattern. Looking
+// up a string walks the trie along the string's last characters, and at each node only
+// tries the prefix lengths that node actually has. So the cost depends on the length of
+// the string and the number of distinct prefix lengths, not on the number of patterns.
+class PatternIndex<V> {
+	private final Node<V> root;
+	private int count;
+
+	PatternIndex() {
+		root = new Node<>();
+		count = 0;
+	}
+
+	// Returns false if the pattern is already in the index.
+	boolean add(String pattern, V value) {
+		int star = pattern.indexOf('*');
+		assert (star != -1 && pattern.indexOf('*', star + 1) == -1);
+		var prefix = pattern.substring(0, star);
+
+		var node = root;
+		for (int i = pattern.length() - 1; i > star; i--) {
+			node = node.children.computeIfAbsent(pattern.charAt(i), c->new Node<>());
+		}
+		if (node.patterns.containsKey(prefix)) {
+			return false;
+		}
+		node.patterns.put(prefix, new Entry<>(value, count));
+		count++;
+		if (!node.prefixLengths.contains(prefix.length())) {
+			node.prefixLengths.add(prefix.length());
+		}
+		return true;
+	}
+
+	// Every pattern that matches, best first.
+	List<Match<V>> findAll(String text) {
+		var matches = new ArrayList<Match<V>>();
+		var node = root;
+		int suffixLength = 0;
+		while (node != null) {
+			int stemEnd = text.length() - suffixLength;
+			for (int prefixLength : node.prefixLengths) {
+				if (prefixLength >= stemEnd) {
+					continue;
+				}
+				var entry = node.patterns.get(text.substring(0, prefixLength));
+				if (entry == null) {
+					continue;
+				}
+				matches.add(new Match<>(entry.value, text.substring(prefixLength, stemEnd), entry.order));
+			}
+
+			// The stem can't be empty, so stop before the suffix covers the whole string.
+			if (suffixLength + 1 >= text.length()) {
+				break;
+			}
+			node = node.children.get(text.charAt(text.length() - 1 - suffixLength));
+			suffixLength++;
+		}
+
+		matches.sort(Comparator.<Match<V>>comparingInt(match->match.stem.length()).thenComparingInt(match->match.order));
+		return matches;
+	}
+
+	static class Match<V> {
+		final V value;
+		final String stem;
+		private final int order;
+
+		Match(V value, String stem, int order) {
+			this.value = value;
+			this.stem = stem;
+			this.order = order;
+		}
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final int order;
+
+		Entry(V value, int order) {
+			this.value = value;
+			this.order = order;
+		}
+	}
+
+	private static class Node<V> {
+		final HashMap<Character, Node<V>> children;
+		final HashMap<String, Entry<V>> patterns;
+		final ArrayList<Integer> prefixLengths;
+
+		Node() {
+			children = new HashMap<>();
+			patterns = new HashMap<>();
+			prefixLengths = new ArrayList<>();
+		}
+	}
+}
@@ -1,13 +1,135 @@
 package jmaker.main;
 
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import jmaker.interpreter.RuleValue;
+import jmaker.runtime.FileStatCache;
+
+// Exact targets are looked up first. Otherwise, the pattern rule with the most specific
+// match is used (see PatternIndex), as long as all of its dependencies exist or can be
+// made. Like make, if no matching pattern rule can be used, a file that already exists
+// is just used as it is.
 public class Ruleset {
+	private final HashMap<String, RuleValue> rulesByTarget;
+	private final PatternIndex<RuleValue> patternRules;
+	// Each pattern rule is only instantiated once per stem, so that every target that
+	// needs it shares the same node in the graph.
+	private final HashMap<RuleValue, HashMap<String, RuleValue>> instantiations;
+	// Targets whose pattern rules are being checked, so that patterns like "*: *.in"
+	// don't recurse forever.
+	private final HashSet<String> checking;
+
+	public Ruleset(Collection<RuleValue> rules) {
+		rulesByTarget = new HashMap<>();
+		patternRules = new PatternIndex<>();
+		instantiations = new HashMap<>();
+		checking = new HashSet<>();
+		for (var rule : rules) {
+			for (var target : rule.targets) {
+				if (rule.isPattern()) {
+					if (!patternRules.add(target, rule)) {
+						throw new RuntimeException("Multiple rules for pattern '" + target + "'");
+					}
+				} else {
+					if (rulesByTarget.containsKey(target)) {
+						throw new RuntimeException("Multiple rules for target '" + target + "'");
+					}
+					rulesByTarget.put(target, rule);
+				}
+			}
+		}
+	}
+
+	// Returns null if no rule makes the target.
+	public RuleValue findRule(String target) {
+		var rule = rulesByTarget.get(target);
+		if (rule != null) {
+			return rule;
+		}
+		var matches = patternRules.findAll(target);
+		if (matches.isEmpty()) {
+			return null;
+		}
 
-	public Ruleset() {
-		throw new UnsupportedOperationException("Constructor for Ruleset not yet implemented.");
+		checking.add(target);
+		try {
+			for (var match : matches) {
+				var instance = instantiate(match);
+				if (canMakeDependencies(instance)) {
+					return instance;
+				}
+			}
+		} finally {
+			checking.remove(target);
+		}
+		if (FileStatCache.current().exists(Paths.get(target))) {
+			return null;
+		}
+		// Nothing can make it. The best match's missing dependency makes the most useful
+		// error message.
+		return instantiate(matches.get(0));
+	}
+
+	private RuleValue instantiate(PatternIndex.Match<RuleValue> match) {
+		var byStem = instantiations.computeIfAbsent(match.value, r->new HashMap<>());
+		var instance = byStem.get(match.stem);
+		if (instance == null) {
+			instance = match.value.instantiate(match.stem);
+			byStem.put(match.stem, instance);
+		}
+		return instance;
+	}
+
+	private boolean canMakeDependencies(RuleValue rule) {
+		for (var dependency : rule.dependencies) {
+			if (FileStatCache.current().exists(Paths.get(dependency)) || rulesByTarget.containsKey(dependency)) {
+				continue;
+			}
+			if (checking.contains(dependency) || findRule(dependency) == null) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	public void buildGraph(String target, DependGraph graph) {
-		// TODO Auto-generated method stub
-		throw new UnsupportedOperationException("buildGraph of Ruleset not yet implemented.");
+		buildGraph(target, graph, new HashSet<>());
+	}
+
+	// Returns the rule that makes the target, or null if the target is a plain file
+	// that no rule makes.
+	private RuleValue buildGraph(String target, DependGraph graph, HashSet<RuleValue> inProgress) {
+		var rule = findRule(target);
+		if (rule == null) {
+			if (FileStatCache.current().exists(Paths.get(target))) {
+				return null;
+			}
+			throw new RuntimeException("No rule to make target '" + target + "'");
+		}
+
+		// Check for cycles before checking the graph, because rules that are still
+		// being visited are already in the graph.
+		if (inProgress.contains(rule)) {
+			throw new RuntimeException("Circular dependency on target '" + target + "'");
+		}
+		if (graph.contains(rule)) {
+			return rule;
+		}
+
+		inProgress.add(rule);
+		graph.addRule(rule);
+		for (var dependency : rule.dependencies) {
+			var dependencyRule = buildGraph(dependency, graph, inProgress);
+			if (dependencyRule != null) {
+				graph.addDependency(rule, dependencyRule);
+			} else {
+				graph.addInput(rule, dependency);
+			}
+		}
+		inProgress.remove(rule);
+
+		return rule;
 	}
 }
@@ -0,0 +1,180 @@
+package jmaker.main;
+
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import jmaker.interpreter.BooleanValue;
+import jmaker.interpreter.DoubleValue;
+import jmaker.interpreter.IntegerValue;
+import jmaker.interpreter.PathValue;
+import jmaker.interpreter.StringValue;
+import jmaker.parser.BinaryOperator;
+import jmaker.parser.Block;
+import jmaker.parser.Expression;
+import jmaker.parser.ExpressionStatementKind;
+import jmaker.parser.Statement;
+import jmaker.parser.UnaryOperator;
+
+// Keeps the parsed tree of each build script on disk, so that scripts that haven't changed
+// skip lexing and parsing entirely.
+//
+// There is one cache file per script name. It starts with a key made from the script's
+// contents and the class files of every class a tree can contain, followed by the
+// serialized Block. A key mismatch means the script (or the tree classes) changed, and the
+// entry is overwritten after the next parse. The classes pin their serialVersionUIDs, so
+// without the class files in the key, a tree saved before a field was added would load
+// with that field left at its default value.
+//
+// Entries are also kept in memory, so a cache that lives across builds (in the build
+// server) doesn't even read the file.
+public class ScriptCache {
+	// The classes in a syntax tree, along with their nested classes.
+	private static final Set<Class<?>> TREE_CLASSES = findNestedClasses(new Class<?>[]{
+		Block.class, Expression.class, Statement.class, BinaryOperator.class, UnaryOperator.class,
+		ExpressionStatementKind.class, BooleanValue.class, IntegerValue.class, DoubleValue.class,
+		PathValue.class, StringValue.class
+	});
+	// Null if the class files couldn't be read, in which case nothing is cached.
+	private static final String TREE_CLASSES_DIGEST = digestClassFiles(TREE_CLASSES);
+
+	private final Path cacheDir;
+	private final HashMap<String, Entry> loaded;
+
+	public ScriptCache(Path cacheDir) {
+		this.cacheDir = cacheDir;
+		loaded = new HashMap<>();
+	}
+
+	// Returns null if there is no valid entry for this exact source.
+	public Block get(String scriptName, String source) {
+		if (TREE_CLASSES_DIGEST == null) {
+			return null;
+		}
+		var key = makeKey(source);
+		var entry = loaded.get(scriptName);
+		if (entry != null && entry.key.equals(key)) {
+			return entry.block;
+		}
+		var block = load(scriptName, key);
+		if (block != null) {
+			loaded.put(scriptName, new Entry(key, block));
+		}
+		return block;
+	}
+
+	private Block load(String scriptName, String key) {
+		var path = getEntryPath(scriptName);
+		if (!Files.exists(path)) {
+			return null;
+		}
+
+		try (var stream = new ObjectInputStream(Files.newInputStream(path))) {
+			stream.setObjectInputFilter(ScriptCache::filterClasses);
+			if (!key.equals(stream.readObject())) {
+				return null;
+			}
+			return (Block) stream.readObject();
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			// Corrupt or from an incompatible build; just parse the script again.
+			return null;
+		}
+	}
+
+	public void put(String scriptName, String source, Block block) {
+		if (TREE_CLASSES_DIGEST == null) {
+			return;
+		}
+		loaded.put(scriptName, new Entry(makeKey(source), block));
+		try {
+			Files.createDirectories(cacheDir);
+			var tempPath = Files.createTempFile(cacheDir, scriptName, ".tmp");
+			try (var stream = new ObjectOutputStream(Files.newOutputStream(tempPath))) {
+				stream.writeObject(makeKey(source));
+				stream.writeObject(block);
+			}
+			Files.move(tempPath, getEntryPath(scriptName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// The cache is only an optimization.
+			System.err.println("Could not write script cache for " + scriptName + ": " + e.getMessage());
+		}
+	}
+
+	private Path getEntryPath(String scriptName) {
+		return cacheDir.resolve(scriptName + ".ast");
+	}
+
+	private static String makeKey(String source) {
+		return Digests.digestString(TREE_CLASSES_DIGEST + '\0' + source);
+	}
+
+	private static Set<Class<?>> findNestedClasses(Class<?>[] outerClasses) {
+		var found = new HashSet<Class<?>>();
+		var toVisit = new ArrayList<Class<?>>(Set.of(outerClasses));
+		while (!toVisit.isEmpty()) {
+			var next = toVisit.remove(toVisit.size() - 1);
+			if (found.add(next)) {
+				toVisit.addAll(Set.of(next.getDeclaredClasses()));
+			}
+		}
+		return Set.copyOf(found);
+	}
+
+	private static String digestClassFiles(Set<Class<?>> classes) {
+		var sorted = new ArrayList<Class<?>>(classes);
+		sorted.sort(Comparator.comparing(Class::getName));
+		var digest = Digests.newDigest();
+		for (var treeClass : sorted) {
+			var resourceName = "/" + treeClass.getName().replace('.', '/') + ".class";
+			try (var stream = treeClass.getResourceAsStream(resourceName)) {
+				if (stream == null) {
+					return null;
+				}
+				digest.update(treeClass.getName().getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+				digest.update(stream.readAllBytes());
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		return Digests.toHex(digest.digest());
+	}
+
+	private static class Entry {
+		public final String key;
+		public final Block block;
+
+		public Entry(String key, Block block) {
+			this.key = key;
+			this.block = block;
+		}
+	}
+
+	// Only syntax tree classes (and the strings inside them) are allowed in a cache file.
+	// Interfaces are allowed too, for arrays like Expression[].
+	private static ObjectInputFilter.Status filterClasses(ObjectInputFilter.FilterInfo info) {
+		var serialClass = info.serialClass();
+		if (serialClass == null) {
+			return ObjectInputFilter.Status.UNDECIDED;
+		}
+		while (serialClass.isArray()) {
+			serialClass = serialClass.getComponentType();
+		}
+		if (serialClass.isPrimitive() || serialClass == String.class || serialClass == Enum.class) {
+			return ObjectInputFilter.Status.ALLOWED;
+		}
+		if (TREE_CLASSES.contains(serialClass)) {
+			return ObjectInputFilter.Status.ALLOWED;
+		}
+		return ObjectInputFilter.Status.REJECTED;
+	}
+}
@@ -1,6 +1,7 @@
 package jmaker.main;
 
 public class UnreachableCodeBlockException extends AssertionError {
+	private static final long serialVersionUID = 1L;
 
 	public UnreachableCodeBlockException() {
 		super("This exception should be unreachable. :'(");
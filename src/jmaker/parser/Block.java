@@ -1,17 +1,28 @@
 package jmaker.parser;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 
-public class Block {
+public class Block implements Serializable {
+	private static final long serialVersionUID = 1L;
+
 	public final Statement[] statements;
+	// The number of local variables declared directly in this block. Only set once the
+	// block has been resolved.
+	public final int frameSize;
 
 	public Block(ArrayList<Statement> statementList) {
 		this(statementList.toArray(size->new Statement[size]));
 	}
 
 	public Block(Statement[] statements) {
+		this(statements, 0);
+	}
+
+	public Block(Statement[] statements, int frameSize) {
 		this.statements = statements;
+		this.frameSize = frameSize;
 	}
 
 	@Override
@@ -19,6 +30,7 @@ public class Block {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + Arrays.hashCode(statements);
+		result = prime * result + frameSize;
 		return result;
 	}
 
@@ -31,7 +43,7 @@ public class Block {
 			return false;
 		}
 		Block other = (Block) obj;
-		return Arrays.equals(statements, other.statements);
+		return Arrays.equals(statements, other.statements) && frameSize == other.frameSize;
 	}
 
 }
@@ -1,11 +1,14 @@
 package jmaker.parser;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Objects;
 import jmaker.parser.Statement.FunctionDefinition;
 
-public interface Expression {
+public interface Expression extends Serializable {
 	public static class Array implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression[] elements;
 
 		public Array(Expression[] elements) {
@@ -34,6 +37,8 @@ public interface Expression {
 	}
 
 	public static class Dictionary implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression[] keys;
 		public final Expression[] values;
 
@@ -65,6 +70,8 @@ public interface Expression {
 	}
 
 	public static class Binary implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression left;
 		public final BinaryOperator operator;
 		public final Expression right;
@@ -94,6 +101,8 @@ public interface Expression {
 	}
 
 	public static class Unary implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression inner;
 		public final UnaryOperator operator;
 
@@ -121,6 +130,8 @@ public interface Expression {
 	}
 
 	public static class Index implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression variable;
 		public final Expression indexExpression;
 
@@ -148,6 +159,8 @@ public interface Expression {
 	}
 
 	public static class FunctionCall implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression functionName;
 		public final Expression[] args;
 
@@ -179,6 +192,8 @@ public interface Expression {
 	}
 
 	public static class Symbol implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final String name;
 
 		public Symbol(String name) {
@@ -203,7 +218,42 @@ public interface Expression {
 		}
 	}
 
+	// A variable declared inside a block, found by the resolver. Depth counts scopes
+	// outward from the one the symbol is used in, and slot is its index in that
+	// scope's frame.
+	public static class LocalSymbol extends Symbol {
+		private static final long serialVersionUID = 1L;
+
+		public final int depth;
+		public final int slot;
+
+		public LocalSymbol(String name, int depth, int slot) {
+			super(name);
+			this.depth = depth;
+			this.slot = slot;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(name, depth, slot);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof LocalSymbol)) {
+				return false;
+			}
+			LocalSymbol other = (LocalSymbol) obj;
+			return Objects.equals(name, other.name) && depth == other.depth && slot == other.slot;
+		}
+	}
+
 	public static class Lambda implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final FunctionDefinition inner;
 
 		public Lambda(FunctionDefinition inner) {
@@ -229,6 +279,8 @@ public interface Expression {
 	}
 
 	public static class IndexRange implements Expression {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression inner;
 		// Start and End can be null.
 		public final Expression start;
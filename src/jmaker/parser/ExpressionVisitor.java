@@ -234,10 +234,10 @@ public class ExpressionVisitor {
 			return visitDictLiteral(context.dictLiteral());
 		}
 		if (context.TRUE() != null) {
-			return new BooleanValue(true);
+			return BooleanValue.TRUE;
 		}
 		if (context.FALSE() != null) {
-			return new BooleanValue(false);
+			return BooleanValue.FALSE;
 		}
 		if (context.STRING() != null) {
 			var unparsedString = context.STRING().getText();
@@ -245,7 +245,7 @@ public class ExpressionVisitor {
 		}
 		if (context.INTEGER() != null) {
 			var separatorsRemoved = context.INTEGER().getText().replaceAll("_", "");
-			return new IntegerValue(Integer.parseInt(separatorsRemoved));
+			return IntegerValue.of(Integer.parseInt(separatorsRemoved));
 		}
 		var separatorsRemoved = context.FLOAT().getText().replaceAll("_", "");
 		return new DoubleValue(Double.parseDouble(separatorsRemoved));
@@ -1,12 +1,15 @@
 package jmaker.parser;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.Objects;
 import jmaker.parser.Expression.Symbol;
 
-public interface Statement {
+public interface Statement extends Serializable {
 
 	public static class ExpressionStatement implements Statement {
+		private static final long serialVersionUID = 1L;
+
 		// Can be null if kind == RETURN.
 		public final Expression expression;
 		public final ExpressionStatementKind kind;
@@ -35,6 +38,8 @@ public interface Statement {
 	}
 
 	public static class Assignment implements Statement {
+		private static final long serialVersionUID = 1L;
+
 		// The left side isn't an arbitrary expression - it's a name followed by
 		// any number of index expressions.
 		public final Symbol leftSide;
@@ -64,6 +69,8 @@ public interface Statement {
 	}
 
 	public static class WhileLoop implements Statement {
+		private static final long serialVersionUID = 1L;
+
 		public final Block block;
 		public final Expression condition;
 
@@ -98,6 +105,8 @@ public interface Statement {
 	}
 
 	public static class If implements Statement {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression[] conditionals;
 		public final Block[] blocks;
 		public final Block elseBlock;
@@ -136,6 +145,8 @@ public interface Statement {
 	}
 
 	public static class BlockStatement implements Statement {
+		private static final long serialVersionUID = 1L;
+
 		public final Block block;
 
 		public BlockStatement(Block block) {
@@ -161,6 +172,8 @@ public interface Statement {
 	}
 
 	public static class Rule implements Statement {
+		private static final long serialVersionUID = 1L;
+
 		public final Expression[] targets;
 		public final Expression[] dependencies;
 		public final Block block;
@@ -196,6 +209,8 @@ public interface Statement {
 	}
 
 	public static class FunctionDefinition implements Statement {
+		private static final long serialVersionUID = 1L;
+
 		public final Symbol[] argNames;
 		public final int pipeArg;
 		public final Symbol functionName;
@@ -235,6 +250,8 @@ public interface Statement {
 	}
 
 	public static class Empty implements Statement {
+		private static final long serialVersionUID = 1L;
+
 		@Override
 		public int hashCode() {
 			return 0;
@@ -196,7 +196,7 @@ public class StatementVisitor {
 						//
 						BinaryOperator.ADD,
 						//
-						new IntegerValue(1)));
+						IntegerValue.of(1)));
 		var innerBlock = new Block(innerBlockStatements);
 
 		var lengthFunctionCall = new Expression.FunctionCall(new Expression.Symbol("length"), new Expression[]{
@@ -204,7 +204,7 @@ public class StatementVisitor {
 		});
 		var condition = new Expression.Binary(incrementVar, BinaryOperator.LESS, cachedArrayLength);
 		var outerBlock = new Block(new Statement[]{
-			new Statement.Assignment(incrementVar, new IntegerValue(0)),
+			new Statement.Assignment(incrementVar, IntegerValue.of(0)),
 			new Statement.Assignment(cachedArray, arrayExpression),
 			new Statement.Assignment(cachedArrayLength, lengthFunctionCall),
 			new Statement.WhileLoop(condition, innerBlock)
@@ -226,7 +226,7 @@ public class StatementVisitor {
 		// Conditional statement
 		Expression condition;
 		if (context.condition == null) {
-			condition = new BooleanValue(true);
+			condition = BooleanValue.TRUE;
 		} else {
 			condition = parent.expressionVisitor.visitExpression(context.expression());
 		}
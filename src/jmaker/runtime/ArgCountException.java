@@ -1,6 +1,7 @@
 package jmaker.runtime;
 
 public class ArgCountException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
 
 	public ArgCountException(int expectedArgCount, int actualArgCount) {
 		super(formatError(new int[]{
@@ -3,6 +3,7 @@ package jmaker.runtime;
 import jmaker.interpreter.ExpressionValue;
 
 public class ArgTypeException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
 
 	public ArgTypeException(ExpressionValue[] args) {
 		super(formatError(args));
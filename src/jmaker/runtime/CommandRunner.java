@@ -2,98 +2,340 @@ package jmaker.runtime;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
+// Runs one rule's commands. Nothing waits for the commands while they run: each step is
+// started from the previous one's Process.onExit() callback, and runAsync() returns a
+// future that completes when the last command exits. That way a build with many jobs
+// doesn't need a thread per running process, and whoever is waiting hears about the
+// result as soon as the process exits.
 public class CommandRunner {
-	// This is the data for the CMD shell.
-	private static final String badChars = "\n|&<>";
-	private static final String badSingleQuoteChars = "";
-	private static final String badDoubleQuoteChars = "\n*?";
-	private static final String[] badFirstWords = new String[]{
-		"assoc", "break", "call", "cd", "chcp", "chdir", "cls", "color", "copy",
-		"ctty", "date", "del", "dir", "echo", "echo.", "endlocal", "erase",
-		"exit", "for", "ftype", "goto", "if", "if", "md", "mkdir", "move",
-		"path", "pause", "prompt", "rd", "rem", "ren", "rename", "rmdir",
-		"set", "setlocal", "shift", "time", "title", "type", "ver", "verify",
-		"vol"
-	};
-	private static final String commentStart = ":";
-	private static final String shellPath = "C:\\Windows\\System32\\cmd.exe";
+	// Where commands' output goes. If these are null, commands share JMaker's own stdout
+	// and stderr, which is the fastest option. Otherwise the output is copied over by
+	// extra threads.
+	private static volatile OutputStream outputOverride = null;
+	private static volatile OutputStream errorOverride = null;
+	// If true, each runner's output is held back until its commands finish, then printed
+	// all at once (see JobOutput).
+	private static volatile boolean outputSync = false;
 
+	private final Shell shell;
 	private final String[] originalCommands;
-	private Process process;
-	private Date startTime;
+	// Null unless output is synchronized.
+	private final JobOutput capture;
+	// Where the child processes' output is copied to, or null to inherit it.
+	private final OutputStream output;
+	private final OutputStream error;
+	// The process that's running now, if any.
+	private volatile Process process;
+	private volatile boolean cancelled;
+	private Path tempFilePath;
 
-	public CommandRunner(String[] commands) {
+	public CommandRunner(String[] commands, Shell shell) {
 		assert (commands.length != 0);
+		this.shell = shell;
 		originalCommands = commands;
+		capture = outputSync ? new JobOutput() : null;
+		if (capture != null) {
+			output = capture.output;
+			error = capture.error;
+		} else {
+			output = outputOverride;
+			error = errorOverride;
+		}
 		process = null;
-		startTime = null;
+		cancelled = false;
+		tempFilePath = null;
+	}
+
+	// Affects runners created after this call. Pass nulls to go back to sharing JMaker's
+	// stdout and stderr.
+	public static void redirectOutput(OutputStream newOutput, OutputStream newError) {
+		assert ((newOutput == null) == (newError == null));
+		outputOverride = newOutput;
+		errorOverride = newError;
+	}
+
+	// Affects runners created after this call. Commands started with synchronized output
+	// can't tell they're writing to a terminal, so some tools turn off colors.
+	public static void setOutputSync(boolean enabled) {
+		outputSync = enabled;
+	}
+
+	// Like runAsync(), but blocks until the commands finish. If the thread is interrupted,
+	// the commands are killed.
+	public boolean run() {
+		var result = runAsync();
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			cancel();
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	// Prints the commands and starts them. The future completes with true if they all
+	// succeeded, usually on a thread that was waiting for a process to exit, so anything
+	// chained onto it should be quick or moved to another executor.
+	//
+	// Commands that don't use any shell features are run directly, without starting a
+	// shell or writing a script file. Like make, this stops at the first failing command.
+	public CompletableFuture<Boolean> runAsync() {
+		var span = Tracer.beginAsync("commands", "count", Integer.toString(originalCommands.length));
+		CompletableFuture<Boolean> result;
+		try {
+			printCommands();
+			var fastCommands = tryParseCommands();
+			if (fastCommands == null) {
+				result = runInShell(originalCommands);
+			} else {
+				result = runDirectly(fastCommands, 0);
+			}
+		} catch (RuntimeException e) {
+			result = CompletableFuture.failedFuture(e);
+		}
+		return result.whenComplete((success, e)->{
+			if (capture != null) {
+				capture.writeTo(getDestination(outputOverride, System.out), getDestination(errorOverride, System.err));
+			}
+			span.close();
+		});
+	}
+
+	// Kills the running command, and doesn't start any more. The future returned by
+	// runAsync() completes with false.
+	public void cancel() {
+		cancelled = true;
+		var running = process;
+		if (running != null) {
+			destroyTree(running);
+		}
+	}
+
+	// A shell's children would otherwise keep running, and keep its output pipes open.
+	private static void destroyTree(Process running) {
+		running.descendants().forEach(ProcessHandle::destroy);
+		running.destroy();
+	}
+
+	private void printCommands() {
+		if (output == null) {
+			for (var command : originalCommands) {
+				System.out.println(command);
+			}
+			return;
+		}
+		var printer = new PrintStream(output, false);
+		for (var command : originalCommands) {
+			printer.println(command);
+		}
+		printer.flush();
 	}
 
-	public void start() {
-		Path tempFilePath;
+	private static OutputStream getDestination(OutputStream override, PrintStream standard) {
+		return override != null ? override : standard;
+	}
+
+	// Starts fastCommands[index], and the ones after it as each one succeeds.
+	private CompletableFuture<Boolean> runDirectly(FastCommand[] fastCommands, int index) {
+		if (index == fastCommands.length) {
+			return CompletableFuture.completedFuture(true);
+		}
+		if (cancelled) {
+			return CompletableFuture.completedFuture(false);
+		}
+
+		var javac = InProcessJavac.tryParse(fastCommands[index].args);
+		if (javac != null) {
+			return thenRunDirectly(javac.runAsync(getDestination(error, System.err)), fastCommands, index + 1);
+		}
+		var workerRequest = WorkerPool.tryParse(fastCommands[index].args);
+		if (workerRequest != null) {
+			var requestResult = workerRequest.runAsync(getDestination(output, System.out), getDestination(error, System.err));
+			return thenRunDirectly(requestResult, fastCommands, index + 1);
+		}
+
+		var builder = new ProcessBuilder(fastCommands[index].args);
+		configureOutput(builder);
+		Process started;
 		try {
-			tempFilePath = Files.createTempFile(null, ".bat");
+			started = builder.start();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			throw new RuntimeException("IOException handler not yet written in run of CommandRunner.", e);
+			// Probably not a real executable (a builtin we don't know about, a script
+			// that needs an interpreter, ...). Let the shell figure it out.
+			return runInShell(copyRemaining(index));
 		}
+		return thenRunDirectly(whenExited(started), fastCommands, index + 1);
+	}
 
-		try (var file = new FileWriter(tempFilePath.toFile())) {
-			for (var line : originalCommands) {
-				file.append(line);
+	// Continues with fastCommands[index] if the step before it succeeds.
+	private CompletableFuture<Boolean> thenRunDirectly(CompletableFuture<Boolean> step, FastCommand[] fastCommands, int index) {
+		return step.thenCompose(success->{
+			if (!success) {
+				return CompletableFuture.completedFuture(false);
+			}
+			return runDirectly(fastCommands, index);
+		});
+	}
+
+	private CompletableFuture<Boolean> runInShell(String[] commands) {
+		var args = new ArrayList<String>();
+		args.add(shell.getPath());
+		if (shell.singleLineFlags != null) {
+			// Pass the whole script as an argument; no file needed.
+			for (var flag : shell.singleLineFlags) {
+				args.add(flag);
 			}
+			args.add(String.join("\n", commands));
+		} else {
+			for (var flag : shell.batchFlags) {
+				args.add(flag);
+			}
+			args.add(writeBatchFile(commands).toAbsolutePath().toString());
+		}
+
+		var builder = new ProcessBuilder(args);
+		configureOutput(builder);
+		Process started;
+		try {
+			started = builder.start();
 		} catch (IOException e) {
-			throw new RuntimeException(e);
+			deleteTempFile();
+			throw new RuntimeException("Could not start " + shell.getPath() + ": " + e.getMessage(), e);
 		}
+		return whenExited(started).whenComplete((success, e)->deleteTempFile());
+	}
 
-		var builder = new ProcessBuilder(shellPath, tempFilePath.toAbsolutePath().toString());
+	// Completes once the process has exited and all of its output has been copied.
+	private CompletableFuture<Boolean> whenExited(Process started) {
+		process = started;
+		if (cancelled) {
+			destroyTree(started);
+		}
+		var copying = startCopyingOutput(started);
+		return started.onExit().thenCompose(exited->{
+			process = null;
+			if (cancelled) {
+				// A child that the shell started just before it was killed can keep the
+				// pipes open, so don't wait for the rest of the output.
+				return CompletableFuture.completedFuture(false);
+			}
+			return copying.thenApply(ignored->exited.exitValue() == 0);
+		});
+	}
+
+	private void configureOutput(ProcessBuilder builder) {
 		builder.inheritIO();
+		if (output != null) {
+			builder.redirectOutput(ProcessBuilder.Redirect.PIPE);
+			builder.redirectError(ProcessBuilder.Redirect.PIPE);
+		}
+	}
+
+	private CompletableFuture<Void> startCopyingOutput(Process started) {
+		if (output == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return CompletableFuture.allOf(startCopying(started.getInputStream(), output), startCopying(started.getErrorStream(), error));
+	}
+
+	// Pipes can only be read by blocking, so each one gets a thread. The future completes
+	// when the process closes its end.
+	private static CompletableFuture<Void> startCopying(InputStream from, OutputStream to) {
+		var done = new CompletableFuture<Void>();
+		var thread = new Thread(()->{
+			var buffer = new byte[8192];
+			try (from) {
+				int count;
+				while ((count = from.read(buffer)) > 0) {
+					to.write(buffer, 0, count);
+				}
+				to.flush();
+			} catch (IOException e) {
+				// The reader went away; the rest of the output is lost.
+			} finally {
+				done.complete(null);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return done;
+	}
+
+	private Path writeBatchFile(String[] commands) {
 		try {
-			process = builder.start();
-			startTime = new Date();
+			tempFilePath = Files.createTempFile(null, shell.batchFileExtension);
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			throw new RuntimeException("IOException handler not yet written in run of CommandRunner.", e);
+			throw new RuntimeException("Could not create a temporary " + shell.batchFileExtension + " file", e);
 		}
-	}
 
-	public boolean checkIfFinished() {
-		return process.isAlive();
+		try (var file = new FileWriter(tempFilePath.toFile())) {
+			for (var line : commands) {
+				file.append(line);
+				file.append(System.lineSeparator());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return tempFilePath;
 	}
 
-	public boolean wasSuccess() {
-		if (!process.isAlive()) {
-			throw new RuntimeException();
+	private void deleteTempFile() {
+		if (tempFilePath == null) {
+			return;
 		}
-		return process.exitValue() == 0;
+		try {
+			Files.deleteIfExists(tempFilePath);
+		} catch (IOException e) {
+			// Leaving a file behind in the temp folder isn't worth failing the build over.
+		}
+		tempFilePath = null;
 	}
 
-	/*public FastCommand[] tryParseCommands() {
+	private String[] copyRemaining(int startIndex) {
+		var ret = new String[originalCommands.length - startIndex];
+		System.arraycopy(originalCommands, startIndex, ret, 0, ret.length);
+		return ret;
+	}
+
+	// Returns null if any of the commands needs the shell.
+	private FastCommand[] tryParseCommands() {
 		var ret = new FastCommand[originalCommands.length];
 		for (int i = 0; i < originalCommands.length; i++) {
-			var parsedCommand = tryParseCommand(originalCommands[i]);
+			var parsedCommand = tryParseCommand(originalCommands[i], shell);
 			if (parsedCommand == null) {
 				return null;
 			}
 			ret[i] = parsedCommand;
 		}
+		return ret;
 	}
-	
-	public FastCommand tryParseCommand(String command) {
-		var tokens = miniLexer(command);
+
+	public static FastCommand tryParseCommand(String command, Shell shell) {
+		var tokens = miniLexer(command, shell);
 		if (tokens == null) {
 			return null;
 		}
-		// Resolve the argument into a path.
-		var asFile = new File(tokens.get(0));
-		return new FastCommand(asFile, tokens);
+		return new FastCommand(tokens);
 	}
-	
-	private static ArrayList<String> miniLexer(String text) {
+
+	// Splits a command into arguments the same way the shell would. Returns null if the
+	// command uses anything that only the shell can do: special characters, builtins,
+	// variables, unusual quoting, etc.
+	public static ArrayList<String> miniLexer(String text, Shell shell) {
 		var ret = new ArrayList<String>();
 		var currentString = new StringBuilder();
 		boolean isInSingleQuoteString = false;
@@ -103,11 +345,10 @@ public class CommandRunner {
 		for (int i = 0; i < text.length(); i++) {
 			char c = text.charAt(i);
 			if (isInSingleQuoteString) {
-				if (badSingleQuoteChars.indexOf(c) != -1) {
+				if (shell.singleQuoteSpecialChars.indexOf(c) != -1) {
+					return null;
+				} else if (c == '\n' && !shell.isRawNewlineAllowedIn("singleQuote")) {
 					return null;
-				} else if (escapeNextChar) {
-					currentString.append(c);
-					escapeNextChar = false;
 				} else if (c == '\'') {
 					ret.add(currentString.toString());
 					currentString.setLength(0);
@@ -117,36 +358,43 @@ public class CommandRunner {
 					currentString.append(c);
 				}
 			} else if (isInDoubleQuoteString) {
-				if (badDoubleQuoteChars.indexOf(c) != -1) {
+				if (shell.doubleQuoteSpecialChars.indexOf(c) != -1) {
+					return null;
+				} else if (c == '\n' && !shell.isRawNewlineAllowedIn("doubleQuote")) {
 					return null;
-				} else if (escapeNextChar) {
-					currentString.append(c);
 				} else if (c == '"') {
 					ret.add(currentString.toString());
 					currentString.setLength(0);
 					isInDoubleQuoteString = false;
 					nextMustBeWhiteSpace = true;
-				} else if (c == '\\') {
-					escapeNextChar = true;
 				} else {
 					currentString.append(c);
 				}
 			} else {
-				if (badChars.indexOf(c) != -1) {
-					return null;
-				} else if (escapeNextChar) {
+				if (escapeNextChar) {
+					if (c == '\n') {
+						// Line continuation.
+						return null;
+					}
 					currentString.append(c);
-				} else if (c == '"') {
-					if (currentString.length() != 0) {
-						// Quote immediately after something else is a red flag.
+					escapeNextChar = false;
+				} else if (shell.specialChars.indexOf(c) != -1 || c == '\n') {
+					return null;
+				} else if (shell.escapeChar != '\0' && c == shell.escapeChar) {
+					if (nextMustBeWhiteSpace) {
 						return null;
 					}
-					isInDoubleQuoteString = true;
-				} else if (c == '\'') {
-					if (currentString.length() != 0) {
+					escapeNextChar = true;
+				} else if (shell.quoteChars.indexOf(c) != -1) {
+					if (currentString.length() != 0 || nextMustBeWhiteSpace) {
 						// Quote immediately after something else is a red flag.
 						return null;
 					}
+					if (c == '"') {
+						isInDoubleQuoteString = true;
+					} else {
+						isInSingleQuoteString = true;
+					}
 				} else if (Character.isWhitespace(c)) {
 					nextMustBeWhiteSpace = false;
 					if (currentString.length() != 0) {
@@ -161,36 +409,27 @@ public class CommandRunner {
 				}
 			}
 		}
-	
+
 		if (isInDoubleQuoteString || isInSingleQuoteString || escapeNextChar) {
 			// Unmatched quotes...? Let the shell handle it.
 			return null;
 		}
-	
-		var firstWord = ret.get(0);
-		if (firstWord.startsWith(commentStart)) {
-			return null;
-		}
-	
-		for (var word : badFirstWords) {
-			if (ret.get(0).equalsIgnoreCase(word)) {
-				return null;
-			}
-		}
-	
+
 		if (currentString.length() != 0) {
 			ret.add(currentString.toString());
 		}
+
+		if (ret.isEmpty() || shell.isBuiltin(ret.get(0))) {
+			return null;
+		}
 		return ret;
 	}
-	
-	public class FastCommand {
-		public File executable;
-		public ArrayList<String> args;
-	
-		public FastCommand(File executable, ArrayList<String> args) {
-			this.executable = executable;
+
+	public static class FastCommand {
+		public final ArrayList<String> args;
+
+		public FastCommand(ArrayList<String> args) {
 			this.args = args;
 		}
-	}*/
+	}
 }
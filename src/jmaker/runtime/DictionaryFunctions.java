@@ -1,6 +1,5 @@
 package jmaker.runtime;
 
-import java.util.HashMap;
 import jmaker.interpreter.ArrayValue;
 import jmaker.interpreter.BooleanValue;
 import jmaker.interpreter.DictionaryValue;
@@ -79,22 +78,22 @@ public class DictionaryFunctions {
 	public static ExpressionValue subDict(ExpressionValue[] args) {
 		var original = ((DictionaryValue) args[0]).elements;
 
-		var keys = ((ArrayValue) args[1]).elements;
-		var ret = new HashMap<ExpressionValue, ExpressionValue>(keys.length);
+		var keys = (ArrayValue) args[1];
+		var ret = DictionaryValue.EMPTY;
 		for (var key : keys) {
 			var value = original.get(key);
 			if (value != null) {
-				ret.put(key, value);
+				ret = ret.with(key, value);
 			}
 		}
 
-		return new DictionaryValue(ret);
+		return ret;
 	}
 
 	public static ExpressionValue contains(ExpressionValue[] args) {
 		var original = ((DictionaryValue) args[0]).elements;
 		var key = args[1];
 
-		return new BooleanValue(original.containsKey(key));
+		return BooleanValue.of(original.containsKey(key));
 	}
 }
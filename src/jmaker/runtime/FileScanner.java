@@ -0,0 +1,115 @@
+package jmaker.runtime;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Lists the files under some directories, for findFiles(). Each directory is read by
+// its own fork/join task, so big trees are read in parallel. The result is sorted, so
+// it doesn't depend on the order the tasks finish in.
+//
+// Symbolic links to directories aren't followed, so there's no way to loop forever.
+class FileScanner {
+	private final PathMatcher matcher;
+	// Patterns without a separator only look at the file name. Otherwise they look at
+	// the path relative to the root, like "gen/**/*.java".
+	private final boolean matchRelativePath;
+	private final boolean recurse;
+
+	// The pattern uses the syntax of FileSystem.getPathMatcher("glob:..."). If it's
+	// null, every file matches.
+	FileScanner(String pattern, boolean recurse) {
+		if (pattern == null) {
+			matcher = null;
+			matchRelativePath = false;
+		} else {
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+			matchRelativePath = pattern.indexOf('/') != -1 || pattern.indexOf(FileSystemFunctions.getPathSeparatorFromRuntime()) != -1;
+		}
+		this.recurse = recurse;
+	}
+
+	// Roots that aren't directories are skipped.
+	List<String> scan(List<Path> roots) {
+		var tasks = new ArrayList<DirectoryTask>();
+		for (var root : roots) {
+			if (Files.isDirectory(root)) {
+				tasks.add(new DirectoryTask(root, root));
+			}
+		}
+
+		var ret = new ArrayList<String>();
+		var pool = ForkJoinPool.commonPool();
+		for (var task : tasks) {
+			pool.execute(task);
+		}
+		for (var task : tasks) {
+			ret.addAll(task.join());
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	private boolean matches(Path root, Path file) {
+		if (matcher == null) {
+			return true;
+		}
+		if (matchRelativePath) {
+			return matcher.matches(root.relativize(file));
+		}
+		return matcher.matches(file.getFileName());
+	}
+
+	private class DirectoryTask extends RecursiveTask<List<String>> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path root;
+		private final Path dir;
+
+		DirectoryTask(Path root, Path dir) {
+			this.root = root;
+			this.dir = dir;
+		}
+
+		@Override
+		protected List<String> compute() {
+			var files = new ArrayList<String>();
+			var subtasks = new ArrayList<DirectoryTask>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (var entry : stream) {
+					var attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					if (attributes.isDirectory()) {
+						if (recurse) {
+							var subtask = new DirectoryTask(root, entry);
+							subtask.fork();
+							subtasks.add(subtask);
+						}
+						continue;
+					}
+
+					boolean isFile = attributes.isRegularFile() || (attributes.isSymbolicLink() && Files.isRegularFile(entry));
+					if (isFile && matches(root, entry)) {
+						files.add(entry.toString());
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException("Could not read directory " + dir + ": " + e.getMessage(), e);
+			}
+
+			for (var subtask : subtasks) {
+				files.addAll(subtask.join());
+			}
+			return files;
+		}
+	}
+}
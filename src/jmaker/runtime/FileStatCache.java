@@ -0,0 +1,115 @@
+package jmaker.runtime;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Remembers file metadata for the length of one build, so each path is stat'ed at most
+// once no matter how many builtins, rules and up-to-date checks ask about it. That
+// matters on network filesystems, where every stat is a round trip.
+//
+// The cache assumes that files only change when a rule makes them. After a rule runs,
+// its targets have to be invalidated. A new build starts with reset().
+public class FileStatCache {
+	private static volatile FileStatCache current = new FileStatCache();
+
+	private final ConcurrentHashMap<Path, Entry> entries;
+
+	public FileStatCache() {
+		entries = new ConcurrentHashMap<>();
+	}
+
+	public static FileStatCache current() {
+		return current;
+	}
+
+	public static void reset() {
+		current = new FileStatCache();
+	}
+
+	// Returns null if the file doesn't exist.
+	public BasicFileAttributes getAttributes(Path path) {
+		return getEntry(path).attributes;
+	}
+
+	public boolean exists(Path path) {
+		return getAttributes(path) != null;
+	}
+
+	public boolean isFile(Path path) {
+		var attributes = getAttributes(path);
+		return attributes != null && attributes.isRegularFile();
+	}
+
+	public boolean isDirectory(Path path) {
+		var attributes = getAttributes(path);
+		return attributes != null && attributes.isDirectory();
+	}
+
+	// Permissions aren't part of the basic attributes, so they're only checked when asked for.
+	public boolean canRead(Path path) {
+		var entry = getEntry(path);
+		if (entry.attributes == null) {
+			return false;
+		}
+		if (entry.readable == null) {
+			entry.readable = Files.isReadable(path);
+		}
+		return entry.readable;
+	}
+
+	public boolean canWrite(Path path) {
+		var entry = getEntry(path);
+		if (entry.attributes == null) {
+			return false;
+		}
+		if (entry.writable == null) {
+			entry.writable = Files.isWritable(path);
+		}
+		return entry.writable;
+	}
+
+	// Stats all the paths in parallel, so later lookups don't have to wait.
+	public void prefetch(Collection<String> paths) {
+		paths.parallelStream().forEach(path->getEntry(Paths.get(path)));
+	}
+
+	public void invalidate(String path) {
+		entries.remove(toKey(Paths.get(path)));
+	}
+
+	private Entry getEntry(Path path) {
+		return entries.computeIfAbsent(toKey(path), FileStatCache::readEntry);
+	}
+
+	private static Entry readEntry(Path path) {
+		try {
+			return new Entry(Files.readAttributes(path, BasicFileAttributes.class));
+		} catch (NoSuchFileException e) {
+			return new Entry(null);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read attributes of " + path, e);
+		}
+	}
+
+	private static Path toKey(Path path) {
+		return path.toAbsolutePath().normalize();
+	}
+
+	private static class Entry {
+		public final BasicFileAttributes attributes;
+		public volatile Boolean readable;
+		public volatile Boolean writable;
+
+		public Entry(BasicFileAttributes attributes) {
+			this.attributes = attributes;
+			readable = null;
+			writable = null;
+		}
+	}
+}
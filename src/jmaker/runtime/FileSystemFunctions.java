@@ -49,7 +49,8 @@ public class FileSystemFunctions {
 		}),
 		new NativeFunction("getCurrentWorkingDir", FileSystemFunctions::getCurrentWorkingDir, new SigType[]{}),
 		new NativeFunction("getPathSeparator", FileSystemFunctions::getPathSeparator, new SigType[]{}),
-		new NativeFunction("joinPath", FileSystemFunctions::joinPath)
+		new NativeFunction("joinPath", FileSystemFunctions::joinPath),
+		new NativeFunction("findFiles", FileSystemFunctions::findFiles)
 	};
 
 	public static char getPathSeparatorFromRuntime() {
@@ -71,20 +72,20 @@ public class FileSystemFunctions {
 		var pathExpr = args[0];
 
 		var path = stringToPath(pathExpr.toString());
-		return new BooleanValue(path != null);
+		return BooleanValue.of(path != null);
 	}
 
 	public static ExpressionValue isFile(ExpressionValue[] args) {
 		var pathExpr = args[0];
 
 		var path = stringToPath(pathExpr.toString());
-		return new BooleanValue(path.toFile().isFile());
+		return BooleanValue.of(FileStatCache.current().isFile(path));
 	}
 
 	public static ExpressionValue isDirectory(ExpressionValue[] args) {
 		var pathExpr = args[0];
 		var path = stringToPath(pathExpr.toString());
-		return new BooleanValue(path.toFile().isDirectory());
+		return BooleanValue.of(FileStatCache.current().isDirectory(path));
 	}
 
 	public static ExpressionValue getExtension(ExpressionValue[] args) {
@@ -140,13 +141,13 @@ public class FileSystemFunctions {
 	public static ExpressionValue canRead(ExpressionValue[] args) {
 		var pathExpr = args[0];
 		var path = stringToPath(pathExpr.toString());
-		return new BooleanValue(path.toFile().canRead());
+		return BooleanValue.of(FileStatCache.current().canRead(path));
 	}
 
 	public static ExpressionValue canWrite(ExpressionValue[] args) {
 		var pathExpr = args[0];
 		var path = stringToPath(pathExpr.toString());
-		return new BooleanValue(path.toFile().canWrite());
+		return BooleanValue.of(FileStatCache.current().canWrite(path));
 	}
 
 	public static ExpressionValue getCurrentWorkingDir(ExpressionValue[] args) {
@@ -167,7 +168,7 @@ public class FileSystemFunctions {
 
 		String[] pathParts;
 		if (args.length == 1 && args[0].getType() == DataType.Array) {
-			var array = ((ArrayValue) args[0]).elements;
+			var array = ((ArrayValue) args[0]).toArray();
 			pathParts = new String[array.length];
 			for (int i = 0; i < array.length; i++) {
 				var stringExpr = array[i];
@@ -269,6 +270,54 @@ public class FileSystemFunctions {
 		return new StringValue(fullPath.toString());
 	}
 
+	// findFiles(String|Array roots [, String pattern [, Bool recurse]])
+	public static ExpressionValue findFiles(ExpressionValue[] args) {
+		if (args.length < 1 || args.length > 3) {
+			throw new ArgCountException(new int[]{
+				1, 2, 3
+			}, args.length);
+		}
+
+		var roots = new ArrayList<Path>();
+		if (args[0].getType() == DataType.String) {
+			roots.add(stringToPath(args[0].toString()));
+		} else if (args[0].getType() == DataType.Array) {
+			for (var root : (ArrayValue) args[0]) {
+				if (root.getType() != DataType.String) {
+					throw new RuntimeException("findFiles expects an array of strings, found " + root.getType());
+				}
+				roots.add(stringToPath(root.toString()));
+			}
+		} else {
+			throw new ArgTypeException(args);
+		}
+		if (roots.contains(null)) {
+			throw new RuntimeException("findFiles was given an invalid path");
+		}
+
+		String pattern = null;
+		if (args.length >= 2) {
+			if (args[1].getType() != DataType.String) {
+				throw new ArgTypeException(args);
+			}
+			pattern = args[1].toString();
+		}
+		boolean recurse = true;
+		if (args.length == 3) {
+			if (args[2].getType() != DataType.Boolean) {
+				throw new ArgTypeException(args);
+			}
+			recurse = ((BooleanValue) args[2]).value;
+		}
+
+		var files = new FileScanner(pattern, recurse).scan(roots);
+		var ret = new ExpressionValue[files.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = new StringValue(files.get(i));
+		}
+		return new ArrayValue(ret);
+	}
+
 	private static Path stringToPath(String path) {
 		try {
 			return Paths.get(path);
@@ -0,0 +1,244 @@
+package jmaker.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+// Runs "javac ..." commands with the compiler built into the JDK that JMaker runs on,
+// instead of starting a new JVM for each one. A new javac process spends a second or
+// two starting up and warming up before it compiles anything; in here the compiler's
+// classes are already loaded and JIT-compiled after the first rule.
+//
+// File managers are kept in a pool and reused, so jars on the class path are only opened
+// and indexed once. Options like -cp and -d stick to a file manager, so they're only
+// reused for commands with the same options. A file manager never notices when a jar it
+// has opened changes, so the pool is emptied whenever a rule makes an archive, and at
+// the start of each build.
+//
+// This is only done when the javac found on the PATH belongs to the same JDK, since a
+// different version could compile differently.
+//
+// Only commands whose options the compiler recognizes are run here. Anything else, like
+// "-J" options, argument files or annotation processing by class name, returns null from
+// tryParse() and goes to a real javac process.
+public class InProcessJavac {
+	private static volatile boolean enabled = true;
+	// Set once the compiler has been used. Until then there's nothing to reset.
+	private static volatile boolean used = false;
+	// Keyed by the commands' options.
+	private static final ConcurrentHashMap<List<String>, ConcurrentLinkedQueue<PooledFileManager>> fileManagers = new ConcurrentHashMap<>();
+	// Bumped whenever the pooled file managers might have stale archives.
+	private static final AtomicInteger generation = new AtomicInteger();
+	private static final ExecutorService compileThreads = Executors.newCachedThreadPool(task->{
+		var thread = new Thread(task, "javac");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final List<String> options;
+	private final List<String> sourceFiles;
+
+	private InProcessJavac(List<String> options, List<String> sourceFiles) {
+		this.options = options;
+		this.sourceFiles = sourceFiles;
+	}
+
+	public static void setEnabled(boolean newEnabled) {
+		enabled = newEnabled;
+	}
+
+	// Forgets every opened archive.
+	public static void reset() {
+		if (!used) {
+			return;
+		}
+		generation.incrementAndGet();
+		for (var pool : fileManagers.values()) {
+			PooledFileManager pooled;
+			while ((pooled = pool.poll()) != null) {
+				pooled.close();
+			}
+		}
+	}
+
+	// Called when a rule has changed a file. Only archives are cached, and only they
+	// matter.
+	public static void fileChanged(String path) {
+		if (!used) {
+			return;
+		}
+		var lowerPath = path.toLowerCase();
+		if (lowerPath.endsWith(".jar") || lowerPath.endsWith(".zip")) {
+			reset();
+		}
+	}
+
+	// Returns null if the command isn't javac, or can't be run in-process.
+	public static InProcessJavac tryParse(List<String> args) {
+		if (!enabled || !isJavac(args.get(0)) || !CompilerHolder.pathJavacIsOurs) {
+			return null;
+		}
+		var compiler = CompilerHolder.compiler;
+		var optionChecker = CompilerHolder.optionChecker;
+
+		var options = new ArrayList<String>();
+		var sourceFiles = new ArrayList<String>();
+		for (int i = 1; i < args.size(); i++) {
+			var arg = args.get(i);
+			if (arg.startsWith("-")) {
+				var argCount = compiler.isSupportedOption(arg);
+				if (argCount < 0) {
+					argCount = optionChecker.isSupportedOption(arg);
+				}
+				if (argCount < 0) {
+					return null;
+				}
+				if (i + argCount >= args.size()) {
+					return null;
+				}
+				for (int j = 0; j <= argCount; j++) {
+					options.add(args.get(i + j));
+				}
+				i += argCount;
+			} else if (arg.endsWith(".java")) {
+				sourceFiles.add(arg);
+			} else {
+				return null;
+			}
+		}
+		if (sourceFiles.isEmpty()) {
+			return null;
+		}
+		return new InProcessJavac(options, sourceFiles);
+	}
+
+	private static boolean isJavac(String program) {
+		return program.equals("javac") || program.equals("javac.exe");
+	}
+
+	// True if running "javac" would run the javac in java.home, following symlinks.
+	private static boolean isPathJavacOurs() {
+		var path = System.getenv("PATH");
+		if (path == null) {
+			return false;
+		}
+		var name = System.getProperty("os.name").startsWith("Windows") ? "javac.exe" : "javac";
+		try {
+			var ours = Paths.get(System.getProperty("java.home"), "bin", name).toRealPath();
+			for (var dir : path.split(File.pathSeparator)) {
+				if (dir.isEmpty()) {
+					continue;
+				}
+				Path candidate;
+				try {
+					candidate = Paths.get(dir, name);
+				} catch (InvalidPathException e) {
+					continue;
+				}
+				if (Files.isRegularFile(candidate) && Files.isExecutable(candidate)) {
+					return candidate.toRealPath().equals(ours);
+				}
+			}
+		} catch (IOException | InvalidPathException e) {
+			// There's no javac in java.home, or the one on the PATH can't be resolved.
+		}
+		return false;
+	}
+
+	// Compiles on a separate thread, since compiling takes as long as running a command.
+	// Diagnostics go to the error stream, like javac's.
+	public CompletableFuture<Boolean> runAsync(OutputStream error) {
+		used = true;
+		return CompletableFuture.supplyAsync(()->compile(error), compileThreads);
+	}
+
+	private boolean compile(OutputStream error) {
+		var span = Tracer.begin("javac", "files", Integer.toString(sourceFiles.size()));
+		try {
+			var writer = new PrintWriter(new OutputStreamWriter(error, Charset.defaultCharset()));
+			var pooled = borrowFileManager(options);
+			boolean success = false;
+			try {
+				var units = pooled.fileManager.getJavaFileObjectsFromStrings(sourceFiles);
+				success = CompilerHolder.compiler.getTask(writer, pooled.fileManager, null, options, null, units).call();
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				// Bad option values, missing files, ...
+				writer.println("javac: " + e.getMessage());
+			} finally {
+				writer.flush();
+				returnFileManager(options, pooled, success);
+			}
+			return success;
+		} finally {
+			span.close();
+		}
+	}
+
+	private static PooledFileManager borrowFileManager(List<String> options) {
+		var pool = fileManagers.get(options);
+		var pooled = pool == null ? null : pool.poll();
+		if (pooled != null && pooled.generation == generation.get()) {
+			return pooled;
+		}
+		if (pooled != null) {
+			pooled.close();
+		}
+		return new PooledFileManager(CompilerHolder.compiler.getStandardFileManager(null, null, null), generation.get());
+	}
+
+	// A failed compile might have left the file manager in a strange state, so it's
+	// thrown away.
+	private static void returnFileManager(List<String> options, PooledFileManager pooled, boolean success) {
+		if (success && pooled.generation == generation.get()) {
+			fileManagers.computeIfAbsent(options, o->new ConcurrentLinkedQueue<>()).add(pooled);
+		} else {
+			pooled.close();
+		}
+	}
+
+	// Loading the compiler and looking through the PATH take a while, so they wait until
+	// a build has a javac command.
+	private static class CompilerHolder {
+		// Null if JMaker isn't running on a JDK.
+		public static final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		// Only used to ask which options are file manager options.
+		public static final StandardJavaFileManager optionChecker = compiler == null ? null : compiler.getStandardFileManager(null, null, null);
+		public static final boolean pathJavacIsOurs = compiler != null && isPathJavacOurs();
+	}
+
+	private static class PooledFileManager {
+		public final StandardJavaFileManager fileManager;
+		public final int generation;
+
+		public PooledFileManager(StandardJavaFileManager fileManager, int generation) {
+			this.fileManager = fileManager;
+			this.generation = generation;
+		}
+
+		public void close() {
+			try {
+				fileManager.close();
+			} catch (IOException e) {
+				// It's being thrown away anyway.
+			}
+		}
+	}
+}
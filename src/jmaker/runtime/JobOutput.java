@@ -0,0 +1,139 @@
+package jmaker.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Holds everything one job prints until the job is done, so that jobs running in
+// parallel don't interleave their output, and so a slow console only holds up whoever
+// is writing to it at the end, never the commands themselves.
+//
+// Each stream is kept in memory up to a limit. Past that it's moved to a temporary file,
+// so a job that prints a lot doesn't use up the heap. writeTo() copies both streams out
+// in one go, while no other job can write.
+public class JobOutput {
+	private static final int DEFAULT_MEMORY_LIMIT = 64 * 1024;
+	// Shared by every job, so that one job's output is never split by another's.
+	private static final Object WRITE_LOCK = new Object();
+
+	public final OutputStream output;
+	public final OutputStream error;
+
+	public JobOutput() {
+		this(DEFAULT_MEMORY_LIMIT);
+	}
+
+	public JobOutput(int memoryLimit) {
+		output = new SpillBuffer(memoryLimit);
+		error = new SpillBuffer(memoryLimit);
+	}
+
+	// True if either stream got too big for memory.
+	public boolean isSpilled() {
+		return ((SpillBuffer) output).file != null || ((SpillBuffer) error).file != null;
+	}
+
+	// Copies the output and then the error output to the given streams, and deletes any
+	// temporary files. Nothing can be written to this afterwards.
+	public void writeTo(OutputStream destination, OutputStream errorDestination) {
+		var outputBuffer = (SpillBuffer) output;
+		var errorBuffer = (SpillBuffer) error;
+		try {
+			synchronized (WRITE_LOCK) {
+				outputBuffer.copyTo(destination);
+				errorBuffer.copyTo(errorDestination);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write a job's output: " + e.getMessage(), e);
+		} finally {
+			outputBuffer.delete();
+			errorBuffer.delete();
+		}
+	}
+
+	private static class SpillBuffer extends OutputStream {
+		private final int memoryLimit;
+		private ByteArrayOutputStream memory;
+		private Path file;
+		private OutputStream fileStream;
+
+		public SpillBuffer(int memoryLimit) {
+			this.memoryLimit = memoryLimit;
+			memory = new ByteArrayOutputStream();
+			file = null;
+			fileStream = null;
+		}
+
+		@Override
+		public synchronized void write(int b) throws IOException {
+			write(new byte[]{
+				(byte) b
+			}, 0, 1);
+		}
+
+		@Override
+		public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+			if (memory == null && fileStream == null) {
+				// Already written out; this comes from a process that outlived its job.
+				throw new IOException("Job output is closed");
+			}
+			if (fileStream == null && memory.size() + length > memoryLimit) {
+				spill();
+			}
+			if (fileStream != null) {
+				fileStream.write(bytes, offset, length);
+			} else {
+				memory.write(bytes, offset, length);
+			}
+		}
+
+		@Override
+		public synchronized void flush() throws IOException {
+			if (fileStream != null) {
+				fileStream.flush();
+			}
+		}
+
+		private void spill() throws IOException {
+			file = Files.createTempFile("jmaker", ".out");
+			fileStream = Files.newOutputStream(file);
+			memory.writeTo(fileStream);
+			memory = null;
+		}
+
+		public synchronized void copyTo(OutputStream destination) throws IOException {
+			if (fileStream == null) {
+				if (memory.size() != 0) {
+					memory.writeTo(destination);
+					destination.flush();
+				}
+				return;
+			}
+			fileStream.close();
+			fileStream = null;
+			try (InputStream input = Files.newInputStream(file)) {
+				input.transferTo(destination);
+			}
+			destination.flush();
+		}
+
+		public synchronized void delete() {
+			memory = null;
+			if (file == null) {
+				return;
+			}
+			try {
+				if (fileStream != null) {
+					fileStream.close();
+				}
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// Leaving a file behind in the temp folder isn't worth failing the build over.
+			}
+			fileStream = null;
+		}
+	}
+}
@@ -43,7 +43,7 @@ public class MathFunctions {
 			case Number_Int:
 				return original;
 			case Number_Double:
-				return new IntegerValue((int) Math.round(original.asDouble()));
+				return IntegerValue.of((int) Math.round(original.asDouble()));
 			default:
 				throw new UnreachableCodeBlockException();
 		}
@@ -55,7 +55,7 @@ public class MathFunctions {
 			case Number_Int:
 				return original;
 			case Number_Double:
-				return new IntegerValue((int) Math.floor(original.asDouble()));
+				return IntegerValue.of((int) Math.floor(original.asDouble()));
 			default:
 				throw new UnreachableCodeBlockException();
 		}
@@ -67,7 +67,7 @@ public class MathFunctions {
 			case Number_Int:
 				return original;
 			case Number_Double:
-				return new IntegerValue((int) Math.ceil(original.asDouble()));
+				return IntegerValue.of((int) Math.ceil(original.asDouble()));
 			default:
 				throw new UnreachableCodeBlockException();
 		}
@@ -77,7 +77,7 @@ public class MathFunctions {
 		var original = args[0];
 		switch (original.getType()) {
 			case Number_Int:
-				return new IntegerValue(Math.abs(original.asInteger()));
+				return IntegerValue.of(Math.abs(original.asInteger()));
 			case Number_Double:
 				return new DoubleValue(Math.abs(original.asDouble()));
 			default:
@@ -89,7 +89,7 @@ public class MathFunctions {
 		var num1 = args[0];
 		var num2 = args[1];
 		if (num1.getType() == DataType.Number_Int && num2.getType() == DataType.Number_Int) {
-			return new IntegerValue(Math.max(num1.asInteger(), num2.asInteger()));
+			return IntegerValue.of(Math.max(num1.asInteger(), num2.asInteger()));
 		} else {
 			return new DoubleValue(Math.max(num1.asDouble(), num2.asDouble()));
 		}
@@ -99,7 +99,7 @@ public class MathFunctions {
 		var num1 = args[0];
 		var num2 = args[1];
 		if (num1.getType() == DataType.Number_Int && num2.getType() == DataType.Number_Int) {
-			return new IntegerValue(Math.min(num1.asInteger(), num2.asInteger()));
+			return IntegerValue.of(Math.min(num1.asInteger(), num2.asInteger()));
 		} else {
 			return new DoubleValue(Math.min(num1.asDouble(), num2.asDouble()));
 		}
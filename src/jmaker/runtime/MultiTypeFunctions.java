@@ -1,100 +1,100 @@
 package jmaker.runtime;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import jmaker.interpreter.ArrayValue;
 import jmaker.interpreter.DictionaryValue;
 import jmaker.interpreter.ExpressionValue;
 import jmaker.interpreter.IntegerValue;
 import jmaker.interpreter.Memory;
 import jmaker.interpreter.StringValue;
-import jmaker.main.UnreachableCodeBlockException;
+import jmaker.runtime.NativeFunction.Overload;
 import jmaker.runtime.NativeFunction.SigType;
 
+// Functions that work on more than one type. Each type has its own implementation, and
+// NativeFunction picks the right one from the argument types.
 public class MultiTypeFunctions {
 
 	private static NativeFunction[] functions = new NativeFunction[]{
-		new NativeFunction("length", MultiTypeFunctions::length, new SigType[][]{
-			new SigType[]{
+		new NativeFunction("length", new Overload[]{
+			new Overload(MultiTypeFunctions::lengthOfString, new SigType[]{
 				SigType.String
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::lengthOfArray, new SigType[]{
 				SigType.Array
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::lengthOfDict, new SigType[]{
 				SigType.Dictionary
-			}
+			})
 		}),
-		new NativeFunction("set", MultiTypeFunctions::set, new SigType[][]{
-			new SigType[]{
+		new NativeFunction("set", new Overload[]{
+			new Overload(MultiTypeFunctions::setInArray, new SigType[]{
 				SigType.Array, SigType.Integer, SigType.Any
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::setInDict, new SigType[]{
 				SigType.Dictionary, SigType.Any, SigType.Any
-			}
+			})
 		}),
-		new NativeFunction("remove", MultiTypeFunctions::remove, new SigType[][]{
-			new SigType[]{
+		new NativeFunction("remove", new Overload[]{
+			new Overload(MultiTypeFunctions::removeFromArray, new SigType[]{
 				SigType.Array, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::removeFromDict, new SigType[]{
 				SigType.Dictionary, SigType.Any
-			}
+			})
 		}),
-		new NativeFunction("range", MultiTypeFunctions::range, new SigType[][]{
-			new SigType[]{
+		new NativeFunction("range", new Overload[]{
+			new Overload(MultiTypeFunctions::rangeOfString, new SigType[]{
 				SigType.String, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::rangeOfString, new SigType[]{
 				SigType.String, SigType.Integer, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::rangeOfArray, new SigType[]{
 				SigType.Array, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::rangeOfArray, new SigType[]{
 				SigType.Array, SigType.Integer, SigType.Integer
-			}
+			})
 		}),
-		new NativeFunction("find", MultiTypeFunctions::find, new SigType[][]{
-			new SigType[]{
+		new NativeFunction("find", new Overload[]{
+			new Overload(MultiTypeFunctions::findInArray, new SigType[]{
 				SigType.Array, SigType.Any
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findInArray, new SigType[]{
 				SigType.Array, SigType.Any, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findInArray, new SigType[]{
 				SigType.Array, SigType.Any, SigType.Integer, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findInString, new SigType[]{
 				SigType.String, SigType.String
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findInString, new SigType[]{
 				SigType.String, SigType.String, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findInString, new SigType[]{
 				SigType.String, SigType.String, SigType.Integer, SigType.Integer
-			}
+			})
 		}),
-		new NativeFunction("findAll", MultiTypeFunctions::findAll, new SigType[][]{
-			new SigType[]{
+		new NativeFunction("findAll", new Overload[]{
+			new Overload(MultiTypeFunctions::findAllInArray, new SigType[]{
 				SigType.Array, SigType.Any
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findAllInArray, new SigType[]{
 				SigType.Array, SigType.Any, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findAllInArray, new SigType[]{
 				SigType.Array, SigType.Any, SigType.Integer, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findAllInString, new SigType[]{
 				SigType.String, SigType.String
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findAllInString, new SigType[]{
 				SigType.String, SigType.String, SigType.Integer
-			},
-			new SigType[]{
+			}),
+			new Overload(MultiTypeFunctions::findAllInString, new SigType[]{
 				SigType.String, SigType.String, SigType.Integer, SigType.Integer
-			}
+			})
 		})
 	};
 
@@ -104,110 +104,86 @@ public class MultiTypeFunctions {
 		}
 	}
 
-	// Shared by strings, arrays, and dicts
-	public static ExpressionValue length(ExpressionValue[] args) {
-		ExpressionValue arg = args[0];
-		switch (arg.getType()) {
-			case String:
-				return new IntegerValue(arg.toString().length());
-			case Array:
-				var castToArray = (ArrayValue) arg;
-				return new IntegerValue(castToArray.elements.length);
-			case Dictionary:
-				var castToDict = (DictionaryValue) arg;
-				return new IntegerValue(castToDict.elements.size());
-			default:
-				throw new UnreachableCodeBlockException();
+	public static ExpressionValue lengthOfString(ExpressionValue[] args) {
+		return IntegerValue.of(args[0].toString().length());
+	}
+
+	public static ExpressionValue lengthOfArray(ExpressionValue[] args) {
+		return IntegerValue.of(((ArrayValue) args[0]).size());
+	}
+
+	public static ExpressionValue lengthOfDict(ExpressionValue[] args) {
+		return IntegerValue.of(((DictionaryValue) args[0]).elements.size());
+	}
+
+	public static ExpressionValue setInArray(ExpressionValue[] args) {
+		var original = (ArrayValue) args[0];
+		var index = args[1].asInteger();
+
+		if (index < 0) {
+			throw new RuntimeException("Index cannot be negative (" + index + ")");
+		}
+		if (index > original.size()) {
+			throw new RuntimeException("Index cannot be greater than the array length (" + index + ")");
 		}
+
+		// Setting the index right after the end appends the item to the array.
+		return original.set(index, args[2]);
 	}
 
-	// Shared by arrays and dicts
-	public static ExpressionValue set(ExpressionValue[] args) {
-		var originalExpr = args[0];
-		var indexExpr = args[1];
-		var newValue = args[2];
-
-		switch (originalExpr.getType()) {
-			case Array: {
-				var original = ((ArrayValue) originalExpr).elements;
-				var index = indexExpr.asInteger();
-
-				if (index < 0) {
-					throw new RuntimeException("Index cannot be negative (" + index + ")");
-				}
-				if (index > original.length) {
-					throw new RuntimeException("Index cannot be greater than the array length (" + index + ")");
-				}
-
-				ExpressionValue[] ret;
-				if (index == original.length) {
-					// Special case: append the item to the array.
-					ret = Arrays.copyOf(original, original.length + 1);
-				} else {
-					ret = Arrays.copyOf(original, original.length);
-				}
-
-				ret[index] = newValue;
-
-				return new ArrayValue(ret);
-			}
-			case Dictionary: {
-				var original = ((DictionaryValue) originalExpr).elements;
-				var ret = new HashMap<>(original);
-				ret.put(indexExpr, newValue);
-				return new DictionaryValue(ret);
-			}
-			default:
-				throw new UnreachableCodeBlockException();
+	public static ExpressionValue setInDict(ExpressionValue[] args) {
+		return ((DictionaryValue) args[0]).with(args[1], args[2]);
+	}
+
+	public static ExpressionValue removeFromArray(ExpressionValue[] args) {
+		var original = (ArrayValue) args[0];
+		var index = args[1].asInteger();
+
+		if (index < 0) {
+			throw new RuntimeException("Index cannot be negative (" + index + ")");
 		}
+		if (index >= original.size()) {
+			throw new RuntimeException("Index must be smaller than the array length (" + index + ")");
+		}
+
+		return original.remove(index);
 	}
 
-	// Shared by arrays and dicts.
-	public static ExpressionValue remove(ExpressionValue[] args) {
-		var originalExpr = args[0];
-		var indexExpr = args[1];
-
-		switch (originalExpr.getType()) {
-			case Array: {
-				var original = ((ArrayValue) originalExpr).elements;
-				var index = indexExpr.asInteger();
-
-				if (index < 0) {
-					throw new RuntimeException("Index cannot be negative (" + index + ")");
-				}
-				if (index >= original.length) {
-					throw new RuntimeException("Index must be smaller than the array length (" + index + ")");
-				}
-
-				if (index == original.length - 1) {
-					// Special case: truncate the array while copying it.
-					return new ArrayValue(Arrays.copyOf(original, original.length - 1));
-				}
-
-				var ret = new ExpressionValue[original.length - 1];
-				System.arraycopy(original, 0, ret, 0, index);
-				System.arraycopy(original, index + 1, ret, index, original.length - 1 - index);
-
-				return new ArrayValue(ret);
-			}
-			case Dictionary: {
-				var original = ((DictionaryValue) originalExpr).elements;
-				var ret = new HashMap<>(original);
-				ret.remove(indexExpr);
-				return new DictionaryValue(ret);
-			}
-			default:
-				throw new UnreachableCodeBlockException();
+	public static ExpressionValue removeFromDict(ExpressionValue[] args) {
+		return ((DictionaryValue) args[0]).without(args[1]);
+	}
+
+	public static ExpressionValue rangeOfString(ExpressionValue[] args) {
+		var range = validateRange(args);
+		var originalString = args[0].toString();
+		if (range.start == range.end || range.start >= originalString.length()) {
+			return new StringValue("");
+		}
+
+		if (range.end > originalString.length()) {
+			return new StringValue(originalString.substring(range.start));
+		} else {
+			return new StringValue(originalString.substring(range.start, range.end));
 		}
 	}
 
-	// Shared by arrays and strings.
-	public static ExpressionValue range(ExpressionValue[] args) {
-		var original = args[0];
-		var start = args[1];
+	public static ExpressionValue rangeOfArray(ExpressionValue[] args) {
+		var range = validateRange(args);
+		var originalArray = (ArrayValue) args[0];
+		if (range.start == range.end || range.start >= originalArray.size()) {
+			return new ArrayValue(new ExpressionValue[]{});
+		}
 
+		if (range.end > originalArray.size()) {
+			range.end = originalArray.size();
+		}
+		return originalArray.slice(range.start, range.end);
+	}
+
+	// Shared by arrays and strings.
+	private static FindRangeStruct validateRange(ExpressionValue[] args) {
 		// Check the start index.
-		var startInt = start.asInteger();
+		var startInt = args[1].asInteger();
 		if (startInt < 0) {
 			throw new RuntimeException("Start index cannot be negative (" + startInt + ")");
 		}
@@ -223,129 +199,91 @@ public class MultiTypeFunctions {
 			throw new RuntimeException("End index cannot be before the start index (" + endInt + ")");
 		}
 
-		// Actual range code.
-		switch (original.getType()) {
-			case String: {
-				var originalString = original.toString();
-				if (startInt == endInt || startInt >= originalString.length()) {
-					return new StringValue("");
-				}
-
-				if (endInt > originalString.length()) {
-					return new StringValue(originalString.substring(startInt));
-				} else {
-					return new StringValue(originalString.substring(startInt, endInt));
-				}
-			}
-			case Array: {
-				var originalArray = (ArrayValue) original;
-				if (startInt == endInt || startInt >= originalArray.elements.length) {
-					return new ArrayValue(new ExpressionValue[]{});
-				}
-
-				if (endInt > originalArray.elements.length) {
-					endInt = originalArray.elements.length;
-				}
-				var newArray = Arrays.copyOfRange(originalArray.elements, startInt, endInt);
-				return new ArrayValue(newArray);
-			}
-			default:
-				throw new UnreachableCodeBlockException();
+		return new FindRangeStruct(startInt, endInt);
+	}
+
+	public static ExpressionValue findInString(ExpressionValue[] args) {
+		var range = validateFindRange(args);
+		var originalString = args[0].toString();
+		var targetString = args[1].toString();
+
+		if (range.start >= originalString.length()) {
+			return IntegerValue.of(-1);
+		}
+		var newStringStartIndex = (originalString.indexOf(targetString, range.start));
+		if (newStringStartIndex < 0) {
+			return IntegerValue.of(-1);
 		}
+		if (newStringStartIndex >= range.end) {
+			return IntegerValue.of(-1);
+		}
+		return IntegerValue.of(newStringStartIndex);
 	}
 
-	// Shared by arrays and strings.
-	public static ExpressionValue find(ExpressionValue[] args) {
+	public static ExpressionValue findInArray(ExpressionValue[] args) {
 		var range = validateFindRange(args);
-		var original = args[0];
+		var originalArray = (ArrayValue) args[0];
 		var target = args[1];
 
-		switch (original.getType()) {
-			case String: {
-				var originalString = original.toString();
-				var targetString = target.toString();
-
-				if (range.start >= originalString.length()) {
-					return new IntegerValue(-1);
-				}
-				var newStringStartIndex = (originalString.indexOf(targetString, range.start));
-				if (newStringStartIndex < 0) {
-					return new IntegerValue(-1);
-				}
-				if (newStringStartIndex >= range.end) {
-					return new IntegerValue(-1);
-				}
-				return new IntegerValue(newStringStartIndex);
-			}
-			case Array: {
-				var originalArray = (ArrayValue) original;
-				if (range.start >= originalArray.elements.length) {
-					return new IntegerValue(-1);
-				}
-				if (range.end > originalArray.elements.length) {
-					range.end = originalArray.elements.length;
-				}
-				for (int i = range.start; i < range.end; i++) {
-					var currentElement = originalArray.elements[i];
-					if (currentElement.equals(target)) {
-						return new IntegerValue(i);
-					}
-				}
-				return new IntegerValue(-1);
+		if (range.start >= originalArray.size()) {
+			return IntegerValue.of(-1);
+		}
+		if (range.end > originalArray.size()) {
+			range.end = originalArray.size();
+		}
+		for (int i = range.start; i < range.end; i++) {
+			var currentElement = originalArray.get(i);
+			if (currentElement.equals(target)) {
+				return IntegerValue.of(i);
 			}
-			default:
-				throw new UnreachableCodeBlockException();
 		}
+		return IntegerValue.of(-1);
 	}
 
-	// Shared by arrays and strings.
-	public static ExpressionValue findAll(ExpressionValue[] args) {
+	public static ExpressionValue findAllInString(ExpressionValue[] args) {
 		var range = validateFindRange(args);
-		var original = args[0];
+		var originalString = args[0].toString();
+		var targetString = args[1].toString();
+		var foundIndecies = new ArrayList<Integer>();
+
+		if (range.start >= originalString.length()) {
+			return new ArrayValue(new ExpressionValue[]{});
+		}
+		if (range.end > originalString.length()) {
+			range.end = originalString.length();
+		}
+		var currentIndex = originalString.indexOf(targetString, range.start);
+		while (currentIndex < range.end && currentIndex >= 0) {
+			foundIndecies.add(currentIndex);
+			currentIndex = originalString.indexOf(targetString, currentIndex + 1);
+		}
+		return toIndexArray(foundIndecies);
+	}
+
+	public static ExpressionValue findAllInArray(ExpressionValue[] args) {
+		var range = validateFindRange(args);
+		var originalArray = (ArrayValue) args[0];
 		var target = args[1];
 		var foundIndecies = new ArrayList<Integer>();
 
-		switch (original.getType()) {
-			case String: {
-				var originalString = original.toString();
-				var targetString = target.toString();
-
-				if (range.start >= originalString.length()) {
-					return new ArrayValue(new ExpressionValue[]{});
-				}
-				if (range.end > originalString.length()) {
-					range.end = originalString.length();
-				}
-				var currentIndex = originalString.indexOf(targetString, range.start);
-				while (currentIndex < range.end && currentIndex >= 0) {
-					foundIndecies.add(currentIndex);
-					currentIndex = originalString.indexOf(targetString, currentIndex + 1);
-				}
-				break;
-			}
-			case Array: {
-				var originalArray = ((ArrayValue) original).elements;
-
-				if (range.start >= originalArray.length) {
-					return new ArrayValue(new ExpressionValue[]{});
-				}
-				if (range.end > originalArray.length) {
-					range.end = originalArray.length;
-				}
-				for (int i = range.start; i < range.end; i++) {
-					if (target.equals(originalArray[i])) {
-						foundIndecies.add(i);
-					}
-				}
-				break;
+		if (range.start >= originalArray.size()) {
+			return new ArrayValue(new ExpressionValue[]{});
+		}
+		if (range.end > originalArray.size()) {
+			range.end = originalArray.size();
+		}
+		for (int i = range.start; i < range.end; i++) {
+			if (target.equals(originalArray.get(i))) {
+				foundIndecies.add(i);
 			}
-			default:
-				throw new UnreachableCodeBlockException();
 		}
+		return toIndexArray(foundIndecies);
+	}
 
-		var ret = new ExpressionValue[foundIndecies.size()];
-		for (int i = 0; i < foundIndecies.size(); i++) {
-			ret[i] = new IntegerValue(foundIndecies.get(i));
+	private static ExpressionValue toIndexArray(ArrayList<Integer> indexes) {
+		var ret = new ExpressionValue[indexes.size()];
+		for (int i = 0; i < indexes.size(); i++) {
+			ret[i] = IntegerValue.of(indexes.get(i));
 		}
 		return new ArrayValue(ret);
 	}
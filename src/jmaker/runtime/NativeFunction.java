@@ -4,64 +4,176 @@ import jmaker.interpreter.DataType;
 import jmaker.interpreter.ExpressionValue;
 import jmaker.interpreter.FunctionValue;
 
+// A builtin function implemented in Java.
+//
+// A function can have several signatures, optionally each with its own implementation.
+// The signatures are compiled into one table per argument count, indexed by the
+// DataTypes of the arguments, so picking an implementation doesn't depend on how many
+// signatures there are.
 public class NativeFunction extends FunctionValue {
-	public final NativeFunctionImpl function;
+	// Functions with more arguments than this fall back to checking each signature;
+	// the table for 4 arguments already has 7^4 entries.
+	private static final int MAX_TABLE_ARGS = 4;
+	private static final DataType[] TYPES = DataType.values();
+
+	// Null if any arguments are accepted.
 	public final SigType[][] signatures;
+	private final NativeFunctionImpl[] implementations;
+	// Indexed by argument count, then by the argument types. See getTableIndex().
+	private final NativeFunctionImpl[][] dispatchTables;
 
 	public NativeFunction(String symbolName, NativeFunctionImpl function) {
 		super(symbolName);
-		this.function = function;
 		signatures = null;
+		implementations = new NativeFunctionImpl[]{
+			function
+		};
+		dispatchTables = null;
 	}
 
 	public NativeFunction(String symbolName, NativeFunctionImpl function, SigType[] signature) {
-		super(symbolName);
-		this.function = function;
-		assert (signature != null);
-		this.signatures = new SigType[][]{
+		this(symbolName, function, new SigType[][]{
 			signature
-		};
+		});
 	}
 
 	public NativeFunction(String symbolName, NativeFunctionImpl function, SigType[][] signatures) {
+		this(symbolName, signatures, sameImplementation(function, signatures.length));
+	}
+
+	// Each overload has its own implementation, so they don't need to check types again.
+	public NativeFunction(String symbolName, Overload[] overloads) {
+		this(symbolName, getSignatures(overloads), getImplementations(overloads));
+	}
+
+	private NativeFunction(String symbolName, SigType[][] signatures, NativeFunctionImpl[] implementations) {
 		super(symbolName);
-		this.function = function;
 		this.signatures = signatures;
+		this.implementations = implementations;
 		assert (signatures != null);
 		assert (signatures.length != 0);
+
+		int maxArgs = 0;
+		for (var signature : signatures) {
+			maxArgs = Math.max(maxArgs, signature.length);
+		}
+		dispatchTables = new NativeFunctionImpl[Math.min(maxArgs, MAX_TABLE_ARGS) + 1][];
+		for (int argCount = 0; argCount < dispatchTables.length; argCount++) {
+			dispatchTables[argCount] = buildTable(argCount);
+		}
 	}
 
-	@Override
-	public ExpressionValue call(ExpressionValue[] args) {
-		if (signatures != null) {
-			boolean foundMatchingSig = false;
-			for (var signature : signatures) {
-				if (signature.length != args.length) {
-					continue;
-				}
-				boolean matchesCurrentSig = true;
-				for (int i = 0; i < args.length; i++) {
-					if (!signature[i].matches(args[i].getType())) {
-						matchesCurrentSig = false;
-						break;
-					}
-				}
-				if (matchesCurrentSig) {
-					foundMatchingSig = true;
+	private NativeFunctionImpl[] buildTable(int argCount) {
+		int size = 1;
+		for (int i = 0; i < argCount; i++) {
+			size *= TYPES.length;
+		}
+
+		var table = new NativeFunctionImpl[size];
+		var argTypes = new DataType[argCount];
+		for (int index = 0; index < size; index++) {
+			// Decode the index back into argument types.
+			int remaining = index;
+			for (int i = argCount - 1; i >= 0; i--) {
+				argTypes[i] = TYPES[remaining % TYPES.length];
+				remaining /= TYPES.length;
+			}
+			table[index] = findImplementation(argTypes);
+		}
+		return table;
+	}
+
+	// The implementation for the first matching signature, or null if none match.
+	private NativeFunctionImpl findImplementation(DataType[] argTypes) {
+		for (int i = 0; i < signatures.length; i++) {
+			var signature = signatures[i];
+			if (signature.length != argTypes.length) {
+				continue;
+			}
+			boolean matchesCurrentSig = true;
+			for (int j = 0; j < argTypes.length; j++) {
+				if (!signature[j].matches(argTypes[j])) {
+					matchesCurrentSig = false;
 					break;
 				}
 			}
-			if (!foundMatchingSig) {
-				throw new RuntimeException("Unrecognized signature for '" + symbolName + "'");
+			if (matchesCurrentSig) {
+				return implementations[i];
+			}
+		}
+		return null;
+	}
+
+	private static int getTableIndex(ExpressionValue[] args) {
+		int index = 0;
+		for (var arg : args) {
+			index = index * TYPES.length + arg.getType().ordinal();
+		}
+		return index;
+	}
+
+	@Override
+	public ExpressionValue call(ExpressionValue[] args) {
+		NativeFunctionImpl implementation;
+		if (signatures == null) {
+			implementation = implementations[0];
+		} else if (args.length < dispatchTables.length) {
+			implementation = dispatchTables[args.length][getTableIndex(args)];
+		} else if (args.length > MAX_TABLE_ARGS) {
+			var argTypes = new DataType[args.length];
+			for (int i = 0; i < args.length; i++) {
+				argTypes[i] = args[i].getType();
 			}
+			implementation = findImplementation(argTypes);
+		} else {
+			// No signature takes this many arguments.
+			implementation = null;
+		}
+		if (implementation == null) {
+			throw new RuntimeException("Unrecognized signature for '" + symbolName + "'");
 		}
+
 		try {
-			return this.function.call(args);
+			return implementation.call(args);
 		} catch (Exception e) {
 			throw new RuntimeException("Error in function '" + symbolName + "'", e);
 		}
 	}
 
+	private static NativeFunctionImpl[] sameImplementation(NativeFunctionImpl function, int count) {
+		var ret = new NativeFunctionImpl[count];
+		for (int i = 0; i < count; i++) {
+			ret[i] = function;
+		}
+		return ret;
+	}
+
+	private static SigType[][] getSignatures(Overload[] overloads) {
+		var ret = new SigType[overloads.length][];
+		for (int i = 0; i < overloads.length; i++) {
+			ret[i] = overloads[i].signature;
+		}
+		return ret;
+	}
+
+	private static NativeFunctionImpl[] getImplementations(Overload[] overloads) {
+		var ret = new NativeFunctionImpl[overloads.length];
+		for (int i = 0; i < overloads.length; i++) {
+			ret[i] = overloads[i].function;
+		}
+		return ret;
+	}
+
+	public static class Overload {
+		public final NativeFunctionImpl function;
+		public final SigType[] signature;
+
+		public Overload(NativeFunctionImpl function, SigType[] signature) {
+			this.function = function;
+			this.signature = signature;
+		}
+	}
+
 	public static interface NativeFunctionImpl {
 		ExpressionValue call(ExpressionValue[] args);
 	}
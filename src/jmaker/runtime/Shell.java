@@ -0,0 +1,157 @@
+package jmaker.runtime;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+// Everything CommandRunner needs to know about a shell. The details come from reading
+// GNU Make's source code.
+public class Shell {
+	public static final Shell CMD = new Shell(
+			"cmd", "cmd.exe",
+			new String[]{
+				"C:\\Windows\\System32"
+			},
+			// Special characters outside quotes, in single quotes and in double quotes. cmd
+			// has no single quotes or escapes that are safe to reproduce, so '^' and '%' are
+			// special everywhere.
+			"|&<>^%", null, "*?^%",
+			// Quote characters, the escape character, and where raw newlines are allowed.
+			"\"", '\0', new String[]{},
+			".bat",
+			new String[]{
+				"assoc", "break", "call", "cd", "chcp", "chdir", "cls", "color", "copy",
+				"ctty", "date", "del", "dir", "echo", "echo.", "endlocal", "erase",
+				"exit", "for", "ftype", "goto", "if", "md", "mkdir", "move",
+				"path", "pause", "prompt", "rd", "rem", "ren", "rename", "rmdir",
+				"set", "setlocal", "shift", "start", "time", "title", "type", "ver",
+				"verify", "vol", ":"
+			},
+			// Flags before a batch file; cmd can't take a script as an argument.
+			new String[]{
+				"/c"
+			}, null);
+
+	public static final Shell SH = new Shell(
+			"sh", "sh",
+			new String[]{
+				"/bin", "/usr/bin"
+			},
+			// Special characters outside quotes, in single quotes and in double quotes.
+			"#;\"*?[]&|<>(){}$`^=~", "", "\\$`",
+			// Quote characters, the escape character, and where raw newlines are allowed.
+			"'", '\\', new String[]{
+				"singleQuote"
+			},
+			".sh",
+			new String[]{
+				"cd", "eval", "exec", "exit", "login", "logout", "set", "umask", "wait",
+				"while", "for", "case", "if", ":", ".", "break", "continue", "export",
+				"read", "readonly", "shift", "times", "trap", "switch", "test", "command",
+				"echo"
+			},
+			// Flags before a batch file, and before a script passed as one argument.
+			new String[]{
+				"-e"
+			}, new String[]{
+				"-e", "-c"
+			});
+
+	private static final Shell[] allShells = new Shell[]{
+		CMD, SH
+	};
+
+	public final String name;
+	public final String baseBinary;
+	public final String[] expectedDirs;
+
+	// Characters that need a real shell, depending on where they appear. Null means that
+	// kind of quote isn't a quote in this shell.
+	public final String specialChars;
+	public final String singleQuoteSpecialChars;
+	public final String doubleQuoteSpecialChars;
+	public final String quoteChars;
+	// '\0' if the shell has no escape character outside of quotes.
+	public final char escapeChar;
+	public final String[] rawNewlineAllowedIn;
+
+	public final String batchFileExtension;
+	// Builtins and keywords. A command starting with one of these always needs the shell.
+	public final String[] commands;
+	public final String[] batchFlags;
+	// Null if the shell can't take a script as an argument.
+	public final String[] singleLineFlags;
+
+	public Shell(String name, String baseBinary, String[] expectedDirs, String specialChars, String singleQuoteSpecialChars,
+			String doubleQuoteSpecialChars, String quoteChars, char escapeChar, String[] rawNewlineAllowedIn, String batchFileExtension,
+			String[] commands, String[] batchFlags, String[] singleLineFlags) {
+		this.name = name;
+		this.baseBinary = baseBinary;
+		this.expectedDirs = expectedDirs;
+		this.specialChars = specialChars;
+		this.singleQuoteSpecialChars = singleQuoteSpecialChars;
+		this.doubleQuoteSpecialChars = doubleQuoteSpecialChars;
+		this.quoteChars = quoteChars;
+		this.escapeChar = escapeChar;
+		this.rawNewlineAllowedIn = rawNewlineAllowedIn;
+		this.batchFileExtension = batchFileExtension;
+		this.commands = commands;
+		this.batchFlags = batchFlags;
+		this.singleLineFlags = singleLineFlags;
+	}
+
+	public static Shell getDefault() {
+		if (System.getProperty("os.name").startsWith("Windows")) {
+			return CMD;
+		} else {
+			return SH;
+		}
+	}
+
+	public static Shell byName(String name) {
+		for (var shell : allShells) {
+			if (shell.name.equals(name)) {
+				return shell;
+			}
+		}
+		throw new RuntimeException("Unknown shell '" + name + "'");
+	}
+
+	// Returns the full path of the shell if it's in one of the expected directories;
+	// otherwise the bare name, which is looked up on the PATH.
+	public String getPath() {
+		for (var dir : expectedDirs) {
+			var path = Paths.get(dir, baseBinary);
+			if (Files.isRegularFile(path)) {
+				return path.toString();
+			}
+		}
+		return baseBinary;
+	}
+
+	public boolean isBuiltin(String firstWord) {
+		// Labels in cmd and the null command in sh.
+		if (firstWord.startsWith(":")) {
+			return true;
+		}
+		for (var command : commands) {
+			if (firstWord.equalsIgnoreCase(command)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isRawNewlineAllowedIn(String quoteKind) {
+		for (var kind : rawNewlineAllowedIn) {
+			if (kind.equals(quoteKind)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
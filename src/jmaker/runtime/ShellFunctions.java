@@ -1,5 +1,61 @@
 package jmaker.runtime;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import jmaker.interpreter.ArrayValue;
+import jmaker.interpreter.DataType;
+import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.Memory;
+
 public class ShellFunctions {
 
+	private static NativeFunction[] functions = new NativeFunction[]{
+		new NativeFunction("registerWorker", ShellFunctions::registerWorker)
+	};
+
+	public static void registerAll(Memory memory) {
+		for (var func : functions) {
+			memory.set(func.symbolName, func);
+		}
+	}
+
+	// registerWorker(String|Array command [, String|Array workerCommand])
+	//
+	// Commands that start with the given one are sent to a worker process started with
+	// workerCommand (by default, the same command). See WorkerPool. Returns the command,
+	// so it can be used to build the rules' commands.
+	public static ExpressionValue registerWorker(ExpressionValue[] args) {
+		if (args.length < 1 || args.length > 2) {
+			throw new ArgCountException(new int[]{
+				1, 2
+			}, args.length);
+		}
+
+		var prefix = toArgs(args[0], args);
+		var workerCommand = args.length == 2 ? toArgs(args[1], args) : prefix;
+		WorkerPool.register(prefix, workerCommand);
+		return args[0];
+	}
+
+	// A string is split on whitespace; an array is used as-is.
+	private static List<String> toArgs(ExpressionValue value, ExpressionValue[] args) {
+		if (value.getType() == DataType.String) {
+			var text = value.toString().trim();
+			if (text.isEmpty()) {
+				return List.of();
+			}
+			return Arrays.asList(text.split("\\s+"));
+		} else if (value.getType() == DataType.Array) {
+			var ret = new ArrayList<String>();
+			for (var element : (ArrayValue) value) {
+				if (element.getType() != DataType.String) {
+					throw new RuntimeException("registerWorker expects an array of strings, found " + element.getType());
+				}
+				ret.add(element.toString());
+			}
+			return ret;
+		}
+		throw new ArgTypeException(args);
+	}
 }
@@ -74,10 +74,10 @@ public class StringFunctions {
 
 		for (char c : original.toString().toCharArray()) {
 			if (Character.isUpperCase(c)) {
-				return new BooleanValue(false);
+				return BooleanValue.FALSE;
 			}
 		}
-		return new BooleanValue(true);
+		return BooleanValue.TRUE;
 	}
 
 	public static ExpressionValue isUpper(ExpressionValue[] args) {
@@ -92,10 +92,10 @@ public class StringFunctions {
 
 		for (char c : original.toString().toCharArray()) {
 			if (Character.isLowerCase(c)) {
-				return new BooleanValue(false);
+				return BooleanValue.FALSE;
 			}
 		}
-		return new BooleanValue(true);
+		return BooleanValue.TRUE;
 	}
 
 	public static ExpressionValue isAlphabetic(ExpressionValue[] args) {
@@ -110,10 +110,10 @@ public class StringFunctions {
 
 		for (char c : original.toString().toCharArray()) {
 			if (!Character.isAlphabetic(c)) {
-				return new BooleanValue(false);
+				return BooleanValue.FALSE;
 			}
 		}
-		return new BooleanValue(true);
+		return BooleanValue.TRUE;
 	}
 
 	public static ExpressionValue isNumeric(ExpressionValue[] args) {
@@ -128,10 +128,10 @@ public class StringFunctions {
 
 		for (char c : original.toString().toCharArray()) {
 			if (!Character.isDigit(c)) {
-				return new BooleanValue(false);
+				return BooleanValue.FALSE;
 			}
 		}
-		return new BooleanValue(true);
+		return BooleanValue.TRUE;
 	}
 
 	public static ExpressionValue isWhitespace(ExpressionValue[] args) {
@@ -146,10 +146,10 @@ public class StringFunctions {
 
 		for (char c : original.toString().toCharArray()) {
 			if (!Character.isWhitespace(c)) {
-				return new BooleanValue(false);
+				return BooleanValue.FALSE;
 			}
 		}
-		return new BooleanValue(true);
+		return BooleanValue.TRUE;
 	}
 
 	public static ExpressionValue isAscii(ExpressionValue[] args) {
@@ -167,10 +167,10 @@ public class StringFunctions {
 			int unicodePart = codePoint >> 7;
 
 			if (unicodePart != 0) {
-				return new BooleanValue(false);
+				return BooleanValue.FALSE;
 			}
 		}
-		return new BooleanValue(true);
+		return BooleanValue.TRUE;
 	}
 
 	public static ExpressionValue trim(ExpressionValue[] args) {
@@ -0,0 +1,199 @@
+package jmaker.runtime;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Records how long each phase of a build and each rule takes, and on which thread, so the
+// build can be looked at in chrome://tracing or Perfetto. Tracing is off unless
+// enable() is called; when it's off, begin() costs one volatile read.
+//
+// Usage:
+//   var span = Tracer.begin("parse");
+//   try {
+//       ...
+//   } finally {
+//       span.close();
+//   }
+//
+// Spans aren't AutoCloseable, because try-with-resources warns about a resource that the
+// body never uses.
+//
+// A span from begin() has to end on the thread it started on, and must not overlap other
+// spans on that thread except by nesting inside them; that's how the viewers draw each
+// thread's timeline. Work that starts on one thread and finishes on another (like a rule
+// waiting for its commands) uses beginAsync() instead, which gets a track of its own.
+public class Tracer {
+	private static volatile Tracer current = null;
+
+	private final long startNanos;
+	private final ConcurrentLinkedQueue<Span> spans;
+	private final ConcurrentHashMap<Long, String> threadNames;
+	private final AtomicLong nextAsyncId;
+
+	private Tracer() {
+		startNanos = System.nanoTime();
+		spans = new ConcurrentLinkedQueue<>();
+		threadNames = new ConcurrentHashMap<>();
+		nextAsyncId = new AtomicLong(1);
+	}
+
+	public static void enable() {
+		current = new Tracer();
+	}
+
+	// Writes everything recorded since enable() in the trace event format, and stops
+	// tracing.
+	public static void finish(Path outputPath) {
+		var tracer = current;
+		current = null;
+		if (tracer == null) {
+			return;
+		}
+		try {
+			tracer.write(outputPath);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write trace to " + outputPath, e);
+		}
+	}
+
+	// The arguments are alternating names and values, shown when the span is selected.
+	public static Span begin(String name, String... args) {
+		return begin(false, name, args);
+	}
+
+	// Like begin(), but the span can be closed on any thread.
+	public static Span beginAsync(String name, String... args) {
+		return begin(true, name, args);
+	}
+
+	private static Span begin(boolean async, String name, String[] args) {
+		var tracer = current;
+		if (tracer == null) {
+			return Span.DISABLED;
+		}
+		var thread = Thread.currentThread();
+		tracer.threadNames.putIfAbsent(thread.getId(), thread.getName());
+		long asyncId = async ? tracer.nextAsyncId.getAndIncrement() : 0;
+		return new Span(tracer, name, args, thread.getId(), asyncId, System.nanoTime());
+	}
+
+	private void write(Path outputPath) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(outputPath, StandardCharsets.UTF_8)) {
+			writer.write("{\"traceEvents\":[\n");
+			boolean first = true;
+			for (var entry : threadNames.entrySet()) {
+				if (!first) {
+					writer.write(",\n");
+				}
+				first = false;
+				writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + entry.getKey());
+				writer.write(",\"args\":{\"name\":" + quote(entry.getValue()) + "}}");
+			}
+			for (var span : spans) {
+				if (!first) {
+					writer.write(",\n");
+				}
+				first = false;
+				if (span.asyncId == 0) {
+					writeEvent(writer, span, "X", span.startNanos);
+					writer.write(",\"dur\":" + toMicros(span.endNanos - span.startNanos));
+					writeArgs(writer, span.args);
+					writer.write("}");
+				} else {
+					// A begin and an end event, paired up by their id.
+					writeEvent(writer, span, "b", span.startNanos);
+					writeArgs(writer, span.args);
+					writer.write("},\n");
+					writeEvent(writer, span, "e", span.endNanos);
+					writer.write("}");
+				}
+			}
+			writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+		}
+	}
+
+	// Writes an event object, leaving it open for more fields.
+	private void writeEvent(BufferedWriter writer, Span span, String phase, long nanos) throws IOException {
+		writer.write("{\"name\":" + quote(span.name) + ",\"cat\":\"jmaker\",\"ph\":\"" + phase + "\",\"pid\":1");
+		writer.write(",\"tid\":" + span.threadId);
+		if (span.asyncId != 0) {
+			writer.write(",\"id\":" + span.asyncId);
+		}
+		writer.write(",\"ts\":" + toMicros(nanos - startNanos));
+	}
+
+	private static void writeArgs(BufferedWriter writer, String[] args) throws IOException {
+		if (args.length == 0) {
+			return;
+		}
+		writer.write(",\"args\":{");
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (i != 0) {
+				writer.write(",");
+			}
+			writer.write(quote(args[i]) + ":" + quote(args[i + 1]));
+		}
+		writer.write("}");
+	}
+
+	private static String toMicros(long nanos) {
+		return Long.toString(nanos / 1000) + "." + String.format(Locale.ROOT, "%03d", nanos % 1000);
+	}
+
+	private static String quote(String text) {
+		var ret = new StringBuilder(text.length() + 2);
+		ret.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') {
+				ret.append('\\');
+				ret.append(c);
+			} else if (c < 0x20) {
+				ret.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			} else {
+				ret.append(c);
+			}
+		}
+		ret.append('"');
+		return ret.toString();
+	}
+
+	public static class Span {
+		private static final Span DISABLED = new Span(null, null, null, 0, 0, 0);
+
+		private final Tracer tracer;
+		private final String name;
+		private final String[] args;
+		// The thread it started on.
+		private final long threadId;
+		// 0 unless it's async.
+		private final long asyncId;
+		private final long startNanos;
+		private long endNanos;
+
+		private Span(Tracer tracer, String name, String[] args, long threadId, long asyncId, long startNanos) {
+			this.tracer = tracer;
+			this.name = name;
+			this.args = args;
+			this.threadId = threadId;
+			this.asyncId = asyncId;
+			this.startNanos = startNanos;
+			endNanos = 0;
+		}
+
+		public void close() {
+			if (tracer == null) {
+				return;
+			}
+			endNanos = System.nanoTime();
+			tracer.spans.add(this);
+		}
+	}
+}
@@ -55,37 +55,37 @@ public class TypeFunctions {
 	}
 
 	public static ExpressionValue isBool(ExpressionValue[] args) {
-		return new BooleanValue(args[0].getType() == DataType.Boolean);
+		return BooleanValue.of(args[0].getType() == DataType.Boolean);
 	}
 
 	public static ExpressionValue isInteger(ExpressionValue[] args) {
-		return new BooleanValue(args[0].getType() == DataType.Number_Int);
+		return BooleanValue.of(args[0].getType() == DataType.Number_Int);
 	}
 
 	public static ExpressionValue isDouble(ExpressionValue[] args) {
-		return new BooleanValue(args[0].getType() == DataType.Number_Double);
+		return BooleanValue.of(args[0].getType() == DataType.Number_Double);
 	}
 
 	public static ExpressionValue isString(ExpressionValue[] args) {
-		return new BooleanValue(args[0].getType() == DataType.String);
+		return BooleanValue.of(args[0].getType() == DataType.String);
 	}
 
 	public static ExpressionValue isArray(ExpressionValue[] args) {
-		return new BooleanValue(args[0].getType() == DataType.Array);
+		return BooleanValue.of(args[0].getType() == DataType.Array);
 	}
 
 	public static ExpressionValue isDict(ExpressionValue[] args) {
-		return new BooleanValue(args[0].getType() == DataType.Dictionary);
+		return BooleanValue.of(args[0].getType() == DataType.Dictionary);
 	}
 
 	public static ExpressionValue isFunction(ExpressionValue[] args) {
-		return new BooleanValue(args[0].getType() == DataType.Function);
+		return BooleanValue.of(args[0].getType() == DataType.Function);
 	}
 
 	public static ExpressionValue parseInt(ExpressionValue[] args) {
 		var arg = args[0];
 
-		return new IntegerValue(Integer.parseInt(arg.toString()));
+		return IntegerValue.of(Integer.parseInt(arg.toString()));
 	}
 
 	public static ExpressionValue parseDouble(ExpressionValue[] args) {
@@ -96,7 +96,7 @@ public class TypeFunctions {
 
 	public static ExpressionValue callFunction(ExpressionValue[] args) {
 		var function = (FunctionValue) args[0];
-		var functionArgs = ((ArrayValue) args[1]).elements;
+		var functionArgs = ((ArrayValue) args[1]).toArray();
 
 		return function.call(functionArgs);
 	}
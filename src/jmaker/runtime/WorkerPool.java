@@ -0,0 +1,283 @@
+package jmaker.runtime;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps tools running between commands, for tools that are slow to start (usually
+// because they run on a JVM). A script marks a command prefix with registerWorker();
+// after that, any command starting with that prefix is sent to an idle worker process
+// instead of starting a new process.
+//
+// Workers read requests on stdin and answer on stdout, one at a time. All numbers are
+// 4-byte big-endian integers, and all strings are UTF-8.
+//
+//   Request:  argument count, then for each argument its length in bytes and the bytes.
+//             The arguments are the ones that come after the registered prefix.
+//   Response: exit code, then the length in bytes of the output and the output, then the
+//             same for the error output.
+//
+// The output and error output are written to the command's streams, like a process's.
+// Anything a worker writes to its real stderr, outside of any request, goes to JMaker's
+// stderr. A worker should exit when its stdin is closed.
+//
+// Workers stay alive across builds (in the build server). A worker is only reused while
+// the files named in its command, like the tool's jar, are unchanged since it started.
+public class WorkerPool {
+	// Command prefix -> the command that starts a worker. Set up again by each build.
+	private static final ConcurrentHashMap<List<String>, List<String>> registrations = new ConcurrentHashMap<>();
+	// Keyed by the command that started them.
+	private static final ConcurrentHashMap<List<String>, ConcurrentLinkedQueue<Worker>> idleWorkers = new ConcurrentHashMap<>();
+	// Every worker, busy or idle, so they can all be stopped when JMaker exits.
+	private static final Set<Worker> allWorkers = ConcurrentHashMap.newKeySet();
+	private static final ExecutorService requestThreads = Executors.newCachedThreadPool(task->{
+		var thread = new Thread(task, "worker request");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		Runtime.getRuntime().addShutdownHook(new Thread(WorkerPool::stopAll));
+	}
+
+	public static void register(List<String> prefix, List<String> workerCommand) {
+		if (prefix.isEmpty() || workerCommand.isEmpty()) {
+			throw new RuntimeException("Worker commands can't be empty");
+		}
+		registrations.put(List.copyOf(prefix), List.copyOf(workerCommand));
+	}
+
+	// Called before each build's script runs. Running workers are kept.
+	public static void clearRegistrations() {
+		registrations.clear();
+	}
+
+	public static void stopAll() {
+		for (var worker : allWorkers) {
+			worker.stop();
+		}
+		idleWorkers.clear();
+	}
+
+	// Returns null if the command doesn't start with a registered prefix. If several
+	// prefixes match, the longest wins.
+	public static Request tryParse(List<String> commandArgs) {
+		List<String> bestPrefix = null;
+		for (var prefix : registrations.keySet()) {
+			if (prefix.size() <= commandArgs.size() && prefix.equals(commandArgs.subList(0, prefix.size()))) {
+				if (bestPrefix == null || prefix.size() > bestPrefix.size()) {
+					bestPrefix = prefix;
+				}
+			}
+		}
+		if (bestPrefix == null) {
+			return null;
+		}
+		var requestArgs = List.copyOf(commandArgs.subList(bestPrefix.size(), commandArgs.size()));
+		return new Request(registrations.get(bestPrefix), requestArgs);
+	}
+
+	private static void printError(OutputStream error, String message) {
+		var printer = new PrintStream(error, true, StandardCharsets.UTF_8);
+		printer.println(message);
+	}
+
+	// One command, to be sent to a worker.
+	public static class Request {
+		private final List<String> workerCommand;
+		private final List<String> args;
+
+		private Request(List<String> workerCommand, List<String> args) {
+			this.workerCommand = workerCommand;
+			this.args = args;
+		}
+
+		// Sends the request on a separate thread. The worker's output goes to the given
+		// stream; problems with the worker itself go to the error stream.
+		public CompletableFuture<Boolean> runAsync(OutputStream output, OutputStream error) {
+			return CompletableFuture.supplyAsync(()->send(output, error), requestThreads);
+		}
+
+		private boolean send(OutputStream output, OutputStream error) {
+			var span = Tracer.begin("worker request", "tool", String.join(" ", workerCommand));
+			try {
+				Worker worker;
+				try {
+					worker = borrowWorker();
+				} catch (IOException e) {
+					printError(error, "Could not start worker " + String.join(" ", workerCommand) + ": " + e.getMessage());
+					return false;
+				}
+
+				Response response;
+				try {
+					response = worker.send(args);
+				} catch (IOException e) {
+					worker.stop();
+					printError(error, "Worker " + String.join(" ", workerCommand) + " stopped responding: " + e.getMessage());
+					return false;
+				}
+				idleWorkers.computeIfAbsent(workerCommand, c->new ConcurrentLinkedQueue<>()).add(worker);
+
+				try {
+					output.write(response.output);
+					output.flush();
+					error.write(response.error);
+					error.flush();
+				} catch (IOException e) {
+					// The reader went away; the output is lost.
+				}
+				return response.exitCode == 0;
+			} finally {
+				span.close();
+			}
+		}
+
+		private Worker borrowWorker() throws IOException {
+			var idle = idleWorkers.get(workerCommand);
+			if (idle != null) {
+				Worker worker;
+				while ((worker = idle.poll()) != null) {
+					if (worker.isCurrent()) {
+						return worker;
+					}
+					worker.stop();
+				}
+			}
+			return new Worker(workerCommand);
+		}
+	}
+
+	private static class Response {
+		public final int exitCode;
+		public final byte[] output;
+		public final byte[] error;
+
+		public Response(int exitCode, byte[] output, byte[] error) {
+			this.exitCode = exitCode;
+			this.output = output;
+			this.error = error;
+		}
+	}
+
+	private static class Worker {
+		private final Process process;
+		private final DataOutputStream requests;
+		private final DataInputStream responses;
+		// The modified times of the files named in the command, when it started.
+		private final HashMap<Path, FileTime> toolFiles;
+
+		public Worker(List<String> command) throws IOException {
+			toolFiles = new HashMap<>();
+			for (var arg : command) {
+				var path = toPath(arg);
+				var attributes = path == null ? null : FileStatCache.current().getAttributes(path);
+				if (attributes != null && attributes.isRegularFile()) {
+					toolFiles.put(path, attributes.lastModifiedTime());
+				}
+			}
+
+			process = new ProcessBuilder(command).start();
+			// Not inherited, because under the build server JMaker's stderr isn't the
+			// client's.
+			var errorCopier = new Thread(()->copyToStderr(process.getErrorStream()), "worker stderr");
+			errorCopier.setDaemon(true);
+			errorCopier.start();
+			requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+			responses = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+			allWorkers.add(this);
+		}
+
+		public Response send(List<String> args) throws IOException {
+			requests.writeInt(args.size());
+			for (var arg : args) {
+				var bytes = arg.getBytes(StandardCharsets.UTF_8);
+				requests.writeInt(bytes.length);
+				requests.write(bytes);
+			}
+			requests.flush();
+
+			int exitCode = responses.readInt();
+			var output = readBytes();
+			var error = readBytes();
+			return new Response(exitCode, output, error);
+		}
+
+		private byte[] readBytes() throws IOException {
+			int length = responses.readInt();
+			if (length < 0) {
+				throw new IOException("Invalid output length " + length);
+			}
+			var bytes = new byte[length];
+			responses.readFully(bytes);
+			return bytes;
+		}
+
+		// System.err is looked up for each write, since the build server swaps it out
+		// for each client.
+		private static void copyToStderr(InputStream input) {
+			var buffer = new byte[8192];
+			try {
+				int length;
+				while ((length = input.read(buffer)) >= 0) {
+					System.err.write(buffer, 0, length);
+					System.err.flush();
+				}
+			} catch (IOException e) {
+				// The worker is gone.
+			}
+		}
+
+		// False if the worker exited, or one of its files changed.
+		public boolean isCurrent() {
+			if (!process.isAlive()) {
+				return false;
+			}
+			for (var entry : toolFiles.entrySet()) {
+				var attributes = FileStatCache.current().getAttributes(entry.getKey());
+				if (attributes == null || !Objects.equals(attributes.lastModifiedTime(), entry.getValue())) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public void stop() {
+			allWorkers.remove(this);
+			try {
+				// Closing stdin asks the worker to exit.
+				requests.close();
+			} catch (IOException e) {
+				// It's being killed anyway.
+			}
+			process.destroy();
+		}
+
+		private static Path toPath(String arg) {
+			try {
+				return Paths.get(arg);
+			} catch (InvalidPathException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -1,4 +1,5 @@
 module jmaker {
 	requires org.junit.jupiter.api;
 	requires org.antlr.antlr4.runtime;
+	requires java.compiler;
 	requires org.opentest4j;}
\ No newline at end of file
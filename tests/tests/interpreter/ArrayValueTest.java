@@ -0,0 +1,119 @@
+package tests.interpreter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static tests.interpreter.TestUtil.runProgram;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import jmaker.interpreter.ArrayValue;
+import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.IntegerValue;
+
+class ArrayValueTest {
+
+	static ExpressionValue[] range(int count) {
+		var ret = new ExpressionValue[count];
+		for (int i = 0; i < count; i++) {
+			ret[i] = IntegerValue.of(i);
+		}
+		return ret;
+	}
+
+	@Test
+	void testAppend() {
+		// Enough to need three levels in the trie.
+		var count = 40000;
+		var array = new ArrayValue(new ExpressionValue[]{});
+		var snapshots = new ArrayList<ArrayValue>();
+		for (int i = 0; i < count; i++) {
+			if (i % 997 == 0) {
+				snapshots.add(array);
+			}
+			array = array.append(IntegerValue.of(i));
+		}
+
+		var expected = range(count);
+		assertArrayEquals(expected, array.toArray());
+		assertEquals(new ArrayValue(expected), array);
+		assertEquals(new ArrayValue(expected).hashCode(), array.hashCode());
+		for (int i = 0; i < count; i++) {
+			assertEquals(IntegerValue.of(i), array.get(i));
+		}
+
+		// Older versions are unchanged.
+		for (int i = 0; i < snapshots.size(); i++) {
+			assertEquals(i * 997, snapshots.get(i).size());
+		}
+		assertEquals(new ArrayValue(range(997 * 3)), snapshots.get(3));
+	}
+
+	@Test
+	void testAgainstArrayList() {
+		var random = new Random(1234);
+		for (var initialSize : new int[]{
+			0, 1, 31, 32, 33, 1024, 1056, 1057, 33000
+		}) {
+			var expected = new ArrayList<ExpressionValue>();
+			for (var value : range(initialSize)) {
+				expected.add(value);
+			}
+			var array = new ArrayValue(range(initialSize));
+
+			for (int step = 0; step < 500; step++) {
+				int size = expected.size();
+				int action = random.nextInt(4);
+				if (action == 0 || size == 0) {
+					var value = IntegerValue.of(random.nextInt());
+					expected.add(value);
+					array = array.append(value);
+				} else if (action == 1) {
+					var index = random.nextInt(size);
+					var value = IntegerValue.of(random.nextInt());
+					expected.set(index, value);
+					array = array.set(index, value);
+				} else if (action == 2) {
+					var index = random.nextInt(size);
+					expected.remove(index);
+					array = array.remove(index);
+				} else {
+					var start = random.nextInt(size);
+					var end = start + random.nextInt(size - start + 1);
+					expected = new ArrayList<>(expected.subList(start, end));
+					array = array.slice(start, end);
+				}
+				assertEquals(expected.size(), array.size());
+			}
+			assertEquals(new ArrayValue(expected), array);
+		}
+	}
+
+	@Test
+	void testSliceThenAppend() {
+		var original = new ArrayValue(range(100));
+		var slice = original.slice(10, 20);
+		var appended = slice.append(IntegerValue.of(-1));
+
+		assertEquals(IntegerValue.of(20), original.get(20));
+		assertEquals(10, slice.size());
+		assertEquals(11, appended.size());
+		assertEquals(IntegerValue.of(-1), appended.get(10));
+		assertEquals(IntegerValue.of(10), appended.get(0));
+	}
+
+	@Test
+	void testBuildingLists() {
+		var out = runProgram(String.join("\n",
+			"out = [];",
+			"i = 0;",
+			"while i < 5000 {",
+			"	out = out + i;",
+			"	i = i + 1;",
+			"}",
+			"out = out + [\"end\"];"));
+		var array = (ArrayValue) out;
+		assertEquals(5001, array.size());
+		assertEquals(IntegerValue.of(4999), array.get(4999));
+		assertEquals("end", array.get(5000).toString());
+	}
+}
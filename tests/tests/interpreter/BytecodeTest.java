@@ -0,0 +1,184 @@
+package tests.interpreter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static tests.interpreter.TestUtil.parseProgram;
+import static tests.interpreter.TestUtil.runProgram;
+import org.junit.jupiter.api.Test;
+import jmaker.interpreter.Interpreter;
+import jmaker.interpreter.IntegerValue;
+import jmaker.interpreter.StringValue;
+
+// Checks that compiled scripts behave the same as walking the tree.
+class BytecodeTest {
+
+	void assertSameResult(String code) {
+		var expected = runProgram(code, "out", Interpreter.Mode.TREE_WALKER);
+		var actual = runProgram(code, "out", Interpreter.Mode.BYTECODE);
+		assertEquals(expected, actual);
+	}
+
+	void assertSameError(String code) {
+		var expected = assertThrows(RuntimeException.class, ()->runProgram(code, "out", Interpreter.Mode.TREE_WALKER));
+		var actual = assertThrows(RuntimeException.class, ()->runProgram(code, "out", Interpreter.Mode.BYTECODE));
+		assertEquals(expected.getMessage(), actual.getMessage());
+	}
+
+	// Errors in rule bodies only happen once the rule's commands are needed.
+	void assertSameRuleError(String code) {
+		var expected = assertThrows(RuntimeException.class, ()->expandRules(code, Interpreter.Mode.TREE_WALKER));
+		var actual = assertThrows(RuntimeException.class, ()->expandRules(code, Interpreter.Mode.BYTECODE));
+		assertEquals(expected.getMessage(), actual.getMessage());
+	}
+
+	void expandRules(String code, Interpreter.Mode mode) {
+		var interpreter = new Interpreter(parseProgram(code), mode);
+		interpreter.run();
+		for (var rule : interpreter.getRules()) {
+			rule.getCommands();
+		}
+	}
+
+	@Test
+	void testExpressions() {
+		assertSameResult("out = 1 + 2 * 3 - -4;");
+		assertSameResult("out = !(1 < 2) || 2.5 >= 2;");
+		assertSameResult("out = [1, \"two\", [3.0]] + 4;");
+		assertSameResult("out = {\"a\": 1, \"b\": [2]}[\"b\"][0];");
+		assertSameResult("out = toString(parseInt(\"41\") + 1);");
+		assertSameResult("out = call(call, [parseDouble, [\"3.14\"]]);");
+	}
+
+	@Test
+	void testControlFlow() {
+		assertSameResult("i = 0; out = 0; while i < 10 { out = out + i; i = i + 1; }");
+		assertSameResult("x = 5; out = 0; if x < 3 { out = 1; } else if x < 6 { out = 2; } else { out = 3; }");
+		assertSameResult("x = 7; out = 0; if x < 3 { out = 1; } else if x < 6 { out = 2; } else { out = 3; }");
+		assertSameResult("out = 0; if false { out = 1; }");
+
+		// Scopes.
+		assertSameResult("out = 1; { out = 2; temp = 3; }");
+		assertSameError("{ temp = 3; } out = temp;");
+		assertSameError("i = 0; while i < 2 { last = i; i = i + 1; } out = last;");
+	}
+
+	@Test
+	void testErrors() {
+		assertSameError("out = missing;");
+		assertSameError("f = 5; out = f(1);");
+		assertSameError("out = -true;");
+		assertSameError("out = !5;");
+		assertSameError("if 1 { out = 1; }");
+		assertSameError("while \"\" { }");
+		assertSameError("out = \"a\" - 1;");
+		assertSameError("> \"echo hi\";");
+		assertSameError("5: { }");
+		assertSameError("\"a\": 5 { }");
+		assertSameRuleError("\"a\": { > 5; }");
+		assertSameRuleError("\"a\": { \"b\": { } }");
+	}
+
+	@Test
+	void testRules() {
+		var code = String.join("\n",
+			"flags = \"-g\";",
+			"files = [\"a.java\", \"b.java\"];",
+			"\"all\": \"a.class\", \"b.class\" { }",
+			"i = 0;",
+			"while i < 2 {",
+			"	name = files[i];",
+			"	name + \".class\": name {",
+			"		> \"javac \" + flags + \" \" + name;",
+			"		if i == 1 { > \"echo last\"; }",
+			"	}",
+			"	i = i + 1;",
+			"}");
+
+		for (var mode : Interpreter.Mode.values()) {
+			var interpreter = new Interpreter(parseProgram(code), mode);
+			interpreter.run();
+			var rules = interpreter.getRules();
+			assertEquals(3, rules.size());
+			assertArrayEquals(new String[]{
+				"all"
+			}, rules.get(0).targets);
+			assertArrayEquals(new String[]{
+				"a.class", "b.class"
+			}, rules.get(0).dependencies);
+			assertArrayEquals(new String[]{}, rules.get(0).getCommands());
+			assertArrayEquals(new String[]{
+				"b.java.class"
+			}, rules.get(2).targets);
+			assertArrayEquals(new String[]{
+				"b.java"
+			}, rules.get(2).dependencies);
+			assertArrayEquals(new String[]{
+				"javac -g b.java", "echo last"
+			}, rules.get(2).getCommands());
+		}
+	}
+
+	@Test
+	void testPatternRules() {
+		var code = String.join("\n",
+			"flags = \"-g\";",
+			"\"build/*.class\": \"src/*.java\", \"lib.jar\" {",
+			"	> \"javac \" + flags + \" \" + dep + \" -d \" + target;",
+			"	> \"echo \" + toString(length(deps));",
+			"}",
+			"flags = \"-O\";");
+
+		for (var mode : Interpreter.Mode.values()) {
+			var interpreter = new Interpreter(parseProgram(code), mode);
+			interpreter.run();
+			var rule = interpreter.getRules().get(0);
+			assertTrue(rule.isPattern());
+
+			// The body sees the variables as they were when the rule was made.
+			var instance = rule.instantiate("a/B");
+			assertArrayEquals(new String[]{
+				"build/a/B.class"
+			}, instance.targets);
+			assertArrayEquals(new String[]{
+				"src/a/B.java", "lib.jar"
+			}, instance.dependencies);
+			assertArrayEquals(new String[]{
+				"javac -g src/a/B.java -d build/a/B.class", "echo 2"
+			}, instance.getCommands());
+		}
+	}
+
+	@Test
+	void testLazyRules() {
+		var code = String.join("\n",
+			"x = 1;",
+			"\"a\": { x = 2; > \"echo \" + toString(x); }",
+			"\"b\": { > missing; }",
+			"x = 3;");
+
+		for (var mode : Interpreter.Mode.values()) {
+			var interpreter = new Interpreter(parseProgram(code), mode);
+			interpreter.run();
+			assertEquals(new IntegerValue(3), interpreter.memory.get("x"));
+
+			// Only the rules that are asked for run their bodies.
+			var rules = interpreter.getRules();
+			var commands = rules.get(0).getCommands();
+			assertArrayEquals(new String[]{
+				"echo 2"
+			}, commands);
+			assertSame(commands, rules.get(0).getCommands());
+			assertThrows(RuntimeException.class, ()->rules.get(1).getCommands());
+			assertEquals(new IntegerValue(3), interpreter.memory.get("x"));
+		}
+	}
+
+	@Test
+	void testDefaultMode() {
+		assertEquals(new IntegerValue(6), runProgram("out = 1 + 2 + 3;"));
+		assertEquals(new StringValue("ab"), runProgram("a = \"a\"; out = a + \"b\";"));
+	}
+}
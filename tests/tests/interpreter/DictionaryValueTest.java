@@ -0,0 +1,102 @@
+package tests.interpreter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static tests.interpreter.TestUtil.runProgram;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import jmaker.interpreter.ArrayValue;
+import jmaker.interpreter.DictionaryValue;
+import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.IntegerValue;
+import jmaker.interpreter.StringValue;
+
+class DictionaryValueTest {
+
+	@Test
+	void testAgainstHashMap() {
+		var random = new Random(4321);
+		// These all have the same hash code.
+		var collidingKeys = new String[]{
+			"AaAa", "AaBB", "BBAa", "BBBB"
+		};
+
+		var expected = new HashMap<ExpressionValue, ExpressionValue>();
+		var dict = DictionaryValue.EMPTY;
+		for (int step = 0; step < 20000; step++) {
+			ExpressionValue key;
+			if (random.nextInt(10) == 0) {
+				key = new StringValue(collidingKeys[random.nextInt(collidingKeys.length)]);
+			} else if (random.nextBoolean()) {
+				key = IntegerValue.of(random.nextInt(5000));
+			} else {
+				key = new StringValue("key" + random.nextInt(5000));
+			}
+
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				dict = dict.without(key);
+			} else {
+				var value = IntegerValue.of(step);
+				expected.put(key, value);
+				dict = dict.with(key, value);
+			}
+			assertEquals(expected.size(), dict.elements.size());
+		}
+
+		assertEquals(expected, dict.elements);
+		assertEquals(new DictionaryValue(expected), dict);
+		assertEquals(new DictionaryValue(expected).hashCode(), dict.hashCode());
+		for (var entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), dict.elements.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	void testUnchangedVersions() {
+		var original = new DictionaryValue(Map.of(new StringValue("a"), IntegerValue.of(1)));
+		var changed = original.with(new StringValue("b"), IntegerValue.of(2));
+		var removed = changed.without(new StringValue("a"));
+
+		assertEquals(1, original.elements.size());
+		assertEquals(2, changed.elements.size());
+		assertEquals(Map.of(new StringValue("b"), IntegerValue.of(2)), removed.elements);
+
+		// No-op changes don't copy anything.
+		assertSame(original, original.without(new StringValue("missing")));
+		assertSame(original, original.with(new StringValue("a"), IntegerValue.of(1)));
+	}
+
+	@Test
+	void testMerge() {
+		var small = new DictionaryValue(Map.of(
+			new StringValue("a"), IntegerValue.of(1),
+			new StringValue("b"), IntegerValue.of(2)));
+		var large = new DictionaryValue(Map.of(
+			new StringValue("b"), IntegerValue.of(20),
+			new StringValue("c"), IntegerValue.of(30),
+			new StringValue("d"), IntegerValue.of(40)));
+
+		// The right side wins, whichever side is bigger.
+		assertEquals(new DictionaryValue(Map.of(
+			new StringValue("a"), IntegerValue.of(1),
+			new StringValue("b"), IntegerValue.of(20),
+			new StringValue("c"), IntegerValue.of(30),
+			new StringValue("d"), IntegerValue.of(40))), small.merge(large));
+		assertEquals(new DictionaryValue(Map.of(
+			new StringValue("a"), IntegerValue.of(1),
+			new StringValue("b"), IntegerValue.of(2),
+			new StringValue("c"), IntegerValue.of(30),
+			new StringValue("d"), IntegerValue.of(40))), large.merge(small));
+	}
+
+	@Test
+	void testInvalidKeys() {
+		assertThrows(RuntimeException.class, ()->DictionaryValue.EMPTY.with(new ArrayValue(new ExpressionValue[]{}), IntegerValue.of(1)));
+		assertThrows(RuntimeException.class, ()->DictionaryValue.EMPTY.with(DictionaryValue.EMPTY, IntegerValue.of(1)));
+		assertThrows(RuntimeException.class, ()->runProgram("out = set({}, [], 1);"));
+	}
+}
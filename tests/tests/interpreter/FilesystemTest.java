@@ -1,6 +1,7 @@
 package tests.interpreter;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static tests.interpreter.TestUtil.runProgram;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -9,6 +10,7 @@ import org.junit.jupiter.api.Test;
 import jmaker.interpreter.ArrayValue;
 import jmaker.interpreter.BooleanValue;
 import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.IntegerValue;
 import jmaker.interpreter.StringValue;
 import jmaker.runtime.FileSystemFunctions;
 
@@ -94,4 +96,52 @@ class FilesystemTest {
 		Files.delete(path);
 		Files.delete(path.getParent());
 	}
+
+	@Test
+	void testFindFiles() throws IOException {
+		var root = Files.createTempDirectory("findFiles");
+		var files = new String[]{
+			"b.java", "a.java", "notes.txt", "x/c.java", "x/y/d.java", "x/y/e.txt", "z/f.java"
+		};
+		for (var file : files) {
+			var path = root.resolve(file);
+			Files.createDirectories(path.getParent());
+			Files.createFile(path);
+		}
+		var rootString = root.toString().replace("\\", "\\\\");
+
+		var out = runProgram("out = findFiles(\"" + rootString + "\", \"*.java\");");
+		assertEquals(new ArrayValue(new ExpressionValue[]{
+			new StringValue(root.resolve("a.java").toString()),
+			new StringValue(root.resolve("b.java").toString()),
+			new StringValue(root.resolve("x/c.java").toString()),
+			new StringValue(root.resolve("x/y/d.java").toString()),
+			new StringValue(root.resolve("z/f.java").toString())
+		}), out);
+
+		out = runProgram("out = findFiles([\"" + rootString + "\", \"missing\"], \"*.txt\", false);");
+		assertEquals(new ArrayValue(new ExpressionValue[]{
+			new StringValue(root.resolve("notes.txt").toString())
+		}), out);
+
+		// Patterns with a separator match the path relative to the root.
+		out = runProgram("out = findFiles(\"" + rootString + "\", \"x/*\");");
+		assertEquals(new ArrayValue(new ExpressionValue[]{
+			new StringValue(root.resolve("x/c.java").toString())
+		}), out);
+
+		out = runProgram("out = length(findFiles(\"" + rootString + "\"));");
+		assertEquals(IntegerValue.of(files.length), out);
+
+		assertThrows(RuntimeException.class, ()->runProgram("out = findFiles(5);"));
+		assertThrows(RuntimeException.class, ()->runProgram("out = findFiles(\"a\", \"*\", 1);"));
+
+		for (var file : files) {
+			Files.delete(root.resolve(file));
+		}
+		Files.delete(root.resolve("x/y"));
+		Files.delete(root.resolve("x"));
+		Files.delete(root.resolve("z"));
+		Files.delete(root);
+	}
 }
@@ -0,0 +1,67 @@
+package tests.interpreter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static tests.interpreter.TestUtil.parseProgram;
+import static tests.interpreter.TestUtil.runProgram;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import jmaker.interpreter.IntegerValue;
+import jmaker.interpreter.Interpreter;
+import jmaker.interpreter.Resolver;
+import jmaker.parser.Expression.LocalSymbol;
+import jmaker.parser.Expression.Symbol;
+import jmaker.parser.Statement.Assignment;
+import jmaker.parser.Statement.BlockStatement;
+
+class ResolverTest {
+
+	@Test
+	void testSlots() {
+		var script = Resolver.resolve(parseProgram("g = 1; { a = 2; b = a; { c = b; g = c; } }"), Set.of());
+		assertEquals(0, script.frameSize);
+		assertEquals(new Symbol("g"), ((Assignment) script.statements[0]).leftSide);
+
+		var outer = ((BlockStatement) script.statements[1]).block;
+		assertEquals(2, outer.frameSize);
+		assertEquals(new LocalSymbol("a", 0, 0), ((Assignment) outer.statements[0]).leftSide);
+		assertEquals(new LocalSymbol("b", 0, 1), ((Assignment) outer.statements[1]).leftSide);
+		assertEquals(new LocalSymbol("a", 0, 0), ((Assignment) outer.statements[1]).rightSide);
+
+		var inner = ((BlockStatement) outer.statements[2]).block;
+		assertEquals(1, inner.frameSize);
+		assertEquals(new LocalSymbol("c", 0, 0), ((Assignment) inner.statements[0]).leftSide);
+		assertEquals(new LocalSymbol("b", 1, 1), ((Assignment) inner.statements[0]).rightSide);
+		assertEquals(new Symbol("g"), ((Assignment) inner.statements[1]).leftSide);
+	}
+
+	@Test
+	void testBuiltinsAreGlobal() {
+		var script = Resolver.resolve(parseProgram("{ isBool = 1; }"), Set.of("isBool"));
+		var block = ((BlockStatement) script.statements[0]).block;
+		assertEquals(0, block.frameSize);
+		assertEquals(new Symbol("isBool"), ((Assignment) block.statements[0]).leftSide);
+	}
+
+	@Test
+	void testScopes() {
+		for (var mode : Interpreter.Mode.values()) {
+			// Inner blocks update variables from outer blocks.
+			assertEquals(new IntegerValue(3), runProgram("out = 0; { a = 1; { a = a + 2; } out = a; }", "out", mode));
+
+			// Each loop iteration gets a fresh scope.
+			assertEquals(new IntegerValue(3), runProgram(String.join("\n",
+				"out = 0; i = 0;",
+				"while i < 3 {",
+				"	count = 0;",
+				"	{ count = count + 1; }",
+				"	out = out + count;",
+				"	i = i + 1;",
+				"}"), "out", mode));
+
+			// A global declared later isn't visible to earlier blocks.
+			assertThrows(RuntimeException.class, ()->runProgram("{ temp = out; } out = 1;", "out", mode));
+			assertEquals(new IntegerValue(1), runProgram("{ out = 2; } out = 1;", "out", mode));
+		}
+	}
+}
@@ -74,8 +74,12 @@ public abstract class TestUtil {
 	}
 
 	public static ExpressionValue runProgram(String code, String outVar) {
+		return runProgram(code, outVar, Interpreter.Mode.BYTECODE);
+	}
+
+	public static ExpressionValue runProgram(String code, String outVar, Interpreter.Mode mode) {
 		var rootBlock = parseProgram(code);
-		var interpreter = new Interpreter(rootBlock);
+		var interpreter = new Interpreter(rootBlock, mode);
 		interpreter.run();
 		var ret = interpreter.memory.get(outVar);
 		assertNotNull(ret, outVar + " wasn't defined");
@@ -100,7 +104,7 @@ public abstract class TestUtil {
 	public static void assertArrayEqualsUnordered(ExpressionValue[] expected, ExpressionValue actual) {
 		assertNotNull(actual);
 		assertEquals(actual.getType(), DataType.Array);
-		var inner = ((ArrayValue) actual).elements;
+		var inner = ((ArrayValue) actual).toArray();
 		assertArrayEqualsUnordered(expected, inner);
 	}
 
@@ -1,11 +1,14 @@
 package tests.interpreter;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static tests.interpreter.TestUtil.runProgram;
 import org.junit.jupiter.api.Test;
 import jmaker.interpreter.ArrayValue;
+import jmaker.interpreter.BooleanValue;
 import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.IntegerValue;
 import jmaker.interpreter.StringValue;
 
 class TypeSystemTest {
@@ -47,4 +50,13 @@ class TypeSystemTest {
 		out = runProgram("out = {} + \"\";");
 		assertEquals(new StringValue("{}"), out);
 	}
+
+	@Test
+	void testSharedInstances() {
+		assertSame(BooleanValue.TRUE, runProgram("out = 1 < 2;"));
+		assertSame(BooleanValue.FALSE, runProgram("out = !true;"));
+		assertSame(IntegerValue.of(10), runProgram("i = 0; while i < 10 { i = i + 1; } out = i;"));
+		assertEquals(IntegerValue.of(100000), runProgram("out = 50000 * 2;"));
+		assertEquals(new IntegerValue(-5), IntegerValue.of(-5));
+	}
 }
@@ -0,0 +1,162 @@
+package tests.main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import jmaker.interpreter.RuleValue;
+import jmaker.main.BuildState;
+import jmaker.runtime.FileStatCache;
+
+class BuildStateTest {
+	private Path dir;
+	private Path input;
+	private Path output;
+
+	@BeforeEach
+	void createFiles() throws IOException {
+		dir = Files.createTempDirectory("state");
+		input = dir.resolve("in.txt");
+		output = dir.resolve("out.txt");
+		Files.writeString(input, "input", StandardCharsets.UTF_8);
+		Files.writeString(output, "output", StandardCharsets.UTF_8);
+		FileStatCache.reset();
+	}
+
+	@AfterEach
+	void deleteFiles() throws IOException {
+		try (var files = Files.list(dir)) {
+			for (var file : files.toArray(Path[]::new)) {
+				Files.delete(file);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	private RuleValue copyRule(String command) {
+		return new RuleValue(new String[]{
+			output.toString()
+		}, new String[]{
+			input.toString()
+		}, new String[]{
+			command
+		});
+	}
+
+	@Test
+	void testUpToDate() throws IOException {
+		var state = BuildState.load(dir.resolve("state"));
+		var rule = copyRule("cp in.txt out.txt");
+		assertFalse(state.isUpToDate(rule));
+		state.recordSuccess(rule);
+		assertTrue(state.isUpToDate(rule));
+		assertFalse(state.isUpToDate(copyRule("cp -p in.txt out.txt")));
+
+		// Touching a file doesn't change its contents.
+		Files.setLastModifiedTime(input, FileTime.fromMillis(0));
+		FileStatCache.reset();
+		assertTrue(state.isUpToDate(rule));
+
+		Files.writeString(input, "changed", StandardCharsets.UTF_8);
+		FileStatCache.reset();
+		assertFalse(state.isUpToDate(rule));
+		state.recordSuccess(rule);
+		assertTrue(state.isUpToDate(rule));
+
+		Files.delete(output);
+		FileStatCache.reset();
+		assertFalse(state.isUpToDate(rule));
+		Files.writeString(output, "output", StandardCharsets.UTF_8);
+		FileStatCache.reset();
+		assertTrue(state.isUpToDate(rule));
+
+		state.recordFailure(rule);
+		assertFalse(state.isUpToDate(rule));
+	}
+
+	@Test
+	void testRacyModifiedTime() throws IOException {
+		var state = BuildState.load(dir.resolve("state"));
+		var rule = copyRule("cp in.txt out.txt");
+		state.recordSuccess(rule);
+		assertTrue(state.isUpToDate(rule));
+
+		// The same size and modified time, right after the file was hashed.
+		var modifiedTime = Files.getLastModifiedTime(input);
+		Files.writeString(input, "INPUT", StandardCharsets.UTF_8);
+		Files.setLastModifiedTime(input, modifiedTime);
+		FileStatCache.reset();
+		assertFalse(state.isUpToDate(rule));
+	}
+
+	@Test
+	void testSaveAndLoad() {
+		var storePath = dir.resolve("state");
+		var state = BuildState.load(storePath);
+		var rule = copyRule("cp in.txt out.txt");
+		assertEquals(-1, state.getDuration(rule));
+		state.recordSuccess(rule);
+		state.recordDuration(rule, 1234);
+		state.save();
+
+		var loaded = BuildState.load(storePath);
+		assertTrue(loaded.isUpToDate(rule));
+		assertEquals(1234, loaded.getDuration(rule));
+	}
+
+	@Test
+	void testOddTargetNames() {
+		var storePath = dir.resolve("state");
+		var state = BuildState.load(storePath);
+		var names = new String[]{
+			"a\tb", "a\nb", "a\\tb", "C:\\temp\\", "a\r\n"
+		};
+		for (int i = 0; i < names.length; i++) {
+			state.recordDuration(copyRuleFor(names[i]), i + 1);
+		}
+		state.save();
+
+		var loaded = BuildState.load(storePath);
+		for (int i = 0; i < names.length; i++) {
+			assertEquals(i + 1, loaded.getDuration(copyRuleFor(names[i])));
+		}
+	}
+
+	private RuleValue copyRuleFor(String target) {
+		return new RuleValue(new String[]{
+			target
+		}, new String[]{}, new String[]{
+			"cp in.txt " + target
+		});
+	}
+
+	@Test
+	void testCorruptStore() throws IOException {
+		var storePath = dir.resolve("state");
+		var rule = copyRule("cp in.txt out.txt");
+		var state = BuildState.load(storePath);
+		state.recordSuccess(rule);
+		state.recordDuration(rule, 1234);
+		state.save();
+
+		// Records from other versions are dropped, and the rest is kept.
+		Files.writeString(storePath, "X\tunknown\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+		var loaded = BuildState.load(storePath);
+		assertTrue(loaded.isUpToDate(rule));
+		assertEquals(1234, loaded.getDuration(rule));
+
+		// A record that can't be read throws the whole store away.
+		Files.writeString(storePath, "D\tnot a number\t" + output + "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+		loaded = BuildState.load(storePath);
+		assertFalse(loaded.isUpToDate(rule));
+		assertEquals(-1, loaded.getDuration(rule));
+	}
+}
@@ -0,0 +1,198 @@
+package tests.main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import jmaker.interpreter.RuleValue;
+import jmaker.main.BuildState;
+import jmaker.main.DependGraph;
+import jmaker.runtime.Shell;
+
+// The commands are run by sh, so these only work where there is one.
+class DependGraphTest {
+	private Path dir;
+	private Path log;
+
+	@BeforeEach
+	void createDir() throws IOException {
+		dir = Files.createTempDirectory("graph");
+		log = dir.resolve("log");
+	}
+
+	@AfterEach
+	void deleteDir() throws IOException {
+		try (var files = Files.walk(dir)) {
+			for (var file : files.sorted((a, b)->b.compareTo(a)).toArray(Path[]::new)) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	// A rule that adds its name to the log, after running the given commands.
+	private RuleValue rule(String name, String... commands) {
+		var allCommands = new String[commands.length + 1];
+		System.arraycopy(commands, 0, allCommands, 0, commands.length);
+		allCommands[commands.length] = "echo " + name + " >> " + log;
+		return new RuleValue(new String[]{
+			name
+		}, new String[]{}, allCommands);
+	}
+
+	private List<String> readLog() throws IOException {
+		if (!Files.exists(log)) {
+			return List.of();
+		}
+		return Files.readAllLines(log, Charset.defaultCharset());
+	}
+
+	@Test
+	void testDependenciesRunFirst() throws IOException {
+		var a = rule("a");
+		var b = rule("b");
+		var c = rule("c");
+		var all = rule("all");
+		var graph = new DependGraph(null, Shell.SH);
+		for (var rule : List.of(a, b, c, all)) {
+			graph.addRule(rule);
+		}
+		graph.addDependency(b, a);
+		graph.addDependency(c, a);
+		graph.addDependency(all, b);
+		graph.addDependency(all, c);
+
+		assertTrue(graph.execute(4));
+		var order = readLog();
+		assertEquals(4, order.size());
+		assertEquals("a", order.get(0));
+		assertEquals(Set.of("b", "c"), Set.copyOf(order.subList(1, 3)));
+		assertEquals("all", order.get(3));
+	}
+
+	@Test
+	void testJobLimit() throws IOException {
+		var graph = new DependGraph(null, Shell.SH);
+		for (int i = 0; i < 6; i++) {
+			graph.addRule(rule("r" + i, "echo + >> " + log, "sleep 0.1", "echo - >> " + log));
+		}
+		assertTrue(graph.execute(2));
+
+		int running = 0;
+		int mostRunning = 0;
+		for (var line : readLog()) {
+			if (line.equals("+")) {
+				running += 1;
+				mostRunning = Math.max(mostRunning, running);
+			} else if (line.equals("-")) {
+				running -= 1;
+			}
+		}
+		assertEquals(2, mostRunning);
+		assertThrows(RuntimeException.class, ()->graph.execute(0));
+	}
+
+	@Test
+	void testStopsAfterFailure() throws IOException {
+		// The failing rule is at the start of the longer chain, so it goes first.
+		var failing = rule("failing", "false");
+		var after = rule("after");
+		var other = rule("other");
+		var graph = new DependGraph(null, Shell.SH);
+		graph.addRule(failing);
+		graph.addRule(after);
+		graph.addRule(other);
+		graph.addDependency(after, failing);
+
+		assertFalse(graph.execute(1));
+		assertSame(failing, graph.getFailedRule());
+		assertEquals(List.of(), readLog());
+	}
+
+	@Test
+	void testLongestChainFirst() throws IOException {
+		var state = BuildState.load(dir.resolve("state"));
+		var head = rule("head");
+		var tail = rule("tail");
+		var middle = rule("middle");
+		var quick = rule("quick");
+		var unknown = rule("unknown");
+		state.recordDuration(head, 10);
+		state.recordDuration(tail, 1000);
+		state.recordDuration(middle, 500);
+		state.recordDuration(quick, 100);
+		var graph = new DependGraph(state, Shell.SH);
+		for (var rule : List.of(quick, middle, unknown, tail, head)) {
+			graph.addRule(rule);
+		}
+		graph.addDependency(tail, head);
+
+		// head's chain takes 1010ms, and the rule that never ran is guessed to take the
+		// average, 402ms.
+		assertTrue(graph.execute(1));
+		assertEquals(List.of("head", "tail", "middle", "unknown", "quick"), readLog());
+	}
+
+	@Test
+	void testExecuteAffected() throws IOException {
+		var a = rule("a");
+		var b = rule("b");
+		var c = rule("c");
+		var graph = new DependGraph(null, Shell.SH);
+		graph.addRule(a);
+		graph.addRule(b);
+		graph.addRule(c);
+		graph.addDependency(b, a);
+		graph.addInput(a, "a.in");
+		graph.addInput(c, "c.in");
+		assertEquals(Set.of("a.in", "c.in"), graph.getInputs());
+		assertTrue(graph.execute(1));
+
+		Files.delete(log);
+		assertTrue(graph.executeAffected(List.of("a.in"), 1));
+		assertEquals(List.of("a", "b"), readLog());
+
+		Files.delete(log);
+		assertTrue(graph.executeAffected(List.of("unused.in"), 1));
+		assertEquals(List.of(), readLog());
+	}
+
+	@Test
+	void testRetriesUnfinishedRules() throws IOException {
+		var flag = dir.resolve("flag");
+		var a = rule("a", "test -f " + flag);
+		var b = rule("b");
+		var c = rule("c");
+		var graph = new DependGraph(null, Shell.SH);
+		graph.addRule(a);
+		graph.addRule(b);
+		graph.addRule(c);
+		graph.addDependency(b, a);
+		graph.addInput(a, "a.in");
+		graph.addInput(c, "c.in");
+
+		assertFalse(graph.execute(1));
+		assertSame(a, graph.getFailedRule());
+		assertFalse(readLog().contains("b"));
+
+		// Only c's input changed, but a failed and b never ran, so they run too.
+		Files.createFile(flag);
+		Files.deleteIfExists(log);
+		assertTrue(graph.executeAffected(List.of("c.in"), 1));
+		assertEquals(Set.of("a", "b", "c"), Set.copyOf(readLog()));
+
+		// Now everything is finished.
+		Files.delete(log);
+		assertTrue(graph.executeAffected(List.of("c.in"), 1));
+		assertEquals(List.of("c"), readLog());
+	}
+}
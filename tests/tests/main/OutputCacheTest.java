@@ -0,0 +1,83 @@
+package tests.main;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import jmaker.main.OutputCache;
+
+class OutputCacheTest {
+	private Path dir;
+
+	@BeforeEach
+	void createDir() throws IOException {
+		dir = Files.createTempDirectory("outputCache");
+	}
+
+	@AfterEach
+	void deleteDir() throws IOException {
+		try (var paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path->path.toFile().delete());
+		}
+	}
+
+	@Test
+	void testStoreAndRestore() throws IOException {
+		var cache = new OutputCache(dir.resolve("cache"), 1024 * 1024);
+		var targets = new String[]{
+			dir.resolve("a.class").toString(), dir.resolve("out/b.class").toString()
+		};
+		Files.createDirectories(dir.resolve("out"));
+		Files.writeString(Path.of(targets[0]), "first");
+		Files.writeString(Path.of(targets[1]), "second");
+
+		assertFalse(cache.restore("aa11", targets));
+		cache.store("aa11", targets);
+
+		Files.writeString(Path.of(targets[0]), "changed");
+		Files.delete(Path.of(targets[1]));
+		Files.delete(dir.resolve("out"));
+		assertTrue(cache.restore("aa11", targets));
+		assertEquals("first", Files.readString(Path.of(targets[0])));
+		assertEquals("second", Files.readString(Path.of(targets[1])));
+
+		// Directories can't be cached.
+		cache.store("bb22", new String[]{
+			dir.toString()
+		});
+		assertFalse(cache.restore("bb22", new String[]{
+			dir.toString()
+		}));
+	}
+
+	@Test
+	void testEvictsLeastRecentlyUsed() throws IOException {
+		var cache = new OutputCache(dir.resolve("cache"), 250);
+		var target = new String[]{
+			dir.resolve("target").toString()
+		};
+		var keys = new String[]{
+			"aa01", "aa02", "bb03"
+		};
+		for (int i = 0; i < keys.length; i++) {
+			Files.writeString(Path.of(target[0]), "x".repeat(100));
+			cache.store(keys[i], target);
+			var entry = dir.resolve("cache").resolve("entries").resolve(keys[i].substring(0, 2)).resolve(keys[i]);
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(1000000L * (i + 1)));
+		}
+		// Using the oldest entry makes it the newest.
+		assertTrue(cache.restore("aa01", target));
+
+		cache.trim();
+		assertTrue(cache.restore("aa01", target));
+		assertFalse(cache.restore("aa02", target));
+		assertTrue(cache.restore("bb03", target));
+	}
+}
@@ -0,0 +1,158 @@
+package tests.main;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import jmaker.interpreter.RuleValue;
+import jmaker.main.DependGraph;
+import jmaker.main.Ruleset;
+
+class RulesetTest {
+
+	static RuleValue exact(String target, String... dependencies) {
+		return new RuleValue(new String[]{
+			target
+		}, dependencies, new String[]{});
+	}
+
+	// The single command says which pattern made it.
+	static RuleValue pattern(String target, String... dependencies) {
+		return new RuleValue(new String[]{
+			target
+		}, dependencies, (targets, deps)->new String[]{
+			target
+		});
+	}
+
+	@Test
+	void testExactBeforePattern() {
+		var exact = exact("src/main.o");
+		var rules = new Ruleset(List.of(pattern("src/*.o", "src/*.c"), exact));
+
+		assertSame(exact, rules.findRule("src/main.o"));
+		var rule = rules.findRule("src/util.o");
+		assertArrayEquals(new String[]{
+			"src/util.c"
+		}, rule.dependencies);
+		assertNull(rules.findRule("src/util.c"));
+	}
+
+	@Test
+	void testMostSpecificPattern() {
+		var rules = new Ruleset(List.of(
+			pattern("*.o"),
+			pattern("build/*.o"),
+			pattern("build/*"),
+			pattern("build/gen/*.o")));
+
+		assertEquals("*.o", rules.findRule("main.o").getCommands()[0]);
+		assertEquals("build/*.o", rules.findRule("build/main.o").getCommands()[0]);
+		assertEquals("build/*", rules.findRule("build/main.c").getCommands()[0]);
+		assertEquals("build/gen/*.o", rules.findRule("build/gen/a.o").getCommands()[0]);
+
+		// The stem can't be empty.
+		assertEquals("build/*", rules.findRule("build/.o").getCommands()[0]);
+		assertEquals("*.o", rules.findRule("gen/.o").getCommands()[0]);
+		assertNull(rules.findRule(".o"));
+	}
+
+	@Test
+	void testTiesGoToFirstRule() {
+		var rules = new Ruleset(List.of(pattern("a*"), pattern("*c")));
+		assertEquals("a*", rules.findRule("abc").getCommands()[0]);
+		rules = new Ruleset(List.of(pattern("*c"), pattern("a*")));
+		assertEquals("*c", rules.findRule("abc").getCommands()[0]);
+	}
+
+	@Test
+	void testInstancesAreShared() {
+		var rule = new RuleValue(new String[]{
+			"*.class", "*.h"
+		}, new String[]{
+			"*.java"
+		}, (targets, deps)->new String[]{
+			"javac " + deps[0]
+		});
+		var rules = new Ruleset(List.of(rule));
+
+		var instance = rules.findRule("Main.class");
+		assertSame(instance, rules.findRule("Main.class"));
+		assertSame(instance, rules.findRule("Main.h"));
+		assertArrayEquals(new String[]{
+			"javac Main.java"
+		}, instance.getCommands());
+	}
+
+	@Test
+	void testManyPatterns() {
+		var ruleList = new ArrayList<RuleValue>();
+		for (int i = 0; i < 20000; i++) {
+			ruleList.add(pattern("out/" + i + "/*.o", "src/" + i + "/*.c"));
+		}
+		var rules = new Ruleset(ruleList);
+		var rule = rules.findRule("out/12345/x/y.o");
+		assertArrayEquals(new String[]{
+			"src/12345/x/y.c"
+		}, rule.dependencies);
+		assertNull(rules.findRule("out/20000/y.o"));
+	}
+
+	@Test
+	void testGraphInputs() throws IOException {
+		var source = Files.createTempFile("input", ".c").toString();
+		var rules = new Ruleset(List.of(exact("all", "main.o"), exact("main.o", source)));
+		var graph = new DependGraph();
+		rules.buildGraph("all", graph);
+
+		assertEquals(Set.of(source), graph.getInputs());
+		assertThrows(RuntimeException.class, ()->rules.buildGraph("missing", graph));
+		Files.delete(Paths.get(source));
+	}
+
+	@Test
+	void testPatternFallback() throws IOException {
+		var dir = Files.createTempDirectory("fallback");
+		var lexer = dir.resolve("lexer.c");
+		var main = dir.resolve("main.c");
+		Files.createFile(lexer);
+		Files.createFile(main);
+		var rules = new Ruleset(List.of(
+			exact("lexer", lexer.toString()),
+			pattern(dir + "/*.c", dir + "/*.y"),
+			pattern(dir + "/m*.o", dir + "/m*.s"),
+			pattern("*.o", "*.c")));
+
+		// An existing file is used as it is when its pattern rule can't be used.
+		assertNull(rules.findRule(lexer.toString()));
+		var graph = new DependGraph();
+		rules.buildGraph("lexer", graph);
+		assertEquals(Set.of(lexer.toString()), graph.getInputs());
+
+		// The next best pattern is used instead.
+		assertEquals("*.o", rules.findRule(dir.resolve("main.o").toString()).getCommands()[0]);
+		// If nothing works, the best pattern is named in the error.
+		assertArrayEquals(new String[]{
+			dir + "/parser.y"
+		}, rules.findRule(dir.resolve("parser.c").toString()).dependencies);
+
+		Files.delete(lexer);
+		Files.delete(main);
+		Files.delete(dir);
+	}
+
+	@Test
+	void testErrors() {
+		assertThrows(RuntimeException.class, ()->pattern("a*b*"));
+		assertThrows(RuntimeException.class, ()->new Ruleset(List.of(pattern("*.o"), pattern("*.o"))));
+		assertThrows(RuntimeException.class, ()->new Ruleset(List.of(exact("a"), exact("a"))));
+	}
+}
@@ -0,0 +1,59 @@
+package tests.parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import jmaker.main.ScriptCache;
+import tests.interpreter.TestUtil;
+
+class ScriptCacheTest {
+
+	Path cacheDir;
+
+	@BeforeEach
+	void createCacheDir() throws IOException {
+		cacheDir = Files.createTempDirectory("jmaker-cache-test");
+	}
+
+	@AfterEach
+	void deleteCacheDir() throws IOException {
+		try (var paths = Files.walk(cacheDir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path->path.toFile().delete());
+		}
+	}
+
+	@Test
+	void testRoundTrip() {
+		var source = String.join("\n", new String[]{
+			"foo = {\"a\": [1, 2.5, true, \"bar\"]};",
+			"for (x = foo[\"a\"]) { if (x == 1) { y = -x; } else { y = !false; } }",
+			"\"out.class\": \"in.java\" { > \"javac \" + \"in.java\"; }"
+		});
+		var parsed = TestUtil.parseProgram(source);
+
+		var cache = new ScriptCache(cacheDir);
+		assertNull(cache.get("build.jmaker", source));
+		cache.put("build.jmaker", source, parsed);
+
+		var loaded = new ScriptCache(cacheDir).get("build.jmaker", source);
+		assertNotNull(loaded);
+		assertEquals(parsed, loaded);
+	}
+
+	@Test
+	void testChangedSourceMisses() {
+		var source = "foo = 3;";
+		var cache = new ScriptCache(cacheDir);
+		cache.put("build.jmaker", source, TestUtil.parseProgram(source));
+
+		assertNull(cache.get("build.jmaker", "foo = 4;"));
+		assertNull(cache.get("other.jmaker", source));
+	}
+}
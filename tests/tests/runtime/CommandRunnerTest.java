@@ -0,0 +1,109 @@
+package tests.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import jmaker.runtime.CommandRunner;
+import jmaker.runtime.Shell;
+
+class CommandRunnerTest {
+	private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream error = new ByteArrayOutputStream();
+
+	@AfterEach
+	void resetOutput() {
+		CommandRunner.redirectOutput(null, null);
+	}
+
+	// The printed commands, then the commands' output.
+	private List<String> outputLines() {
+		return List.of(output.toString(StandardCharsets.UTF_8).split("\n"));
+	}
+
+	@Test
+	void testRunAsync() throws Exception {
+		CommandRunner.redirectOutput(output, error);
+		var runner = new CommandRunner(new String[]{
+			"echo one && echo two", "sh -c true"
+		}, Shell.SH);
+		assertTrue(runner.runAsync().get(10, TimeUnit.SECONDS));
+		assertEquals(List.of("echo one && echo two", "sh -c true", "one", "two"), outputLines());
+		assertEquals(0, error.size());
+	}
+
+	@Test
+	void testStopsAtFirstFailure() throws Exception {
+		CommandRunner.redirectOutput(output, error);
+		var runner = new CommandRunner(new String[]{
+			"echo one", "sh -c 'exit 3'", "echo two"
+		}, Shell.SH);
+		assertFalse(runner.runAsync().get(10, TimeUnit.SECONDS));
+		assertEquals(List.of("echo one", "sh -c 'exit 3'", "echo two", "one"), outputLines());
+	}
+
+	@Test
+	void testCancel() throws Exception {
+		CommandRunner.redirectOutput(output, error);
+		var runner = new CommandRunner(new String[]{
+			"sleep 30", "echo after"
+		}, Shell.SH);
+		var result = runner.runAsync();
+		runner.cancel();
+		// Much sooner than the sleep would finish.
+		assertFalse(result.get(10, TimeUnit.SECONDS));
+		assertEquals(List.of("sleep 30", "echo after"), outputLines());
+	}
+
+	@Test
+	void testSimpleCommands() {
+		for (var shell : new Shell[]{
+			Shell.CMD, Shell.SH
+		}) {
+			assertEquals(List.of("javac", "a.java", "-d", "bin"), CommandRunner.miniLexer("javac a.java -d bin", shell));
+			assertEquals(List.of("javac", "a.java"), CommandRunner.miniLexer("  javac \t a.java  ", shell));
+		}
+		assertEquals(List.of("javac", "my file.java", ""), CommandRunner.miniLexer("javac \"my file.java\" \"\"", Shell.CMD));
+	}
+
+	@Test
+	void testShellQuoting() {
+		assertEquals(List.of("echo2", "a b", "$HOME"), CommandRunner.miniLexer("echo2 'a b' '$HOME'", Shell.SH));
+		assertEquals(List.of("tool", "a b"), CommandRunner.miniLexer("tool a\\ b", Shell.SH));
+		// Single quotes aren't quotes in cmd.
+		assertEquals(List.of("tool", "'a", "b'"), CommandRunner.miniLexer("tool 'a b'", Shell.CMD));
+	}
+
+	@Test
+	void testNeedsShell() {
+		// Special characters.
+		assertNull(CommandRunner.miniLexer("javac a.java > log.txt", Shell.CMD));
+		assertNull(CommandRunner.miniLexer("javac a.java && jar", Shell.SH));
+		assertNull(CommandRunner.miniLexer("javac *.java", Shell.SH));
+		assertNull(CommandRunner.miniLexer("javac %SOURCES%", Shell.CMD));
+		assertNull(CommandRunner.miniLexer("javac \"a.java\"", Shell.SH));
+		assertNull(CommandRunner.miniLexer("CLASSPATH=lib javac a.java", Shell.SH));
+
+		// Builtins.
+		assertNull(CommandRunner.miniLexer("echo hello", Shell.SH));
+		assertNull(CommandRunner.miniLexer("ECHO hello", Shell.CMD));
+		assertNull(CommandRunner.miniLexer("mkdir bin", Shell.CMD));
+		assertNull(CommandRunner.miniLexer(":label", Shell.CMD));
+
+		// Odd quoting.
+		assertNull(CommandRunner.miniLexer("javac \"a.java", Shell.CMD));
+		assertNull(CommandRunner.miniLexer("javac a'b'", Shell.SH));
+		assertNull(CommandRunner.miniLexer("javac \"a\"b", Shell.CMD));
+		assertNull(CommandRunner.miniLexer("javac a.java \\", Shell.SH));
+
+		// Nothing at all.
+		assertNull(CommandRunner.miniLexer("   ", Shell.SH));
+		assertNull(CommandRunner.miniLexer("javac a.java\njar", Shell.CMD));
+	}
+}
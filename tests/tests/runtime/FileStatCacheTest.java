@@ -0,0 +1,37 @@
+package tests.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import jmaker.runtime.FileStatCache;
+
+class FileStatCacheTest {
+
+	@Test
+	void testCachesUntilInvalidated() throws IOException {
+		var cache = new FileStatCache();
+		var dir = Files.createTempDirectory("statCache");
+		var file = dir.resolve("file.txt");
+
+		cache.prefetch(List.of(file.toString(), dir.toString()));
+		assertFalse(cache.exists(file));
+		assertTrue(cache.isDirectory(dir));
+
+		// Stale until the path is invalidated.
+		Files.createFile(file);
+		assertFalse(cache.exists(file));
+		cache.invalidate(file.toString());
+		assertTrue(cache.isFile(file));
+		assertTrue(cache.canRead(file));
+		assertFalse(cache.isDirectory(file));
+
+		// Different spellings of the same path share an entry.
+		Files.delete(file);
+		assertTrue(cache.isFile(dir.resolve("sub").resolve("..").resolve("file.txt")));
+
+		Files.delete(dir);
+	}
+}
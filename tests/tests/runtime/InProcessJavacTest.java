@@ -0,0 +1,57 @@
+package tests.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import jmaker.runtime.InProcessJavac;
+
+class InProcessJavacTest {
+
+	@Test
+	void testParse() {
+		assertNotNull(InProcessJavac.tryParse(List.of("javac", "a.java", "-cp", "lib.jar", "-d", "bin", "-g")));
+		assertNotNull(InProcessJavac.tryParse(List.of("javac", "--release", "11", "a.java", "b.java")));
+
+		assertNull(InProcessJavac.tryParse(List.of("java", "a.java")));
+		assertNull(InProcessJavac.tryParse(List.of("javac", "-J-Xmx1g", "a.java")));
+		assertNull(InProcessJavac.tryParse(List.of("javac", "@sources.txt")));
+		assertNull(InProcessJavac.tryParse(List.of("javac", "a.java", "-d")));
+		assertNull(InProcessJavac.tryParse(List.of("javac", "-version")));
+	}
+
+	@Test
+	void testCompile() throws IOException {
+		var dir = Files.createTempDirectory("javac");
+		var source = dir.resolve("A.java");
+		var out = dir.resolve("bin");
+		Files.writeString(source, "class A { }", Charset.defaultCharset());
+
+		// The second time reuses the file manager.
+		for (int i = 0; i < 2; i++) {
+			var errors = new ByteArrayOutputStream();
+			var javac = InProcessJavac.tryParse(List.of("javac", source.toString(), "-d", out.toString()));
+			assertTrue(javac.runAsync(errors).join());
+			assertTrue(Files.isRegularFile(out.resolve("A.class")));
+			assertEquals(0, errors.size());
+		}
+
+		Files.writeString(source, "class A { int x = \"\"; }", Charset.defaultCharset());
+		var errors = new ByteArrayOutputStream();
+		var javac = InProcessJavac.tryParse(List.of("javac", source.toString(), "-d", out.toString()));
+		assertFalse(javac.runAsync(errors).join());
+		assertTrue(errors.toString(Charset.defaultCharset()).contains("A.java"));
+
+		Files.delete(out.resolve("A.class"));
+		Files.delete(out);
+		Files.delete(source);
+		Files.delete(dir);
+	}
+}
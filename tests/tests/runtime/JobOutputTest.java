@@ -0,0 +1,45 @@
+package tests.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+import jmaker.runtime.JobOutput;
+
+class JobOutputTest {
+
+	@Test
+	void testSmallOutput() throws IOException {
+		var job = new JobOutput(16);
+		job.output.write("out".getBytes(StandardCharsets.UTF_8));
+		job.error.write("err".getBytes(StandardCharsets.UTF_8));
+		assertFalse(job.isSpilled());
+
+		var out = new ByteArrayOutputStream();
+		var err = new ByteArrayOutputStream();
+		job.writeTo(out, err);
+		assertEquals("out", out.toString(StandardCharsets.UTF_8));
+		assertEquals("err", err.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void testSpillsToDisk() throws IOException {
+		var job = new JobOutput(16);
+		var expected = new StringBuilder();
+		for (int i = 0; i < 10; i++) {
+			var line = "line " + i + "\n";
+			job.output.write(line.getBytes(StandardCharsets.UTF_8));
+			expected.append(line);
+		}
+		assertTrue(job.isSpilled());
+
+		var out = new ByteArrayOutputStream();
+		var err = new ByteArrayOutputStream();
+		job.writeTo(out, err);
+		assertEquals(expected.toString(), out.toString(StandardCharsets.UTF_8));
+		assertEquals(0, err.size());
+	}
+}
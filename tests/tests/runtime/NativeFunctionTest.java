@@ -0,0 +1,80 @@
+package tests.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+import jmaker.interpreter.BooleanValue;
+import jmaker.interpreter.DoubleValue;
+import jmaker.interpreter.ExpressionValue;
+import jmaker.interpreter.IntegerValue;
+import jmaker.interpreter.StringValue;
+import jmaker.runtime.NativeFunction;
+import jmaker.runtime.NativeFunction.Overload;
+import jmaker.runtime.NativeFunction.SigType;
+
+class NativeFunctionTest {
+
+	static NativeFunction.NativeFunctionImpl returning(String name) {
+		return args->new StringValue(name);
+	}
+
+	@Test
+	void testOverloads() {
+		var function = new NativeFunction("test", new Overload[]{
+			new Overload(returning("int"), new SigType[]{
+				SigType.Integer
+			}),
+			new Overload(returning("number"), new SigType[]{
+				SigType.Number
+			}),
+			new Overload(returning("pair"), new SigType[]{
+				SigType.String, SigType.Any
+			}),
+			new Overload(returning("five"), new SigType[]{
+				SigType.Any, SigType.Any, SigType.Any, SigType.Any, SigType.Integer
+			})
+		});
+		var one = IntegerValue.of(1);
+
+		// The first matching signature wins.
+		assertEquals(new StringValue("int"), function.call(new ExpressionValue[]{
+			one
+		}));
+		assertEquals(new StringValue("number"), function.call(new ExpressionValue[]{
+			new DoubleValue(1.5)
+		}));
+		assertEquals(new StringValue("pair"), function.call(new ExpressionValue[]{
+			new StringValue("a"), BooleanValue.TRUE
+		}));
+
+		// Too many arguments for a table.
+		assertEquals(new StringValue("five"), function.call(new ExpressionValue[]{
+			one, one, one, one, one
+		}));
+
+		assertThrows(RuntimeException.class, ()->function.call(new ExpressionValue[]{
+			BooleanValue.TRUE
+		}));
+		assertThrows(RuntimeException.class, ()->function.call(new ExpressionValue[]{
+			one, new StringValue("a")
+		}));
+		assertThrows(RuntimeException.class, ()->function.call(new ExpressionValue[]{
+			one, one, one
+		}));
+		assertThrows(RuntimeException.class, ()->function.call(new ExpressionValue[]{
+			one, one, one, one, new StringValue("a")
+		}));
+		assertThrows(RuntimeException.class, ()->function.call(new ExpressionValue[]{
+			one, one, one, one, one, one
+		}));
+	}
+
+	@Test
+	void testNoSignature() {
+		var function = new NativeFunction("test", returning("any"));
+		assertEquals(new StringValue("any"), function.call(new ExpressionValue[]{}));
+		assertEquals(new StringValue("any"), function.call(new ExpressionValue[]{
+			BooleanValue.FALSE, BooleanValue.TRUE
+		}));
+	}
+}
@@ -0,0 +1,58 @@
+package tests.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import org.junit.jupiter.api.Test;
+import jmaker.runtime.Tracer;
+
+class TracerTest {
+
+	@Test
+	void testWritesTraceEvents() throws IOException, InterruptedException {
+		var path = Files.createTempFile("trace", ".json");
+		Tracer.enable();
+		var outer = Tracer.begin("outer");
+		var inner = Tracer.begin("inner \"quoted\"", "target", "a\\b");
+		inner.close();
+		outer.close();
+		var async = Tracer.beginAsync("async");
+		var thread = new Thread(async::close);
+		thread.start();
+		thread.join();
+		Tracer.finish(path);
+
+		var trace = Files.readString(path);
+		assertTrue(trace.startsWith("{\"traceEvents\":["));
+		assertTrue(trace.contains("\"name\":\"outer\",\"cat\":\"jmaker\",\"ph\":\"X\""));
+		assertTrue(trace.contains("\"name\":\"inner \\\"quoted\\\"\""));
+		assertTrue(trace.contains("\"args\":{\"target\":\"a\\\\b\"}"));
+		assertTrue(trace.contains("\"ph\":\"M\""));
+		assertTrue(trace.contains("\"name\":\"async\",\"cat\":\"jmaker\",\"ph\":\"b\""));
+		assertTrue(trace.contains("\"name\":\"async\",\"cat\":\"jmaker\",\"ph\":\"e\""));
+
+		// Spans after finishing aren't recorded anywhere.
+		Tracer.begin("ignored").close();
+		Files.delete(path);
+	}
+
+	@Test
+	void testNumbersIgnoreLocale() throws IOException {
+		var path = Files.createTempFile("trace", ".json");
+		var locale = Locale.getDefault();
+		// Formats numbers with Persian digits by default.
+		Locale.setDefault(Locale.forLanguageTag("fa"));
+		try {
+			Tracer.enable();
+			Tracer.begin("span").close();
+			Tracer.finish(path);
+		} finally {
+			Locale.setDefault(locale);
+		}
+
+		var trace = Files.readString(path);
+		assertTrue(trace.chars().allMatch(c->c < 0x80), trace);
+		Files.delete(path);
+	}
+}
@@ -0,0 +1,109 @@
+package tests.runtime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import jmaker.runtime.FileStatCache;
+import jmaker.runtime.WorkerPool;
+
+class WorkerPoolTest {
+	// Answers each request with its process ID and arguments, and fails with an error
+	// message if the first argument is "fail".
+	private static final String WORKER_SOURCE = String.join("\n",
+		"import java.io.*;",
+		"import java.nio.charset.StandardCharsets;",
+		"public class EchoWorker {",
+		"	public static void main(String[] args) throws IOException {",
+		"		var in = new DataInputStream(new BufferedInputStream(System.in));",
+		"		var out = new DataOutputStream(new BufferedOutputStream(System.out));",
+		"		while (true) {",
+		"			int count;",
+		"			try { count = in.readInt(); } catch (EOFException e) { return; }",
+		"			var text = new StringBuilder(Long.toString(ProcessHandle.current().pid()));",
+		"			boolean fail = false;",
+		"			for (int i = 0; i < count; i++) {",
+		"				var bytes = new byte[in.readInt()];",
+		"				in.readFully(bytes);",
+		"				var arg = new String(bytes, StandardCharsets.UTF_8);",
+		"				fail |= i == 0 && arg.equals(\"fail\");",
+		"				text.append(' ').append(arg);",
+		"			}",
+		"			var output = text.toString().getBytes(StandardCharsets.UTF_8);",
+		"			var error = (fail ? \"failed\" : \"\").getBytes(StandardCharsets.UTF_8);",
+		"			out.writeInt(fail ? 1 : 0);",
+		"			out.writeInt(output.length);",
+		"			out.write(output);",
+		"			out.writeInt(error.length);",
+		"			out.write(error);",
+		"			out.flush();",
+		"		}",
+		"	}",
+		"}");
+
+	@AfterEach
+	void stopWorkers() {
+		WorkerPool.clearRegistrations();
+		WorkerPool.stopAll();
+	}
+
+	@Test
+	void testParse() {
+		WorkerPool.register(List.of("tool"), List.of("tool", "--worker"));
+		WorkerPool.register(List.of("tool", "gen"), List.of("gen-worker"));
+		assertNull(WorkerPool.tryParse(List.of("other", "a")));
+		assertNull(WorkerPool.tryParse(List.of("tools", "a")));
+		assertNotNull(WorkerPool.tryParse(List.of("tool")));
+		assertNotNull(WorkerPool.tryParse(List.of("tool", "gen", "a.tmx")));
+
+		WorkerPool.clearRegistrations();
+		assertNull(WorkerPool.tryParse(List.of("tool", "a")));
+	}
+
+	@Test
+	void testRequests() throws IOException {
+		var dir = Files.createTempDirectory("worker");
+		var source = dir.resolve("EchoWorker.java");
+		Files.writeString(source, WORKER_SOURCE, StandardCharsets.UTF_8);
+		var java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+		FileStatCache.reset();
+		WorkerPool.register(List.of("echo-tool"), List.of(java, source.toString()));
+
+		var first = send(List.of("echo-tool", "a", "b c"), true, "");
+		var firstPid = first.split(" ")[0];
+		assertEquals(firstPid + " a b c", first);
+
+		// The same worker answers the next request, even a failing one.
+		assertEquals(firstPid + " fail", send(List.of("echo-tool", "fail"), false, "failed"));
+		assertEquals(firstPid, send(List.of("echo-tool"), true, ""));
+
+		// Changing a file in the worker's command starts a new worker.
+		Files.writeString(source, WORKER_SOURCE + "\n", StandardCharsets.UTF_8);
+		Files.setLastModifiedTime(source, FileTime.fromMillis(0));
+		FileStatCache.reset();
+		assertNotEquals(firstPid, send(List.of("echo-tool"), true, ""));
+
+		WorkerPool.stopAll();
+		Files.delete(source);
+		Files.delete(dir);
+	}
+
+	private static String send(List<String> command, boolean expectSuccess, String expectedError) {
+		var request = WorkerPool.tryParse(command);
+		var output = new ByteArrayOutputStream();
+		var error = new ByteArrayOutputStream();
+		var success = request.runAsync(output, error).join();
+		assertEquals(expectSuccess, success, error.toString(StandardCharsets.UTF_8));
+		assertEquals(expectedError, error.toString(StandardCharsets.UTF_8));
+		return output.toString(StandardCharsets.UTF_8);
+	}
+}